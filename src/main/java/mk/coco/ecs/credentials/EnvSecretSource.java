@@ -0,0 +1,75 @@
+package mk.coco.ecs.credentials;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads secrets from system properties and environment variables, mostly for local runs and tests without a cluster.
+ *
+ * Key "key" of secret "name" is read from system property {@code name.key} or, if not set, from environment variable
+ * {@code NAME_KEY} (upper case, every char that is not a letter or a digit replaced by "_"). System properties win.
+ * Values can't change while the JVM runs, so watches never notify anything.
+ */
+@Slf4j
+public class EnvSecretSource implements SecretSource {
+
+    @Override
+    public Map<String, String> read(String secretName) {
+        log.debug("Reading secret {} from system properties and environment.", secretName);
+        String propertyPrefix = secretName + ".";
+        String envPrefix = toEnvName(propertyPrefix);
+
+        Map<String, String> values = new HashMap<>();
+        // Env vars can't be mapped back to the exact key, so they are also reachable through their env name
+        for (Map.Entry<String, String> env : System.getenv().entrySet()) {
+            if (env.getKey().startsWith(envPrefix)) {
+                values.put(env.getKey().substring(envPrefix.length()).toLowerCase(Locale.ROOT).replace('_', '.'), env.getValue());
+            }
+        }
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith(propertyPrefix)) {
+                values.put(property.substring(propertyPrefix.length()), System.getProperty(property));
+            }
+        }
+        return Collections.unmodifiableMap(new EnvSecretMap(values, envPrefix));
+    }
+
+    @Override
+    public Closeable watch(String secretName, Consumer<Map<String, String>> listener) {
+        return () -> { };
+    }
+
+    static String toEnvName(String name) {
+        StringBuilder envName = new StringBuilder(name.length());
+        for (int ii = 0; ii < name.length(); ii++) {
+            char c = name.charAt(ii);
+            envName.append(Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : '_');
+        }
+        return envName.toString();
+    }
+
+    /**
+     * Values found when reading the secret, that also looks up the exact env name of keys not found by name
+     */
+    private static final class EnvSecretMap extends HashMap<String, String> {
+        private final String envPrefix;
+
+        private EnvSecretMap(Map<String, String> values, String envPrefix) {
+            super(values);
+            this.envPrefix = envPrefix;
+        }
+
+        @Override
+        public String get(Object key) {
+            String value = super.get(key);
+            if (value == null && key != null) value = System.getenv(envPrefix + toEnvName(key.toString()));
+            return value;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package mk.coco.ecs.credentials;
+
+import io.fabric8.kubernetes.client.AutoAdaptableKubernetesClient;
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the single {@link KubernetesClient} used to read secrets, so every {@link MySecrets} shares one connection
+ * pool and its threads instead of creating (and leaking) a client each.
+ *
+ * The client is created on first use and closed by {@link #close()}, which is also registered as a JVM shutdown hook.
+ * A client is created again if it is needed after being closed.
+ */
+@Slf4j
+public class KubernetesClientHolder {
+
+    private static volatile KubernetesClient client;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(KubernetesClientHolder::close, "mk-ecs-k8s-shutdown"));
+    }
+
+    private KubernetesClientHolder() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * Gets the shared client, creating it on first use
+     * @return              The shared KubernetesClient (must not be closed by the caller)
+     */
+    public static KubernetesClient getClient() {
+        KubernetesClient current = client;
+        if (current != null) return current;
+
+        synchronized (KubernetesClientHolder.class) {
+            if (client == null) {
+                log.debug("Creating shared KubernetesClient.");
+                Config config = new ConfigBuilder().withDisableHostnameVerification(true).build();
+                client = new AutoAdaptableKubernetesClient(config);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Closes the shared client, if it was created
+     */
+    public static void close() {
+        KubernetesClient current;
+        synchronized (KubernetesClientHolder.class) {
+            current = client;
+            client = null;
+        }
+        if (current != null) {
+            log.debug("Closing shared KubernetesClient.");
+            try {
+                current.close();
+            } catch (Exception e) {
+                log.warn("There was an error closing KubernetesClient.", e);
+            }
+        }
+    }
+}
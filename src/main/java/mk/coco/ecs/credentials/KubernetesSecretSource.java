@@ -0,0 +1,123 @@
+package mk.coco.ecs.credentials;
+
+import io.fabric8.kubernetes.api.model.Secret;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reads secrets from the Kubernetes API server through the client shared in {@link KubernetesClientHolder}
+ *
+ * Watches closed by errors are opened again after {@link #getReconnectDelayMillis()}.
+ */
+@Slf4j
+public class KubernetesSecretSource implements SecretSource {
+
+    @Getter private static volatile long reconnectDelayMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private static final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-k8s-watch-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Sets the delay before opening again a watch closed by an error
+     * @param delay         Delay, must be greater than 0
+     * @param unit          Unit of delay
+     */
+    public static void setReconnectDelay(long delay, TimeUnit unit) {
+        if (delay <= 0) throw new IllegalArgumentException("Reconnect delay must be greater than 0");
+        reconnectDelayMillis = unit.toMillis(delay);
+    }
+
+    @Override
+    public Map<String, String> read(String secretName) {
+        log.debug("Reading secret {} from Kubernetes.", secretName);
+        return decode(KubernetesClientHolder.getClient().secrets().withName(secretName).get());
+    }
+
+    @Override
+    public Closeable watch(String secretName, Consumer<Map<String, String>> listener) {
+        SecretWatch secretWatch = new SecretWatch(secretName, listener);
+        secretWatch.open();
+        return secretWatch::stop;
+    }
+
+    private static Map<String, String> decode(Secret secret) {
+        Map<String, String> decoded = new HashMap<>();
+        if (secret.getData() != null) {
+            for (Map.Entry<String, String> entry : secret.getData().entrySet()) {
+                byte[] valueDecoded = Base64.decodeBase64(entry.getValue());
+                decoded.put(entry.getKey(), new String(valueDecoded));
+            }
+        }
+        return Collections.unmodifiableMap(decoded);
+    }
+
+    /**
+     * A watch on a secret, opened again when it fails
+     */
+    private static final class SecretWatch implements Watcher<Secret> {
+        private final String secretName;
+        private final Consumer<Map<String, String>> listener;
+        private Watch watch;
+        private volatile boolean stopped;
+
+        private SecretWatch(String secretName, Consumer<Map<String, String>> listener) {
+            this.secretName = secretName;
+            this.listener = listener;
+        }
+
+        private synchronized void open() {
+            if (stopped) return;
+            try {
+                log.debug("Watching secret {}.", secretName);
+                watch = KubernetesClientHolder.getClient().secrets().withName(secretName).watch(this);
+            } catch (Exception e) {
+                log.error("There was an error watching secret {}.", secretName, e);
+                scheduleReconnect();
+            }
+        }
+
+        private synchronized void stop() {
+            stopped = true;
+            if (watch != null) watch.close();
+            watch = null;
+        }
+
+        private void scheduleReconnect() {
+            if (!stopped) reconnector.schedule(this::open, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void eventReceived(Action action, Secret secret) {
+            if (action != Action.ADDED && action != Action.MODIFIED) {
+                log.warn("Ignoring {} event of secret {}.", action, secretName);
+                return;
+            }
+            log.debug("Secret {} changed ({}).", secretName, action);
+            listener.accept(decode(secret));
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            if (cause != null) {
+                log.warn("Watch of secret {} was closed, opening it again.", secretName, cause);
+                scheduleReconnect();
+            }
+        }
+    }
+}
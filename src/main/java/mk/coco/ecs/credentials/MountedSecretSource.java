@@ -0,0 +1,113 @@
+package mk.coco.ecs.credentials;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads secrets mounted as volumes: each key of secret "name" is the file {@code <basePath>/<name>/<key>}, by default
+ * under {@link #DEFAULT_BASE_PATH}. No call is made to the Kubernetes API server.
+ *
+ * Watches use a {@link WatchService} on the directory of the secret. Kubernetes updates mounted secrets by swapping
+ * the hidden "..data" link, so any change in the directory makes the whole secret be read again, and listeners are
+ * only notified if some value changed.
+ */
+@Slf4j
+public class MountedSecretSource implements SecretSource {
+
+    public static final String DEFAULT_BASE_PATH = "/var/run/secrets";
+    // Files of a secret change in several steps, wait this long after an event so they are read once all are done
+    private static final long SETTLE_MILLIS = 200;
+
+    @Getter private final Path basePath;
+
+    /**
+     * Returns a new MountedSecretSource reading from {@link #DEFAULT_BASE_PATH}
+     */
+    public MountedSecretSource() {
+        this(DEFAULT_BASE_PATH);
+    }
+
+    /**
+     * Returns a new MountedSecretSource
+     * @param basePath      Directory containing one directory per secret
+     */
+    public MountedSecretSource(String basePath) {
+        this.basePath = Paths.get(basePath);
+    }
+
+    @Override
+    public Map<String, String> read(String secretName) throws IOException {
+        Path secretPath = basePath.resolve(secretName);
+        log.debug("Reading secret {} from {}.", secretName, secretPath);
+
+        Map<String, String> values = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(secretPath)) {
+            for (Path file : files) {
+                String key = file.getFileName().toString();
+                // Hidden entries are Kubernetes' own bookkeeping ("..data", "..2020_01_01...")
+                if (key.startsWith(".") || !Files.isRegularFile(file)) continue;
+                values.put(key, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public Closeable watch(String secretName, Consumer<Map<String, String>> listener) throws IOException {
+        Path secretPath = basePath.resolve(secretName);
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        secretPath.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        Map<String, String> initial = read(secretName);
+        Thread watcher = new Thread(() -> watchLoop(secretName, watchService, initial, listener), "mk-ecs-secret-files-" + secretName);
+        watcher.setDaemon(true);
+        watcher.start();
+        return watchService;
+    }
+
+    private void watchLoop(String secretName, WatchService watchService, Map<String, String> initial,
+                           Consumer<Map<String, String>> listener) {
+        Map<String, String> current = initial;
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Thread.sleep(SETTLE_MILLIS);
+                key.pollEvents();
+                key.reset();
+                try {
+                    Map<String, String> values = read(secretName);
+                    if (!values.equals(current)) {
+                        log.debug("Mounted secret {} changed.", secretName);
+                        current = values;
+                        listener.accept(values);
+                    }
+                } catch (IOException e) {
+                    // Files are swapped in several steps, next event will read the complete secret
+                    log.debug("Mounted secret {} could not be read, waiting for next change.", secretName, e);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching mounted secret {}.", secretName);
+        }
+    }
+}
@@ -1,20 +1,77 @@
 package mk.coco.ecs.credentials;
 
-import io.fabric8.kubernetes.api.model.DoneableSecret;
-import io.fabric8.kubernetes.api.model.Secret;
-import io.fabric8.kubernetes.client.AutoAdaptableKubernetesClient;
-import io.fabric8.kubernetes.client.Config;
-import io.fabric8.kubernetes.client.ConfigBuilder;
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.dsl.Resource;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.binary.Base64;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class MySecrets {
 
-    Config config = new ConfigBuilder().withDisableHostnameVerification(true).build();
-    KubernetesClient client = new AutoAdaptableKubernetesClient(config);
+    /**
+     * System property selecting the default secret source: "kubernetes" (default, also used for unknown values),
+     * "mounted" or "env"
+     */
+    public static final String SOURCE_PROPERTY = "mk.ecs.secrets.source";
+    /**
+     * System property with the base path of mounted secrets, see {@link MountedSecretSource}
+     */
+    public static final String MOUNTED_PATH_PROPERTY = "mk.ecs.secrets.mountedPath";
+
+    // Decoded secrets, shared by every MySecrets instance
+    private static final Map<String, CachedSecret> cache = new ConcurrentHashMap<>();
+    // Reads in progress, so threads missing the same secret wait for a single read
+    private static final Map<String, CompletableFuture<CachedSecret>> reading = new ConcurrentHashMap<>();
+    @Getter private static volatile long ttlMillis = TimeUnit.MINUTES.toMillis(5);
+    @Getter private static volatile SecretSource source = defaultSource();
+
+    /**
+     * All keys of a secret, already decoded, and when they were read
+     */
+    private static final class CachedSecret {
+        private final Map<String, String> values;
+        private final long readAtMillis;
+
+        private CachedSecret(Map<String, String> values, long readAtMillis) {
+            this.values = values;
+            this.readAtMillis = readAtMillis;
+        }
+
+        private boolean isExpired(long nowMillis) {
+            return nowMillis - readAtMillis > ttlMillis;
+        }
+    }
+
+    /**
+     * Sets how long a secret is served from cache before reading it again
+     * @param ttl           Time to live, must be greater than 0
+     * @param unit          Unit of ttl
+     */
+    public static void setTtl(long ttl, TimeUnit unit) {
+        if (ttl <= 0) throw new IllegalArgumentException("Secrets ttl must be greater than 0");
+        ttlMillis = unit.toMillis(ttl);
+    }
+
+    /**
+     * Sets where secrets are read from, forgetting every cached secret
+     * @param secretSource  New source of secrets
+     */
+    public static void setSource(SecretSource secretSource) {
+        if (secretSource == null) throw new IllegalArgumentException("Secret source can't be null");
+        source = secretSource;
+        invalidateAll();
+    }
+
+    /**
+     * Forgets every cached secret, so they are read again on next use
+     */
+    public static void invalidateAll() {
+        cache.clear();
+    }
 
     /**
      * Read value "key" from secret "secretName"
@@ -23,15 +80,95 @@ public class MySecrets {
      * @return              Value fo the key in the secret
      */
     public String readValueFromSecretWithKey(String secretName, String key) {
+        log.debug("Reading from secret {} with key {}.", secretName, key);
+        String value = readSecret(secretName).get(key);
+        if (value == null) {
+            log.error("There was an error recovering secret key value, key {} not found in secret {}.", key, secretName);
+            return "";
+        }
+        return value;
+    }
+
+    /**
+     * Read all keys of secret "secretName", reading it only if it is not cached or its ttl expired
+     * @param secretName    Name of the secret
+     * @return              Immutable map with the decoded value of each key (empty if secret can't be read)
+     */
+    public Map<String, String> readSecret(String secretName) {
+        CachedSecret cached = cache.get(secretName);
+        if (cached != null && !cached.isExpired(System.currentTimeMillis())) {
+            return cached.values;
+        }
+
+        cached = load(secretName);
+        if (cached == null) return Collections.emptyMap();
+        return cached.values;
+    }
+
+    /**
+     * Read secret "secretName" again, ignoring its cached values
+     * @param secretName    Name of the secret
+     * @return              Immutable map with the decoded value of each key (empty if secret can't be read)
+     */
+    public Map<String, String> refresh(String secretName) {
+        CachedSecret cached = load(secretName);
+        if (cached == null) cached = cache.get(secretName);
+        if (cached == null) return Collections.emptyMap();
+        return cached.values;
+    }
+
+    /**
+     * Replaces the cached values of a secret with a version of it received by other means (i.e. a watch)
+     * @param secretName    Name of the secret
+     * @param values        Decoded values of the new version of the secret
+     */
+    static void update(String secretName, Map<String, String> values) {
+        cache.put(secretName, new CachedSecret(values, System.currentTimeMillis()));
+    }
+
+    private static SecretSource defaultSource() {
+        String sourceName = System.getProperty(SOURCE_PROPERTY, "kubernetes");
+        switch (sourceName.toLowerCase()) {
+            case "mounted":
+                return new MountedSecretSource(System.getProperty(MOUNTED_PATH_PROPERTY, MountedSecretSource.DEFAULT_BASE_PATH));
+            case "env":
+                return new EnvSecretSource();
+            case "kubernetes":
+                return new KubernetesSecretSource();
+            default:
+                // Failing here would make the class unusable, so a typo falls back to the default source
+                log.error("Unknown secret source {} in {}, using kubernetes.", sourceName, SOURCE_PROPERTY);
+                return new KubernetesSecretSource();
+        }
+    }
+
+    /**
+     * Reads a secret and caches it. Only one thread reads each secret at a time, the rest wait for it and get the same
+     * values, and the read is made outside of the cache so other secrets are never blocked by it
+     * @return              Values read, null if the secret can't be read
+     */
+    private CachedSecret load(String secretName) {
+        CompletableFuture<CachedSecret> mine = new CompletableFuture<>();
+        CompletableFuture<CachedSecret> running = reading.putIfAbsent(secretName, mine);
+        if (running != null) return running.join();
+        CachedSecret fetched = null;
         try {
-            log.debug("Reading from secret {} with key {}.", secretName, key);
-            Resource<Secret, DoneableSecret> secretResource = client.secrets().withName(secretName);
-            byte[] valueDecoded = Base64.decodeBase64(secretResource.get().getData().get(key));
-            return new String(valueDecoded);
+            fetched = fetch(secretName);
+            if (fetched != null) cache.put(secretName, fetched);
+        } finally {
+            reading.remove(secretName, mine);
+            mine.complete(fetched);
+        }
+        return fetched;
+    }
+
+    private CachedSecret fetch(String secretName) {
+        try {
+            return new CachedSecret(source.read(secretName), System.currentTimeMillis());
 
         } catch (Exception e) {
             log.error("There was an error recovering secret key value.", e);
-            return "";
+            return null;
         }
     }
 }
@@ -2,11 +2,11 @@ package mk.coco.ecs.credentials;
 
 import mk.coco.ecs.utils.FileUtils;
 
-import javax.xml.bind.DatatypeConverter;
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.KeyStore;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
@@ -16,6 +16,9 @@ import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+
 import static mk.coco.ecs.utils.FileUtils.getFilePathFromResource;
 
 /**
@@ -37,9 +40,11 @@ public class PemEtherCredentials {
     private static final String X509_CERTIFICATE_TYPE = "X.509";
     private static final String RSA_KEY_TYPE = "RSA";
     private static final String JKS_KEYSTORE_TYPE = "JKS";
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
 
     private final String cert;
     private final String key;
+    private final String fingerprint;
 
     private KeyStore keyStore;
 
@@ -82,6 +87,7 @@ public class PemEtherCredentials {
         this.key = key;
 
         this.keyStore = buildKeyStore();
+        this.fingerprint = buildFingerprint();
     }
 
     /**
@@ -103,6 +109,28 @@ public class PemEtherCredentials {
         return KEY_PASS.toCharArray();
     }
 
+    /**
+     * Fingerprint of the certificate and key of these credentials: two credentials built from the same PEM cert and key
+     * have the same fingerprint, and it changes whenever either of them changes.
+     *
+     * @return hex encoded SHA-256 of the DER certificate and key.
+     */
+    public final String getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PemEtherCredentials)) return false;
+        return fingerprint.equals(((PemEtherCredentials) o).fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+        return fingerprint.hashCode();
+    }
+
     /**
      * Initializes the internal {@link KeyStore} and loads the PEM and KEY.
      *
@@ -131,6 +159,19 @@ public class PemEtherCredentials {
         }
     }
 
+    /**
+     * Builds the fingerprint of the DER encoded certificate and key, so PEM formatting differences (line breaks) are
+     * ignored.
+     *
+     * @throws Exception if the digest algorithm is not available.
+     */
+    private String buildFingerprint() throws Exception {
+        final MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        digest.update(parseDerFromPem(cert, BEGIN_CERTIFICATE, END_CERTIFICATE));
+        digest.update(parseDerFromPem(key, BEGIN_PRIVATE_KEY, END_PRIVATE_KEY));
+        return new String(Hex.encodeHex(digest.digest(), false));
+    }
+
     /**
      * Generates a DER encoded certificate from a PEM encoded certificate string.
      *
@@ -140,7 +181,7 @@ public class PemEtherCredentials {
      * @return byte array binary content of the certificate.
      */
     private byte[] parseDerFromPem(String cert, final String beginDelimiter, final String endDelimiter) {
-        return DatatypeConverter.parseBase64Binary(cert
+        return Base64.decodeBase64(cert
                 .replace(beginDelimiter, "")
                 .replaceAll("\n", "")
                 .replace(endDelimiter, ""));
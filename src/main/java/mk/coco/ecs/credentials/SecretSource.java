@@ -0,0 +1,32 @@
+package mk.coco.ecs.credentials;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link MySecrets} reads secrets from
+ *
+ * @see KubernetesSecretSource
+ * @see MountedSecretSource
+ * @see EnvSecretSource
+ */
+public interface SecretSource {
+
+    /**
+     * Reads all keys of a secret
+     * @param secretName    Name of the secret
+     * @return              Immutable map with the decoded value of each key
+     * @throws Exception    If the secret can't be read
+     */
+    Map<String, String> read(String secretName) throws Exception;
+
+    /**
+     * Watches a secret for changes
+     * @param secretName    Name of the secret
+     * @param listener      Receives the decoded values of the secret each time it changes
+     * @return              Closing it stops watching
+     * @throws Exception    If the secret can't be watched
+     */
+    Closeable watch(String secretName, Consumer<Map<String, String>> listener) throws Exception;
+}
@@ -0,0 +1,128 @@
+package mk.coco.ecs.credentials;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Watches secrets and notifies subscribers every time one of them changes (i.e. a certificate rotation).
+ *
+ * There is one watch per secret, whatever the number of subscribers, opened on the {@link SecretSource} in use by
+ * {@link MySecrets}. New versions update the {@link MySecrets} cache and are handed to subscribers in a background
+ * thread, so a slow subscriber never blocks the watch.
+ */
+@Slf4j
+public class SecretWatcher {
+
+    private static final Map<String, WatchedSecret> watched = new ConcurrentHashMap<>();
+    private static final ExecutorService notifier = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-secret-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SecretWatcher() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * Subscribes to changes of a secret
+     * @param secretName    Name of the secret
+     * @param listener      Receives the decoded values of the secret each time it changes
+     * @return              Closing it cancels the subscription (and the watch, if it was the last one)
+     */
+    public static Closeable subscribe(String secretName, Consumer<Map<String, String>> listener) {
+        // Atomic with unsubscribe, so the watch is never stopped right after a new listener relies on it
+        WatchedSecret subscribed = watched.compute(secretName, (name, watchedSecret) -> {
+            if (watchedSecret == null) watchedSecret = new WatchedSecret(name);
+            watchedSecret.listeners.add(listener);
+            return watchedSecret;
+        });
+        // Opened outside of the map, so a slow source never blocks subscriptions to other secrets
+        subscribed.start();
+        return () -> unsubscribe(secretName, listener);
+    }
+
+    /**
+     * Closes every watch and forgets every subscriber
+     */
+    public static void stopAll() {
+        for (String secretName : watched.keySet()) {
+            WatchedSecret watchedSecret = watched.remove(secretName);
+            if (watchedSecret != null) watchedSecret.stop();
+        }
+    }
+
+    private static void unsubscribe(String secretName, Consumer<Map<String, String>> listener) {
+        WatchedSecret[] unwatched = new WatchedSecret[1];
+        watched.computeIfPresent(secretName, (name, watchedSecret) -> {
+            watchedSecret.listeners.remove(listener);
+            if (!watchedSecret.listeners.isEmpty()) return watchedSecret;
+            unwatched[0] = watchedSecret;
+            return null;
+        });
+        // Closed outside of the map too, a new subscriber meanwhile gets a watch of its own
+        if (unwatched[0] != null) unwatched[0].stop();
+    }
+
+    /**
+     * A watch on a secret and its subscribers
+     */
+    private static final class WatchedSecret {
+        private final String secretName;
+        private final List<Consumer<Map<String, String>>> listeners = new CopyOnWriteArrayList<>();
+        private Closeable watch;
+        private boolean started;
+        private boolean stopped;            // Removed from the map, it is never opened again
+
+        private WatchedSecret(String secretName) {
+            this.secretName = secretName;
+        }
+
+        /**
+         * Opens the watch, unless it is open. A watch that could not be opened is tried again by the next subscriber
+         */
+        private synchronized void start() {
+            if (started || stopped) return;
+            try {
+                watch = MySecrets.getSource().watch(secretName, this::changed);
+                started = true;
+            } catch (Exception e) {
+                log.error("There was an error watching secret {}.", secretName, e);
+            }
+        }
+
+        private synchronized void stop() {
+            started = false;
+            stopped = true;
+            if (watch == null) return;
+            try {
+                watch.close();
+            } catch (IOException e) {
+                log.warn("There was an error closing watch of secret {}.", secretName, e);
+            }
+            watch = null;
+        }
+
+        private void changed(Map<String, String> values) {
+            MySecrets.update(secretName, values);
+            notifier.execute(() -> {
+                for (Consumer<Map<String, String>> listener : listeners) {
+                    try {
+                        listener.accept(values);
+                    } catch (Exception e) {
+                        log.error("There was an error notifying a change of secret {}.", secretName, e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package mk.coco.ecs.logback;
+
+import mk.coco.ecs.services.omega.OmegaBatchingAppender;
+import mk.coco.ecs.services.omega.OmegaBatchingAppender.OverflowPolicy;
+import mk.coco.ecs.services.omega.OmegaLogEntry;
+import mk.coco.ecs.services.omega.OmegaService;
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Logback appender shipping application logs to Omega through an {@link OmegaBatchingAppender}: logging only renders
+ * the event and queues it, requests are made by the batching thread, so the application thread never waits on
+ * network I/O. When the queue is full, events are dropped unless "blockWhenFull" is set.
+ *
+ * The MDC of each event is sent as properties next to "jobName" (entries without value are left out), and the stack
+ * trace of its throwable is written by the {@link OmegaService#getThrowableEncoder()} of the service. Events logged by
+ * this library's own threads are not shipped, as sending them would log again.
+ *
+ * <pre>
+ * &lt;appender name="OMEGA" class="mk.coco.ecs.logback.OmegaLogbackAppender"&gt;
+ *     &lt;secretName&gt;omega&lt;/secretName&gt;
+ *     &lt;mrId&gt;my-monitored-resource&lt;/mrId&gt;
+ *     &lt;jobName&gt;my-job&lt;/jobName&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class OmegaLogbackAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    // Threads of this library are named "mk-ecs-..."
+    private static final String LIBRARY_THREAD_PREFIX = "mk-ecs-";
+
+    private String secretName = "omega";
+    private String mrId;
+    private String jobName;
+    private int capacity = 10000;
+    private int maxBatchEntries = 500;
+    private int maxBatchBytes = 1024 * 1024;
+    private long lingerMillis = 1000;
+    private long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+    private boolean blockWhenFull;
+
+    private OmegaBatchingAppender batchingAppender;
+
+    // Setters, called by Logback with the configuration of the appender
+
+    public void setSecretName(String secretName) {this.secretName = secretName;}
+    public void setMrId(String mrId) {this.mrId = mrId;}
+    public void setJobName(String jobName) {this.jobName = jobName;}
+    public void setCapacity(int capacity) {this.capacity = capacity;}
+    public void setMaxBatchEntries(int maxBatchEntries) {this.maxBatchEntries = maxBatchEntries;}
+    public void setMaxBatchBytes(int maxBatchBytes) {this.maxBatchBytes = maxBatchBytes;}
+    public void setLingerMillis(long lingerMillis) {this.lingerMillis = lingerMillis;}
+    public void setCloseTimeoutMillis(long closeTimeoutMillis) {this.closeTimeoutMillis = closeTimeoutMillis;}
+    public void setBlockWhenFull(boolean blockWhenFull) {this.blockWhenFull = blockWhenFull;}
+
+    /**
+     * Counters of the batching pipeline (null until the appender is started)
+     * @return              The batching appender used to send events
+     */
+    public OmegaBatchingAppender getBatchingAppender() {
+        return batchingAppender;
+    }
+
+    @Override
+    public void start() {
+        if (mrId == null) {
+            addError("No mrId set for appender [" + name + "].");
+            return;
+        }
+        try {
+            batchingAppender = new OmegaBatchingAppender(createOmegaService(), capacity);
+            batchingAppender.setMaxBatchEntries(maxBatchEntries);
+            batchingAppender.setMaxBatchBytes(maxBatchBytes);
+            batchingAppender.setLinger(lingerMillis, TimeUnit.MILLISECONDS);
+            batchingAppender.setCloseTimeout(closeTimeoutMillis, TimeUnit.MILLISECONDS);
+            batchingAppender.setOverflowPolicy(blockWhenFull ? OverflowPolicy.BLOCK : OverflowPolicy.DROP);
+        } catch (Exception e) {
+            if (batchingAppender != null) batchingAppender.close();
+            batchingAppender = null;
+            addError("Could not create OmegaService with secretName [" + secretName + "] for appender [" + name + "].", e);
+            return;
+        }
+        super.start();
+    }
+
+    /**
+     * Creates the service used to send events, called once by {@link #start()}
+     * @return              OmegaService reading the secret "secretName"
+     * @throws Exception    If the service could not be created
+     */
+    protected OmegaService createOmegaService() throws Exception {
+        return new OmegaService(secretName);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (batchingAppender != null) batchingAppender.close();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (Thread.currentThread().getName().startsWith(LIBRARY_THREAD_PREFIX)) return;
+
+        IThrowableProxy proxy = event.getThrowableProxy();
+        String message = event.getFormattedMessage();
+        Throwable throwable = null;
+        if (proxy instanceof ThrowableProxy) {
+            throwable = ((ThrowableProxy) proxy).getThrowable();
+        } else if (proxy != null) {
+            // Events deserialized from another JVM only keep a copy of the trace
+            message = message + CoreConstants.LINE_SEPARATOR + ThrowableProxyUtil.asString(proxy);
+        }
+        batchingAppender.append(new OmegaLogEntry(mrId, jobName, event.getMDCPropertyMap(), toOmegaLevel(event.getLevel()),
+                message, event.getTimeStamp()), throwable);
+    }
+
+    static OmegaLogLevel toOmegaLevel(Level level) {
+        switch (level.toInt()) {
+            case Level.ERROR_INT:   return OmegaLogLevel.ERROR;
+            case Level.WARN_INT:    return OmegaLogLevel.WARN;
+            case Level.INFO_INT:    return OmegaLogLevel.INFO;
+            case Level.DEBUG_INT:   return OmegaLogLevel.DEBUG;
+            default:                return OmegaLogLevel.TRACE;
+        }
+    }
+}
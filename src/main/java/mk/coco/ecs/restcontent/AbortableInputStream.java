@@ -0,0 +1,36 @@
+package mk.coco.ecs.restcontent;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Body handed to a {@link ResponseBodyHandler} that can drop its connection.
+ *
+ * Closing a body that was not read to the end reads (and discards) the rest of it, so the connection can be reused.
+ * When most of a large body is left, {@link #abort()} is cheaper: the connection is closed instead.
+ */
+public final class AbortableInputStream extends FilterInputStream {
+
+    private final HttpUriRequest request;
+
+    /**
+     * Returns a new AbortableInputStream
+     *
+     * @param body          Body of the response to "request"
+     * @param request       Request being read
+     */
+    public AbortableInputStream(InputStream body, HttpUriRequest request) {
+        super(body);
+        this.request = request;
+    }
+
+    /**
+     * Aborts the request, dropping its connection. Can be called from any thread, a thread reading the body gets an
+     * IOException
+     */
+    public void abort() {
+        request.abort();
+    }
+}
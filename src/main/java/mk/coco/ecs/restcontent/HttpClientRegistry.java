@@ -0,0 +1,270 @@
+package mk.coco.ecs.restcontent;
+
+import mk.coco.ecs.credentials.PemEtherCredentials;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Keeps one long-lived, pooled {@link CloseableHttpClient} per {@link PemEtherCredentials} (credentials with the same
+ * {@link PemEtherCredentials#getFingerprint()} share it), so consecutive requests reuse TCP connections and TLS
+ * sessions instead of paying a full handshake each time.
+ *
+ * Clients are thread safe and are never closed by callers, use {@link #shutdown()} (also registered as a JVM shutdown
+ * hook) to release every pool. Requests time out as set by {@link #setTimeouts(int, int, int)}.
+ */
+@Slf4j
+public class HttpClientRegistry {
+
+    // Pool tuning, shared by every client in the registry
+    @Getter private static volatile int maxTotalConnections = 200;
+    @Getter private static volatile int maxConnectionsPerRoute = 50;
+    @Getter private static volatile long defaultKeepAliveMillis = TimeUnit.SECONDS.toMillis(30);
+    @Getter private static volatile long maxIdleMillis = TimeUnit.SECONDS.toMillis(60);
+    @Getter private static volatile int validateAfterInactivityMillis = 2000;
+    @Getter private static volatile long retireGraceMillis = TimeUnit.SECONDS.toMillis(60);
+    @Getter private static volatile int connectTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(10);
+    @Getter private static volatile int socketTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(60);
+    @Getter private static volatile int connectionRequestTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private static final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService retirer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-http-retirer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(HttpClientRegistry::shutdown, "mk-ecs-http-shutdown"));
+    }
+
+    private HttpClientRegistry() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * A pooled client together with the connection manager backing it
+     */
+    static final class PooledClient {
+        @Getter private final CloseableHttpClient client;
+        @Getter private final PoolingHttpClientConnectionManager connectionManager;
+
+        PooledClient(CloseableHttpClient client, PoolingHttpClientConnectionManager connectionManager) {
+            this.client = client;
+            this.connectionManager = connectionManager;
+        }
+
+        void close() {
+            try {
+                client.close();
+            } catch (IOException e) {
+                log.warn("There was an error closing pooled http client.", e);
+            }
+        }
+    }
+
+    /**
+     * Sets pool limits used by clients created from now on
+     *
+     * @param maxTotal      Max connections per client (all routes)
+     * @param maxPerRoute   Max connections per route
+     */
+    public static void setPoolLimits(int maxTotal, int maxPerRoute) {
+        if (maxTotal <= 0 || maxPerRoute <= 0) throw new IllegalArgumentException("Pool limits must be greater than 0");
+        maxTotalConnections = maxTotal;
+        maxConnectionsPerRoute = maxPerRoute;
+    }
+
+    /**
+     * Sets keep alive and idle eviction times used by clients created from now on
+     *
+     * @param keepAliveMillis   Keep alive used when server does not send a Keep-Alive header
+     * @param idleMillis        Connections idle for longer than this are evicted
+     */
+    public static void setConnectionTimes(long keepAliveMillis, long idleMillis) {
+        if (keepAliveMillis <= 0 || idleMillis <= 0) throw new IllegalArgumentException("Connection times must be greater than 0");
+        defaultKeepAliveMillis = keepAliveMillis;
+        maxIdleMillis = idleMillis;
+    }
+
+    /**
+     * Sets the timeouts of requests made by clients created from now on
+     *
+     * @param connectMillis             Max time to open a connection
+     * @param socketMillis              Max time without data while waiting for a response
+     * @param connectionRequestMillis   Max time waiting for a connection of the pool
+     */
+    public static void setTimeouts(int connectMillis, int socketMillis, int connectionRequestMillis) {
+        if (connectMillis <= 0 || socketMillis <= 0 || connectionRequestMillis <= 0) {
+            throw new IllegalArgumentException("Timeouts must be greater than 0");
+        }
+        connectTimeoutMillis = connectMillis;
+        socketTimeoutMillis = socketMillis;
+        connectionRequestTimeoutMillis = connectionRequestMillis;
+    }
+
+    /**
+     * Gets the shared client for the given credentials, creating it on first use
+     *
+     * @param cred          Valid PemEtherCredentials
+     * @return              A pooled, shared CloseableHttpClient. Must not be closed by the caller
+     * @throws Exception    If credentials are not valid or ssl context fails
+     */
+    public static CloseableHttpClient getClient(PemEtherCredentials cred) throws Exception {
+        return getPooledClient(cred).getClient();
+    }
+
+    static PooledClient getPooledClient(PemEtherCredentials cred) throws Exception {
+        if (cred == null) throw new Exception("PemEtherCredentials can't be null, please provide valid credentials");
+
+        String fingerprint = cred.getFingerprint();
+        PooledClient pooled = clients.get(fingerprint);
+        if (pooled != null) return pooled;
+
+        synchronized (clients) {
+            pooled = clients.get(fingerprint);
+            if (pooled == null) {
+                pooled = createPooledClient(cred);
+                clients.put(fingerprint, pooled);
+            }
+        }
+        return pooled;
+    }
+
+    /**
+     * Closes and removes the client of some credentials (next request will create a new one)
+     *
+     * @param cred  Credentials whose client is released
+     */
+    public static void release(PemEtherCredentials cred) {
+        release(cred.getFingerprint());
+        SslContextCache.invalidate(cred);
+    }
+
+    /**
+     * Closes the client of some credentials once {@link #getRetireGraceMillis()} has passed, so requests already using
+     * it can finish. Used when credentials are replaced by new ones. Next request with the same fingerprint (the
+     * credentials coming back, or other secrets sharing the certificate) gets a new client, which is not closed
+     *
+     * @param cred  Credentials whose client is retired
+     */
+    public static void retire(PemEtherCredentials cred) {
+        String fingerprint = cred.getFingerprint();
+        PooledClient pooled = clients.get(fingerprint);
+        if (pooled == null || !clients.remove(fingerprint, pooled)) return;
+        log.debug("Retiring pooled http client of credentials {} in {} ms", fingerprint, retireGraceMillis);
+        retirer.schedule(pooled::close, retireGraceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets how long retired clients are kept open
+     *
+     * @param graceMillis   Grace period, can't be negative
+     */
+    public static void setRetireGraceMillis(long graceMillis) {
+        if (graceMillis < 0) throw new IllegalArgumentException("Retire grace period can't be negative");
+        retireGraceMillis = graceMillis;
+    }
+
+    /**
+     * Returns the connections of every pooled client added up
+     *
+     * @return              Leased, pending and available connections, and max connections, of all clients
+     */
+    public static PoolStats getTotalStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        for (PooledClient pooled : clients.values()) {
+            PoolStats stats = pooled.getConnectionManager().getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    /**
+     * Returns how many pooled clients are open
+     *
+     * @return              Open clients, one per credentials fingerprint
+     */
+    public static int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Closes every pooled client
+     */
+    public static void shutdown() {
+        for (String fingerprint : clients.keySet()) {
+            release(fingerprint);
+        }
+        SslContextCache.invalidateAll();
+    }
+
+    private static void release(String fingerprint) {
+        PooledClient pooled = clients.remove(fingerprint);
+        if (pooled != null) pooled.close();
+    }
+
+    private static PooledClient createPooledClient(PemEtherCredentials cred) throws Exception {
+        log.debug("Creating pooled http client (maxTotal {}, maxPerRoute {})", maxTotalConnections, maxConnectionsPerRoute);
+        SSLContext sslContext = SslContextCache.get(cred);
+
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext))
+                .build();
+
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(socketFactories);
+        cm.setMaxTotal(maxTotalConnections);
+        cm.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        cm.setValidateAfterInactivity(validateAfterInactivityMillis);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                .build();
+
+        final long keepAlive = defaultKeepAliveMillis;
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(requestConfig)
+                // Otherwise the principal of the client certificate becomes the state of each connection, and requests
+                // (made without that user token) never lease them again, paying a new handshake each time
+                .disableConnectionState()
+                .setKeepAliveStrategy((response, context) -> {
+                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return serverKeepAlive > 0 ? serverKeepAlive : keepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(maxIdleMillis, TimeUnit.MILLISECONDS)
+                .build();
+
+        return new PooledClient(client, cm);
+    }
+
+}
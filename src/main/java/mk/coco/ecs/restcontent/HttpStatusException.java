@@ -0,0 +1,32 @@
+package mk.coco.ecs.restcontent;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request gets a status code that is not accepted, so callers can tell a rejection that will happen again
+ * (i.e. a malformed body or an unknown resource) from a failure worth retrying
+ */
+public class HttpStatusException extends Exception {
+
+    @Getter private final int statusCode;
+
+    /**
+     * Returns a new HttpStatusException
+     *
+     * @param statusCode    Status code of the response
+     * @param message       Detail message
+     */
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Returns whether the same request may succeed later: server errors, timeouts and throttling
+     *
+     * @return              False if the request was rejected for what it is (any other 4xx)
+     */
+    public boolean isRetryable() {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 425 || statusCode == 429 || statusCode < 400;
+    }
+}
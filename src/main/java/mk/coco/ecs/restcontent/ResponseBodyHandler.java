@@ -0,0 +1,26 @@
+package mk.coco.ecs.restcontent;
+
+import java.io.InputStream;
+
+/**
+ * Consumes the body of a response while it is being received, instead of materialising it as a String.
+ *
+ * The stream is closed (and its connection handed back to the pool) by {@link RestContent} once the handler returns,
+ * so it must not escape the handler. A handler that stops before the end of a large body can abort it instead, see
+ * {@link AbortableInputStream}. Use {@link java.nio.channels.Channels#newChannel(InputStream)} if a
+ * {@link java.nio.channels.ReadableByteChannel} is preferred.
+ *
+ * @param <T>   Result of handling the body
+ */
+@FunctionalInterface
+public interface ResponseBodyHandler<T> {
+
+    /**
+     * Handles the body of a successful response
+     *
+     * @param body          Raw bytes of the response body, exactly as sent by the server
+     * @return              Any result computed from the body
+     * @throws Exception    If the body can't be handled
+     */
+    T handle(InputStream body) throws Exception;
+}
@@ -1,24 +1,41 @@
 package mk.coco.ecs.restcontent;
 
 import mk.coco.ecs.credentials.PemEtherCredentials;
+import mk.coco.ecs.utils.CharChunkConsumer;
 import mk.coco.ecs.utils.FileUtils;
 
-import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContexts;
 
 @Slf4j
 public class RestContent {
 
+    private static final List<Integer> ACCEPTED_STATUS_CODES = Arrays.asList(200,201,202,204);
+
+    // Max number of asynchronous requests being executed at the same time, the rest wait in a queue. Each one blocks
+    // a thread holding a connection, so by default it matches the connections a client opens to a host
+    @Getter private static volatile int maxRequestsInFlight = HttpClientRegistry.getMaxConnectionsPerRoute();
+    // Max number of asynchronous requests waiting for a thread, requests beyond it are rejected
+    @Getter private static volatile int maxQueuedRequests = 1000;
+    private static final AtomicInteger pendingRequests = new AtomicInteger();
+    private static volatile ThreadPoolExecutor asyncExecutor;
+
     /**
      * Supported request types
      */
@@ -31,15 +48,14 @@ public class RestContent {
     }
 
     /**
-     * Gets a CloseableHttpClient given a valid PemEtherCredentials
+     * Gets the shared, pooled CloseableHttpClient of a valid PemEtherCredentials
      *
      * @param cred          Valid PemEtherCredentials
-     * @return              A CloseableHttpClient
+     * @return              A pooled CloseableHttpClient (must not be closed)
      * @throws Exception    If credentials are not valid or connection / ssl context fails
      */
     private static CloseableHttpClient getHttpClient(PemEtherCredentials cred) throws Exception {
-        SSLContext sslContext = SSLContexts.custom().loadKeyMaterial(cred.getKeyStore(), cred.getKeyStorePassword()).build();
-        return HttpClients.custom().setSSLContext(sslContext).build();
+        return HttpClientRegistry.getClient(cred);
     }
 
     /**
@@ -88,17 +104,17 @@ public class RestContent {
         String content;
         if (entity != null) {
             int statusCode = httpResponse.getStatusLine().getStatusCode();
-            List<Integer> codigosAceptados = Arrays.asList(200,201,202,204);
             InputStream inputStream = entity.getContent();
             String getString = FileUtils.readFromInputStream(inputStream);
             inputStream.close();
             content = getString;
-            if (!codigosAceptados.contains(statusCode)) {
-                throw new Exception("Error getStatusCode " + statusCode + " in httpResponse with url: " + url + " with response: " + content);
+            if (!ACCEPTED_STATUS_CODES.contains(statusCode)) {
+                throw new HttpStatusException(statusCode, "Error getStatusCode " + statusCode + " in httpResponse with url: " + url + " with response: " + content);
             }
         } else {
-            if (httpResponse.getStatusLine().getStatusCode() != 204) {
-                throw new Exception("No response in HttpRequest to url: " + url);
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode != 204) {
+                throw new HttpStatusException(statusCode, "No response in HttpRequest to url: " + url);
             } else {
                 content = "Http code 204: successful request but no response from server";
             }
@@ -122,13 +138,180 @@ public class RestContent {
         CloseableHttpClient httpClient = getHttpClient(cred);
         log.debug("Creating request to {} with {}", url, body);
         HttpUriRequest request = getRequest(rt, url, body);
-        CloseableHttpResponse httpResponse = httpClient.execute(request);
-        HttpEntity entity = httpResponse.getEntity();
 
-        String content = getContent(entity, httpResponse, url);
-        httpClient.close();
+        // Closing the response (not the client) hands the connection back to the pool
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            HttpEntity entity = httpResponse.getEntity();
+            return getContent(entity, httpResponse, url);
+        }
+    }
 
-        return content;
+    /**
+     * Submits the request and hands the response body to "handler" as it is received, so the body is never
+     * materialised in memory by this class
+     *
+     * @param url           Url of the request
+     * @param body          Body of the request (not used on GET, only in POST)
+     * @param cred          Necessary credential to submit the request
+     * @param rt            Request type: Get / Post
+     * @param handler       Consumes the raw body (an empty stream on a 204 without content, an
+     *                      {@link AbortableInputStream} otherwise)
+     * @param <T>           Result of the handler
+     * @return              Whatever the handler returns
+     * @throws Exception    If Connection is not successful, didn't get valid status codes or the handler fails
+     */
+    public static <T> T requestStream(String url, String body, PemEtherCredentials cred, RequestType rt,
+                                      ResponseBodyHandler<T> handler) throws Exception {
+        if (cred == null) throw new Exception("PemEtherCredentials can't be null, please provide valid credentials");
+
+        CloseableHttpClient httpClient = getHttpClient(cred);
+        log.debug("Creating streamed request to {} with {}", url, body);
+        HttpUriRequest request = getRequest(rt, url, body);
+
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            HttpEntity entity = httpResponse.getEntity();
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+
+            // Errors are small and go into the exception message, so they are still read as a String: getContent
+            // throws the HttpStatusException for every one of these
+            if (!ACCEPTED_STATUS_CODES.contains(statusCode) || (entity == null && statusCode != 204)) {
+                getContent(entity, httpResponse, url);
+            }
+            if (entity == null) {
+                return handler.handle(new ByteArrayInputStream(new byte[0]));
+            }
+            try (InputStream inputStream = new AbortableInputStream(entity.getContent(), request)) {
+                return handler.handle(inputStream);
+            }
+        }
+    }
+
+    /**
+     * Submits the request and decodes the (UTF-8, as every JSON response) body in chunks of chars, keeping every char
+     * (line separators included) and without materialising the whole body
+     *
+     * @param url           Url of the request
+     * @param body          Body of the request (not used on GET, only in POST)
+     * @param cred          Necessary credential to submit the request
+     * @param rt            Request type: Get / Post
+     * @param consumer      Receives each decoded chunk, see {@link FileUtils#decodeChunks}
+     * @throws Exception    If Connection is not successful, didn't get valid status codes or the consumer fails
+     */
+    public static void requestChunks(String url, String body, PemEtherCredentials cred, RequestType rt,
+                                     CharChunkConsumer consumer) throws Exception {
+        requestStream(url, body, cred, rt, inputStream -> {
+            FileUtils.decodeChunks(inputStream, StandardCharsets.UTF_8, consumer);
+            return null;
+        });
+    }
+
+    /**
+     * Submits the request without blocking the calling thread
+     *
+     * This is not non-blocking I/O: each request is executed by {@link #request} on a fixed pool of
+     * {@link #getMaxRequestsInFlight()} threads, and blocks its thread until the response is read. So concurrency is
+     * capped by that pool (and by the connections per host of the pooled client of their credentials, see
+     * {@link HttpClientRegistry#setPoolLimits(int, int)}); the rest of the requests are queued in submission order,
+     * up to {@link #getMaxQueuedRequests()}. Once the queue is full, requests are rejected: their future completes
+     * exceptionally with a {@link RejectedExecutionException}, so callers can't pile up requests (and their bodies)
+     * without limit.
+     *
+     * @param url           Url of the request
+     * @param body          Body of the request (not used on GET, only in POST)
+     * @param cred          Necessary credential to submit the request
+     * @param rt            Request type: Get / Post
+     * @return              Future completed with the message returned by the request, or exceptionally if it fails
+     */
+    public static CompletableFuture<String> requestAsync(String url, String body, PemEtherCredentials cred, RequestType rt) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (cred == null) {
+            future.completeExceptionally(new Exception("PemEtherCredentials can't be null, please provide valid credentials"));
+            return future;
+        }
+        if (pendingRequests.incrementAndGet() > maxRequestsInFlight + maxQueuedRequests) {
+            pendingRequests.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Too many asynchronous requests pending, "
+                    + maxQueuedRequests + " are already queued"));
+            return future;
+        }
+        getAsyncExecutor().execute(() -> {
+            String response = null;
+            Throwable failure = null;
+            try {
+                response = request(url, body, cred, rt);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            // Released before completing, so callbacks of the future can submit again
+            pendingRequests.decrementAndGet();
+            if (failure == null) {
+                future.complete(response);
+            } else {
+                future.completeExceptionally(failure);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Returns the asynchronous requests submitted and not completed yet, being executed or queued
+     *
+     * @return              Pending requests
+     */
+    public static int getPendingRequests() {
+        return pendingRequests.get();
+    }
+
+    /**
+     * Sets the max number of asynchronous requests waiting for a thread, see
+     * {@link #requestAsync(String, String, PemEtherCredentials, RequestType)}
+     *
+     * @param maxQueued     New queue limit, 0 or greater
+     */
+    public static void setMaxQueuedRequests(int maxQueued) {
+        if (maxQueued < 0) throw new IllegalArgumentException("Max queued requests can't be negative");
+        maxQueuedRequests = maxQueued;
+    }
+
+    /**
+     * Sets the max number of asynchronous requests executed at the same time, that is the threads of their pool.
+     * Requests to the same host beyond its connections per route wait for a connection anyway
+     *
+     * @param maxInFlight   New in-flight window, must be greater than 0
+     */
+    public static synchronized void setMaxRequestsInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("Max requests in flight must be greater than 0");
+        maxRequestsInFlight = maxInFlight;
+        if (asyncExecutor != null) {
+            // Growing: raise max first, shrinking: lower core first, so core <= max always holds
+            if (maxInFlight > asyncExecutor.getMaximumPoolSize()) {
+                asyncExecutor.setMaximumPoolSize(maxInFlight);
+                asyncExecutor.setCorePoolSize(maxInFlight);
+            } else {
+                asyncExecutor.setCorePoolSize(maxInFlight);
+                asyncExecutor.setMaximumPoolSize(maxInFlight);
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor getAsyncExecutor() {
+        ThreadPoolExecutor executor = asyncExecutor;
+        if (executor != null) return executor;
+
+        synchronized (RestContent.class) {
+            if (asyncExecutor == null) {
+                AtomicInteger threadCount = new AtomicInteger();
+                ThreadPoolExecutor created = new ThreadPoolExecutor(maxRequestsInFlight, maxRequestsInFlight,
+                        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                            Thread thread = new Thread(runnable, "mk-ecs-async-" + threadCount.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                created.allowCoreThreadTimeOut(true);
+                asyncExecutor = created;
+            }
+            return asyncExecutor;
+        }
     }
 
 }
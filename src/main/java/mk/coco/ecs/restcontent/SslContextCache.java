@@ -0,0 +1,120 @@
+package mk.coco.ecs.restcontent;
+
+import mk.coco.ecs.credentials.PemEtherCredentials;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.ssl.SSLContexts;
+
+/**
+ * Caches the {@link SSLContext} built from each {@link PemEtherCredentials}, keyed by
+ * {@link PemEtherCredentials#getFingerprint()}, so key material is loaded once per certificate and TLS sessions
+ * stored in its {@link SSLSessionContext} can be resumed by later connections.
+ *
+ * New credentials (a rotated certificate or key) have a new fingerprint, so they never get a stale context. Least
+ * recently used contexts are dropped once {@link #getMaxEntries()} is reached.
+ */
+@Slf4j
+public class SslContextCache {
+
+    @Getter private static volatile int maxEntries = 16;
+    @Getter private static volatile int sessionCacheSize = 1000;
+    @Getter private static volatile int sessionTimeoutSeconds = 3600;
+
+    private static final Map<String, SSLContext> contexts = new LinkedHashMap<String, SSLContext>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private SslContextCache() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * Gets the SSLContext of some credentials, building it on first use
+     *
+     * @param cred          Valid PemEtherCredentials
+     * @return              A SSLContext initialized with the key material of the credentials
+     * @throws Exception    If key material can't be loaded
+     */
+    public static SSLContext get(PemEtherCredentials cred) throws Exception {
+        String fingerprint = cred.getFingerprint();
+        synchronized (contexts) {
+            SSLContext sslContext = contexts.get(fingerprint);
+            if (sslContext != null) return sslContext;
+        }
+
+        // Built outside the lock, if two threads race the first one stored wins
+        SSLContext built = build(cred);
+        synchronized (contexts) {
+            SSLContext sslContext = contexts.get(fingerprint);
+            if (sslContext == null) {
+                contexts.put(fingerprint, built);
+                sslContext = built;
+            }
+            return sslContext;
+        }
+    }
+
+    /**
+     * Drops the context (and its TLS sessions) of some credentials
+     *
+     * @param cred  Credentials whose context is dropped
+     */
+    public static void invalidate(PemEtherCredentials cred) {
+        synchronized (contexts) {
+            contexts.remove(cred.getFingerprint());
+        }
+    }
+
+    /**
+     * Drops every cached context
+     */
+    public static void invalidateAll() {
+        synchronized (contexts) {
+            contexts.clear();
+        }
+    }
+
+    /**
+     * Sets the max number of cached contexts
+     *
+     * @param entries   Max entries, must be greater than 0
+     */
+    public static void setMaxEntries(int entries) {
+        if (entries <= 0) throw new IllegalArgumentException("Max entries must be greater than 0");
+        maxEntries = entries;
+    }
+
+    /**
+     * Sets the TLS session cache of contexts built from now on
+     *
+     * @param cacheSize         Max sessions kept per context (0 means no limit)
+     * @param timeoutSeconds    Seconds a session can be resumed (0 means no limit)
+     */
+    public static void setSessionCache(int cacheSize, int timeoutSeconds) {
+        if (cacheSize < 0 || timeoutSeconds < 0) throw new IllegalArgumentException("Session cache values can't be negative");
+        sessionCacheSize = cacheSize;
+        sessionTimeoutSeconds = timeoutSeconds;
+    }
+
+    private static SSLContext build(PemEtherCredentials cred) throws Exception {
+        log.debug("Building SSLContext for credentials {}", cred.getFingerprint());
+        SSLContext sslContext = SSLContexts.custom().loadKeyMaterial(cred.getKeyStore(), cred.getKeyStorePassword()).build();
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+        return sslContext;
+    }
+
+}
@@ -2,12 +2,31 @@ package mk.coco.ecs.services.common;
 
 import mk.coco.ecs.credentials.MySecrets;
 import mk.coco.ecs.credentials.PemEtherCredentials;
+import mk.coco.ecs.credentials.SecretWatcher;
+import mk.coco.ecs.restcontent.HttpClientRegistry;
 import mk.coco.ecs.utils.URLs;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
 public abstract class SemaasService {
-    protected PemEtherCredentials cred;
+
+    /**
+     * If this system property is "true", every service reloads its credentials and urls when its secret changes
+     */
+    public static final String HOT_RELOAD_PROPERTY = "mk.ecs.secrets.hotReload";
+
+    // Volatile: replaced by the secret watcher while requests are being submitted
+    protected volatile PemEtherCredentials cred;
     protected URLs urls;
     protected SupportedServices serviceType;
+    protected String secretName;
+
+    private Closeable secretSubscription;
 
     public SupportedServices getServiceType() {
         return serviceType;
@@ -25,13 +44,67 @@ public abstract class SemaasService {
         return cred;
     }
 
+    public String getSecretName() {
+        return secretName;
+    }
+
     protected abstract void readAllDefaultValues(MySecrets sec, String secretName, String serv);
 
     protected void init(String secretName) throws Exception {
+        this.secretName = secretName;
         String serviceTypeStr = serviceType.toString().toLowerCase();
         urls = new URLs(serviceType, secretName);
         MySecrets sec = new MySecrets();
         cred = PemEtherCredentials.fromString(sec.readValueFromSecretWithKey(secretName, urls.getCrt()), sec.readValueFromSecretWithKey(secretName, urls.getPk()));
         readAllDefaultValues(sec, secretName, serviceTypeStr);
+
+        if (Boolean.getBoolean(HOT_RELOAD_PROPERTY)) enableHotReload();
+    }
+
+    /**
+     * Watches the secret of this service and, each time it changes, rebuilds credentials (and their pooled client) and
+     * urls in the background. New requests use the new ones, requests already submitted finish with the old ones
+     */
+    public synchronized void enableHotReload() {
+        if (secretSubscription != null) return;
+        log.debug("Enabling hot reload of {} with secretName {}", serviceType, secretName);
+        secretSubscription = SecretWatcher.subscribe(secretName, this::reload);
+    }
+
+    /**
+     * Stops watching the secret of this service
+     */
+    public synchronized void disableHotReload() {
+        if (secretSubscription == null) return;
+        try {
+            secretSubscription.close();
+        } catch (IOException e) {
+            log.warn("There was an error disabling hot reload of {}", serviceType, e);
+        }
+        secretSubscription = null;
+    }
+
+    /**
+     * Swaps credentials and urls for the ones in a new version of the secret
+     *
+     * @param values    Decoded values of the secret
+     */
+    protected void reload(Map<String, String> values) {
+        try {
+            PemEtherCredentials newCred = PemEtherCredentials.fromString(values.get(urls.getCrt()), values.get(urls.getPk()));
+            PemEtherCredentials oldCred = cred;
+            if (!newCred.equals(oldCred)) {
+                log.info("Credentials of {} with secretName {} changed, swapping them", serviceType, secretName);
+                // Warm up the new pool before new requests use it, the old one is closed once in-flight requests end
+                HttpClientRegistry.getClient(newCred);
+                cred = newCred;
+                if (oldCred != null) HttpClientRegistry.retire(oldCred);
+            }
+        } catch (Exception e) {
+            log.error("New credentials of {} with secretName {} are not valid, keeping the current ones", serviceType, secretName, e);
+        }
+
+        urls.reload();
+        readAllDefaultValues(new MySecrets(), secretName, serviceType.toString().toLowerCase());
     }
 }
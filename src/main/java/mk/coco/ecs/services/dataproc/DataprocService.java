@@ -1,6 +1,7 @@
 package mk.coco.ecs.services.dataproc;
 
 import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
 import mk.coco.ecs.services.common.SemaasService;
 import mk.coco.ecs.services.common.SupportedServices;
 
@@ -14,6 +15,7 @@ import java.util.Map;
 
 import static mk.coco.ecs.restcontent.RestContent.RequestType;
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestStream;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/dataproc/documentation/dataproc-api/api/01-http-api-v2
@@ -25,13 +27,14 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class DataprocService extends SemaasService {
 
-    @Getter private String groups;
-    @Getter private String jobs;
-    @Getter private String runs;
-    @Getter private String disable;
-    @Getter private String enable;
-    @Getter private String setUUAA;
-    @Getter private String stop;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String groups;
+    @Getter private volatile String jobs;
+    @Getter private volatile String runs;
+    @Getter private volatile String disable;
+    @Getter private volatile String enable;
+    @Getter private volatile String setUUAA;
+    @Getter private volatile String stop;
 
     @Getter @Setter private String jobVersion = "01";
     @Getter @Setter private String id = "spark";
@@ -129,7 +132,7 @@ public class DataprocService extends SemaasService {
      */
     public String describeGroup(String groupName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName),
                 "", cred, RequestType.GET);
     }
 
@@ -142,7 +145,7 @@ public class DataprocService extends SemaasService {
      */
     public String describeJob(String groupName, String jobName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName),
                 "", cred, RequestType.GET);
     }
 
@@ -153,7 +156,7 @@ public class DataprocService extends SemaasService {
      */
     public String getAllGroups() throws Exception {
         return request(
-                urls.buildNsServiceURL(groups),
+                urls.nsTemplate().expand(groups),
                 "", cred, RequestType.GET);
     }
 
@@ -165,7 +168,7 @@ public class DataprocService extends SemaasService {
      */
     public String getAllJobs(String groupName) throws Exception {
         return request(
-          urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash()),
+          urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash()),
             "", cred, RequestType.GET);
     }
 
@@ -178,10 +181,25 @@ public class DataprocService extends SemaasService {
      */
     public String getAllRuns(String groupName, String jobName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName + runs),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName, runs),
                 "", cred, RequestType.GET);
     }
 
+    /**
+     *
+     * @param groupName Nombre del grupo
+     * @param jobName Nombre del job
+     * @param handler Consume el JSON con el estado de todas las ejecuciones a medida que se recibe
+     * @param <T> Resultado del handler
+     * @return Lo que devuelva el handler
+     * @throws Exception If request or handler fail
+     */
+    public <T> T getAllRuns(String groupName, String jobName, ResponseBodyHandler<T> handler) throws Exception {
+        return requestStream(
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName, runs),
+                "", cred, RequestType.GET, handler);
+    }
+
     /**
      *
      * @param groupName Nombre del grupo
@@ -192,7 +210,7 @@ public class DataprocService extends SemaasService {
      */
     public String getRunStatus(String groupName, String jobName, String runName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName + runs + urls.getSlash() + runName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName, runs, urls.getSlash(), runName),
                 "", cred, RequestType.GET);
     }
 
@@ -211,7 +229,7 @@ public class DataprocService extends SemaasService {
                     , groupName, description);
 
         return request(
-          urls.buildNsServiceURL(groups),
+          urls.nsTemplate().expand(groups),
             body, cred, RequestType.POST);
     }
 
@@ -230,7 +248,7 @@ public class DataprocService extends SemaasService {
                     , groupName, description, botName);
 
         return request(
-                urls.buildNsServiceURL(groups),
+                urls.nsTemplate().expand(groups),
                 body, cred, RequestType.POST);
     }
 
@@ -242,7 +260,7 @@ public class DataprocService extends SemaasService {
      */
     public String disableGroup(String groupName) throws Exception {
         return request(
-          urls.buildNsServiceURL(groups + urls.getSlash() + groupName + urls.getColon() + disable),
+          urls.nsTemplate().expand(groups, urls.getSlash(), groupName, urls.getColon(), disable),
             "", cred, RequestType.POST);
     }
 
@@ -254,7 +272,7 @@ public class DataprocService extends SemaasService {
      */
     public String enableGroup(String groupName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + urls.getColon() + enable),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, urls.getColon(), enable),
                 "", cred, RequestType.POST);
     }
 
@@ -298,7 +316,7 @@ public class DataprocService extends SemaasService {
      */
     public String registerJob(String body, String groupName) throws Exception {
         return request(
-          urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs),
+          urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs),
             body, cred, RequestType.POST);
     }
 
@@ -313,7 +331,7 @@ public class DataprocService extends SemaasService {
     public String runJob(String groupName, String jobName, String params) throws Exception {
         String body = String.format("{\"params\": %s}",params);
         return request(
-          urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName + runs),
+          urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName, runs),
             body, cred, RequestType.POST);
     }
 
@@ -326,7 +344,7 @@ public class DataprocService extends SemaasService {
     public String setUUAA(String uuaa) throws Exception {
         String body = String.format("{\"uuaa\": \"%s\"}",uuaa);
         return request(
-          urls.buildNsServiceURL(urls.getColon() + setUUAA),
+          urls.nsTemplate().expand(urls.getColon(), setUUAA),
             body, cred, RequestType.POST);
     }
 
@@ -340,7 +358,7 @@ public class DataprocService extends SemaasService {
      */
     public String stopRun(String groupName, String jobName, String runName) throws Exception {
         return request(
-          urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName + runs + urls.getSlash() + runName + urls.getColon() + stop),
+          urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName, runs, urls.getSlash(), runName, urls.getColon(), stop),
             "", cred, RequestType.POST);
     }
 
@@ -354,7 +372,7 @@ public class DataprocService extends SemaasService {
      */
     public String deleteGroup(String groupName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName),
                 "", cred, RequestType.DELETE);
     }
 
@@ -367,7 +385,7 @@ public class DataprocService extends SemaasService {
      */
     public String deleteJob(String groupName, String jobName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName),
                 "", cred, RequestType.DELETE);
     }
 
@@ -383,7 +401,7 @@ public class DataprocService extends SemaasService {
     public String patchGroupBotName(String botName, String groupName) throws Exception {
         String body = String.format("{\"botName\": \"%s\"}", botName);
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + urls.getSlash()),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, urls.getSlash()),
                 body, cred, RequestType.PATCH);
     }
 
@@ -396,7 +414,7 @@ public class DataprocService extends SemaasService {
      */
     public String patchGroup(String body, String groupName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + urls.getSlash()),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, urls.getSlash()),
                 body, cred, RequestType.PATCH);
     }
 
@@ -443,7 +461,7 @@ public class DataprocService extends SemaasService {
      */
     public String updateJob(String body, String groupName, String jobName) throws Exception {
         return request(
-                urls.buildNsServiceURL(groups + urls.getSlash() + groupName + jobs + urls.getSlash() + jobName),
+                urls.nsTemplate().expand(groups, urls.getSlash(), groupName, jobs, urls.getSlash(), jobName),
                 body, cred, RequestType.PUT);
     }
 }
@@ -18,8 +18,9 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class MonitoredResourceService extends SemaasService {
 
-    @Getter private String mrTypes;
-    @Getter private String mrs;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String mrTypes;
+    @Getter private volatile String mrs;
 
     // Constructor
 
@@ -82,8 +83,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String listMonitorResourcesTypes() throws Exception {
-        urls.setServiceOption(mrTypes);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(mrTypes).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -93,8 +93,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String getMonitorResourcesType(String id) throws Exception {
-        urls.setServiceOption(mrTypes);
-        return request(urls.buildCommonServiceURL( urls.getSlash() + id), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(mrTypes).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -104,8 +103,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String deleteMonitorResourcesType(String id) throws Exception {
-        urls.setServiceOption(mrTypes);
-        return request(urls.buildCommonServiceURL( urls.getSlash() + id), "", cred, RestContent.RequestType.DELETE);
+        return request(urls.commonTemplate(mrTypes).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.DELETE);
     }
 
     /**
@@ -126,8 +124,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String createMonitorResourceType(String body) throws Exception {
-        urls.setServiceOption(mrTypes);
-        return request(urls.buildCommonServiceURL(), body, cred, RestContent.RequestType.POST);
+        return request(urls.commonTemplate(mrTypes).expand(), body, cred, RestContent.RequestType.POST);
     }
 
     // MR
@@ -138,8 +135,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String listMonitorResources() throws Exception {
-        urls.setServiceOption(mrs);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(mrs).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -149,8 +145,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String getMonitorResources(String id) throws Exception {
-        urls.setServiceOption(mrs);
-        return request(urls.buildCommonServiceURL( urls.getSlash() + id), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(mrs).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -160,8 +155,7 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String deleteMonitorResources(String id) throws Exception {
-        urls.setServiceOption(mrs);
-        return request(urls.buildCommonServiceURL( urls.getSlash() + id), "", cred, RestContent.RequestType.DELETE);
+        return request(urls.commonTemplate(mrs).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.DELETE);
     }
 
     /**
@@ -184,9 +178,8 @@ public class MonitoredResourceService extends SemaasService {
      * @throws Exception    If connection is not possible
      */
     public String createMonitorResourceFromTypePath(String id, String mrTypePath) throws Exception {
-        urls.setServiceOption(mrs);
         String body = createMonitorResourceBody(id, mrTypePath);
-        return request(urls.buildCommonServiceURL(), body, cred, RestContent.RequestType.POST);
+        return request(urls.commonTemplate(mrs).expand(), body, cred, RestContent.RequestType.POST);
     }
 
 }
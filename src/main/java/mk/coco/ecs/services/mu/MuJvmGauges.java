@@ -0,0 +1,115 @@
+package mk.coco.ecs.services.mu;
+
+import mk.coco.ecs.restcontent.HttpClientRegistry;
+import mk.coco.ecs.services.monitoredresource.MonitoredResourceService;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gauges of the JVM and of the pooled http clients of this library, published to Mu by a {@link MuMeterRegistry}
+ *
+ * Opt-in: nothing is sampled until {@link #register(MuMeterRegistry, String)} or {@link #start} is called. Gauges are
+ * read once per step on the shared scheduler of the registry and published in its metric set, with its other meters:
+ * - prefix.memory.heap.used, .committed, .max and prefix.memory.nonheap.used, .committed: BYTES
+ * - prefix.gc.count: collections since start, prefix.gc.time: MILLISECONDS spent collecting since start
+ * - prefix.threads.live, .daemon, .peak: COUNT
+ * - prefix.cpu.process, prefix.cpu.system: PERCENTAGE of recent CPU load (if the JVM reports it), prefix.cpu.load:
+ *   system load average of the last minute
+ * - prefix.http.leased, .pending, .available, .max: connections of every pooled client ({@link HttpClientRegistry})
+ */
+@Slf4j
+public class MuJvmGauges {
+
+    public static final String DEFAULT_PREFIX = "jvm";
+
+    private MuJvmGauges() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * Registers every gauge in a registry
+     *
+     * @param registry          Registry publishing the gauges
+     * @param prefix            Prefix of the gauge names
+     */
+    public static void register(MuMeterRegistry registry, String prefix) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        registry.gauge(prefix + ".memory.heap.used", "BYTES", () -> memory.getHeapMemoryUsage().getUsed());
+        registry.gauge(prefix + ".memory.heap.committed", "BYTES", () -> memory.getHeapMemoryUsage().getCommitted());
+        registry.gauge(prefix + ".memory.heap.max", "BYTES", () -> memory.getHeapMemoryUsage().getMax());
+        registry.gauge(prefix + ".memory.nonheap.used", "BYTES", () -> memory.getNonHeapMemoryUsage().getUsed());
+        registry.gauge(prefix + ".memory.nonheap.committed", "BYTES", () -> memory.getNonHeapMemoryUsage().getCommitted());
+
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        registry.gauge(prefix + ".gc.count", "COUNT", () -> {
+            long count = 0;
+            for (GarbageCollectorMXBean collector : collectors) {
+                count += Math.max(0, collector.getCollectionCount());
+            }
+            return count;
+        });
+        registry.gauge(prefix + ".gc.time", "MILLISECONDS", () -> {
+            long time = 0;
+            for (GarbageCollectorMXBean collector : collectors) {
+                time += Math.max(0, collector.getCollectionTime());
+            }
+            return time;
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        registry.gauge(prefix + ".threads.live", "COUNT", threads::getThreadCount);
+        registry.gauge(prefix + ".threads.daemon", "COUNT", threads::getDaemonThreadCount);
+        registry.gauge(prefix + ".threads.peak", "COUNT", threads::getPeakThreadCount);
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        registry.gauge(prefix + ".cpu.load", "COUNT", os::getSystemLoadAverage);
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean sunOs = (com.sun.management.OperatingSystemMXBean) os;
+            registry.gauge(prefix + ".cpu.process", "PERCENTAGE", () -> 100 * Math.max(0, sunOs.getProcessCpuLoad()));
+            registry.gauge(prefix + ".cpu.system", "PERCENTAGE", () -> 100 * Math.max(0, sunOs.getSystemCpuLoad()));
+        }
+
+        registry.gauge(prefix + ".http.leased", "COUNT", () -> HttpClientRegistry.getTotalStats().getLeased());
+        registry.gauge(prefix + ".http.pending", "COUNT", () -> HttpClientRegistry.getTotalStats().getPending());
+        registry.gauge(prefix + ".http.available", "COUNT", () -> HttpClientRegistry.getTotalStats().getAvailable());
+        registry.gauge(prefix + ".http.max", "COUNT", () -> HttpClientRegistry.getTotalStats().getMax());
+    }
+
+    /**
+     * Creates a monitored resource (and its type) for the process, and starts publishing every gauge against it, in a
+     * single metric set called "monitoredResourceID.jvm" (one request per step). A failure creating them (i.e. they
+     * already exist) is logged, and the gauges are published anyway
+     *
+     * @param mu                        Service used to publish
+     * @param mrs                       Service used to create the monitored resource
+     * @param monitoredResourceTypeID   Id of the monitored resource type
+     * @param monitoredResourceID       Id of the monitored resource
+     * @param step                      Time between publications
+     * @param unit                      Unit of step
+     * @return                          Registry publishing the gauges, close it to stop
+     */
+    public static MuMeterRegistry start(MuService mu, MonitoredResourceService mrs, String monitoredResourceTypeID,
+                                        String monitoredResourceID, long step, TimeUnit unit) {
+        try {
+            mrs.createDefaultMonitorResourceType(monitoredResourceTypeID);
+            mrs.createMonitorResourceFromTypePath(monitoredResourceID,
+                    mrs.getMonitoredResourceTypePath(monitoredResourceTypeID));
+        } catch (Exception e) {
+            log.warn("Could not create monitored resource {}, it may already exist.", monitoredResourceID, e);
+        }
+        MuMeterRegistry registry = new MuMeterRegistry(mu, monitoredResourceID + "." + DEFAULT_PREFIX, step, unit);
+        registry.setProvisioner(new MuProvisioner(mu));
+        registry.setMonitoredResourcePath(mrs.getMonitoredResourcePath(monitoredResourceID));
+        // Registered before the first step, so the metric set type is created with every gauge
+        register(registry, DEFAULT_PREFIX);
+        return registry;
+    }
+}
@@ -0,0 +1,320 @@
+package mk.coco.ecs.services.mu;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes measurements to Mu in batches: {@link #record(String, String, long, double)} only stores the point, and a
+ * background thread sends the points of each metric set through {@link MuService#addMeasurementsWithBody(String, String)},
+ * up to {@link #getMaxPointsPerRequest()} points (of any metric of the set) per request. Consecutive points with the
+ * same timestamp are sent together, as the values of a single timestamp.
+ *
+ * The points of a metric set are sent as soon as they reach {@link #getMaxPointsPerRequest()}, or when the oldest one
+ * has waited {@link #getIntervalMillis()}.
+ *
+ * Each metric set has two buffers of primitive arrays: points are recorded in one while the other is being sent, so
+ * recording never waits for the network. A buffer holds at most {@link #getCapacity()} points, points recorded while
+ * it is full are dropped. {@link #close()} sends every recorded point before returning (or until
+ * {@link #getCloseTimeoutMillis()} elapses).
+ */
+@Slf4j
+public class MuMeasurementPublisher implements Closeable {
+
+    private static final AtomicInteger publisherCount = new AtomicInteger();
+    private static final int INITIAL_POINTS = 64;
+
+    @Getter private final MuService mu;
+    @Getter private final int capacity;
+    @Getter private volatile int maxPointsPerRequest = 1000;
+    @Getter private volatile long intervalMillis = TimeUnit.SECONDS.toMillis(10);
+    @Getter private volatile long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+    // Counters
+    private final LongAdder pointsRecorded = new LongAdder();
+    private final LongAdder pointsSent = new LongAdder();
+    private final LongAdder pointsDropped = new LongAdder();
+    private final LongAdder pointsFailed = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+
+    private final Map<String, MetricSetBuffer> metricSets = new ConcurrentHashMap<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+    // Body of the request being sent, its lock is held while sending
+    private final StringBuilder body = new StringBuilder(64 * 1024);
+
+    /**
+     * Returns a new MuMeasurementPublisher holding up to 100000 points per metric set
+     *
+     * @param mu                Service used to send measurements
+     */
+    public MuMeasurementPublisher(MuService mu) {
+        this(mu, 100000);
+    }
+
+    /**
+     * Returns a new MuMeasurementPublisher
+     *
+     * @param mu                Service used to send measurements
+     * @param capacity          Max points of a metric set waiting to be sent
+     */
+    public MuMeasurementPublisher(MuService mu, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be greater than 0");
+        this.mu = mu;
+        this.capacity = capacity;
+        flusher = new Thread(this::flushLoop, "mk-ecs-mu-publisher-" + publisherCount.incrementAndGet());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Setters
+
+    /**
+     * Sets the number of points of a metric set that makes them be sent right away
+     * @param maxPointsPerRequest   Max points per request, must be greater than 0
+     */
+    public void setMaxPointsPerRequest(int maxPointsPerRequest) {
+        if (maxPointsPerRequest <= 0) throw new IllegalArgumentException("Max points per request must be greater than 0");
+        this.maxPointsPerRequest = maxPointsPerRequest;
+    }
+
+    /**
+     * Sets how long a point may wait to be sent
+     * @param interval          Interval, must be greater than 0
+     * @param unit              Unit of interval
+     */
+    public void setInterval(long interval, TimeUnit unit) {
+        if (interval <= 0) throw new IllegalArgumentException("Interval must be greater than 0");
+        this.intervalMillis = unit.toMillis(interval);
+        LockSupport.unpark(flusher);
+    }
+
+    /**
+     * Sets how long {@link #close()} waits for recorded points to be sent
+     * @param timeout           Timeout, 0 or greater
+     * @param unit              Unit of timeout
+     */
+    public void setCloseTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("Close timeout can't be negative");
+        this.closeTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    // Counters
+
+    public long getPointsRecorded() {return pointsRecorded.sum();}  // Points stored to be sent
+    public long getPointsSent() {return pointsSent.sum();}          // Points accepted by Mu
+    public long getPointsDropped() {return pointsDropped.sum();}    // Points never sent as the buffer was full, the value was not finite or the publisher closed
+    public long getPointsFailed() {return pointsFailed.sum();}      // Points in requests that failed
+    public long getRequestsSent() {return requestsSent.sum();}      // Requests made to Mu
+
+    // Usage
+
+    /**
+     * Records a measurement to be sent in the next request of its metric set
+     * @param metricSet         Metric set of choice
+     * @param metricId          Id of the metric
+     * @param tsInMillis        Timestamp in milliseconds
+     * @param value             Value, must be finite
+     * @return                  False if the point was dropped
+     */
+    public boolean record(String metricSet, String metricId, long tsInMillis, double value) {
+        if (closed || Double.isNaN(value) || Double.isInfinite(value)) {
+            pointsDropped.increment();
+            return false;
+        }
+        MetricSetBuffer buffer = metricSets.get(metricSet);
+        if (buffer == null) buffer = metricSets.computeIfAbsent(metricSet, MetricSetBuffer::new);
+
+        int size = buffer.record(metricId, tsInMillis, value, capacity);
+        if (size < 0) {
+            // The flusher was woken up when the buffer reached maxPointsPerRequest
+            pointsDropped.increment();
+            return false;
+        }
+        pointsRecorded.increment();
+        if (size == maxPointsPerRequest) LockSupport.unpark(flusher);
+        return true;
+    }
+
+    /**
+     * Sends every recorded point, blocking until done. Only one thread sends at a time
+     */
+    public void flush() {
+        synchronized (body) {
+            for (MetricSetBuffer buffer : metricSets.values()) {
+                publish(buffer);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting points and sends the recorded ones, waiting up to {@link #getCloseTimeoutMillis()}
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(closeTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) log.warn("Mu publisher closed with points not sent.");
+    }
+
+    // Publishing
+
+    private void flushLoop() {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            long wait = intervalMillis;
+            int maxPoints = maxPointsPerRequest;
+            for (MetricSetBuffer buffer : metricSets.values()) {
+                long dueIn = buffer.dueIn(now, intervalMillis, maxPoints);
+                if (dueIn <= 0) {
+                    synchronized (body) {
+                        publish(buffer);
+                    }
+                } else {
+                    wait = Math.min(wait, dueIn);
+                }
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait)));
+        }
+        // Points recorded right before closing are still sent
+        flush();
+        log.debug("Mu publisher closed: {} points sent in {} requests, {} dropped, {} failed.",
+                getPointsSent(), getRequestsSent(), getPointsDropped(), getPointsFailed());
+    }
+
+    /**
+     * Sends the points recorded in a metric set. Only called holding the lock of body
+     */
+    private void publish(MetricSetBuffer buffer) {
+        Points points = buffer.swap();
+        if (points == null) return;
+        int maxPoints = maxPointsPerRequest;
+        for (int from = 0; from < points.size; from += maxPoints) {
+            int to = Math.min(points.size, from + maxPoints);
+            points.appendBody(body, from, to);
+            try {
+                requestsSent.increment();
+                mu.addMeasurementsWithBody(buffer.metricSet, body.toString());
+                pointsSent.add(to - from);
+            } catch (Exception e) {
+                log.error("There was an error sending {} measurements of metric set {} to Mu.", to - from, buffer.metricSet, e);
+                pointsFailed.add(to - from);
+            }
+        }
+        points.clear();
+    }
+
+    /**
+     * The two buffers of a metric set, points are recorded in "active"
+     */
+    private static final class MetricSetBuffer {
+        private final String metricSet;
+        // Guarded by this
+        private Points active = new Points();
+        private Points spare = new Points();
+
+        private MetricSetBuffer(String metricSet) {
+            this.metricSet = metricSet;
+        }
+
+        /**
+         * Returns the points in the active buffer, or -1 if it was full
+         */
+        private synchronized int record(String metricId, long tsInMillis, double value, int capacity) {
+            return active.add(metricId, tsInMillis, value, capacity);
+        }
+
+        /**
+         * Returns how long until the active buffer must be sent, 0 or lower if it is due
+         */
+        private synchronized long dueIn(long now, long intervalMillis, int maxPoints) {
+            if (active.size == 0) return Long.MAX_VALUE;
+            if (active.size >= maxPoints) return 0;
+            return active.firstRecordedAt + intervalMillis - now;
+        }
+
+        /**
+         * Makes the spare buffer the active one and returns the points to send, null if there are none. The spare
+         * buffer must have been cleared
+         */
+        private synchronized Points swap() {
+            if (active.size == 0) return null;
+            Points full = active;
+            active = spare;
+            spare = full;
+            return full;
+        }
+    }
+
+    /**
+     * Points of a metric set, in the order they were recorded
+     */
+    private static final class Points {
+        private long[] timestamps = new long[INITIAL_POINTS];
+        private double[] values = new double[INITIAL_POINTS];
+        private String[] metricIds = new String[INITIAL_POINTS];
+        private int size;
+        private long firstRecordedAt;
+
+        private int add(String metricId, long tsInMillis, double value, int capacity) {
+            if (size >= capacity) return -1;
+            if (size == timestamps.length) {
+                int grown = (int) Math.min(capacity, size * 2L);
+                timestamps = Arrays.copyOf(timestamps, grown);
+                values = Arrays.copyOf(values, grown);
+                metricIds = Arrays.copyOf(metricIds, grown);
+            }
+            if (size == 0) firstRecordedAt = System.currentTimeMillis();
+            timestamps[size] = tsInMillis;
+            values[size] = value;
+            metricIds[size] = metricId;
+            return ++size;
+        }
+
+        private void clear() {
+            // Metric ids are kept, they are the same few strings over and over
+            size = 0;
+        }
+
+        /**
+         * Writes the body with points from (included) to (excluded), merging consecutive points of equal timestamp
+         * (unless the metric is already in the timestamp)
+         */
+        private void appendBody(StringBuilder body, int from, int to) {
+            body.setLength(0);
+            int group = from;
+            for (int ii = from; ii < to; ii++) {
+                boolean newTimestamp = ii == from || timestamps[ii] != timestamps[ii - 1] || inGroup(group, ii);
+                if (newTimestamp) {
+                    if (ii > from) MuService.endMeasurement(body);
+                    MuService.startMeasurement(body, ii == from, timestamps[ii]);
+                    group = ii;
+                }
+                MuService.appendMeasurementValue(body, newTimestamp, metricIds[ii], values[ii]);
+            }
+            MuService.endMeasurement(body);
+            MuService.endMeasurements(body);
+        }
+
+        private boolean inGroup(int group, int point) {
+            for (int ii = group; ii < point; ii++) {
+                if (metricIds[ii].equals(metricIds[point])) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,497 @@
+package mk.coco.ecs.services.mu;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Aggregates measurements in memory and publishes them to Mu once per step, so instrumenting hot code costs no
+ * request: meters only add to striped cells ({@link LongAdder} and the like), never taking a lock.
+ *
+ * Each step, every meter publishes one measurement per metric through a {@link MuMeasurementPublisher}:
+ * - {@link Counter}: "name", increments during the step
+ * - {@link Gauge}: "name", value when published
+ * - {@link Timer}: "name.count", "name.total" and "name.max", durations in milliseconds, recorded during the step
+ * - {@link DistributionSummary}: "name.count", "name.total" and "name.max", amounts recorded during the step
+ *
+ * Every metric of a registry is published to one metric set ({@link #getMetricSet()}), as the value of the metrics
+ * spec with its same id, so a step costs one request whatever the number of meters. The values are only recorded on
+ * the shared scheduler, the publisher sends them from its own thread within {@link #getStepMillis()}.
+ *
+ * With a monitored resource set ({@link #setMonitoredResourcePath(String)}), metrics of new meters are created before
+ * their first measurement (once per metric, a failure is logged), through a {@link MuProvisioner} when one is set so
+ * only what does not exist is created. The metric set type, with the metrics of every meter registered by then, and
+ * the metric set are created along with the first metrics: register the meters before the first step. Creations run
+ * on a thread of their own, the step waiting for them is delayed but the scheduler is not.
+ *
+ * Values of a meter are read and reset one after the other, so a measurement recorded right at the end of a step may
+ * count in the next step for some of its metrics.
+ */
+@Slf4j
+public class MuMeterRegistry implements Closeable {
+
+    public static final String DEFAULT_METRIC_SET = "meters";
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-mu-meters-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Creations block on Mu, they never run on the scheduler
+    private static final ExecutorService provisioning = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-mu-meters-provisioning-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final String COUNT_TYPE = "integer";
+    private static final String COUNT_UNIT = "COUNT";
+    private static final String VALUE_TYPE = "double";
+    private static final String MILLIS_UNIT = "MILLISECONDS";
+
+    @Getter private final MuService mu;
+    @Getter private final MuMeasurementPublisher publisher;
+    @Getter private final String metricSet;
+    @Getter private final long stepMillis;
+    @Getter private volatile String monitoredResourcePath;
+    @Getter private volatile MuProvisioner provisioner;
+
+    private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+    // Metrics of new meters waiting to be created in Mu
+    private final Queue<MetricSpec> toProvision = new ConcurrentLinkedQueue<>();
+    private final Object provisionLock = new Object();
+    private boolean metricSetProvisioned;
+    // A step waiting for creations is running, the next ones are skipped until it ends (meters keep accumulating)
+    private final AtomicBoolean provisioningStep = new AtomicBoolean();
+    private final ScheduledFuture<?> publishing;
+    private volatile boolean closed;
+
+    /**
+     * Returns a new MuMeterRegistry publishing every minute to {@link #DEFAULT_METRIC_SET}
+     *
+     * @param mu                Service used to publish
+     */
+    public MuMeterRegistry(MuService mu) {
+        this(mu, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Returns a new MuMeterRegistry publishing to {@link #DEFAULT_METRIC_SET}
+     *
+     * @param mu                Service used to publish
+     * @param step              Time between publications, must be greater than 0
+     * @param unit              Unit of step
+     */
+    public MuMeterRegistry(MuService mu, long step, TimeUnit unit) {
+        this(mu, DEFAULT_METRIC_SET, step, unit);
+    }
+
+    /**
+     * Returns a new MuMeterRegistry
+     *
+     * @param mu                Service used to publish
+     * @param metricSet         Metric set (and metric set type) every meter is published to
+     * @param step              Time between publications, must be greater than 0
+     * @param unit              Unit of step
+     */
+    public MuMeterRegistry(MuService mu, String metricSet, long step, TimeUnit unit) {
+        if (metricSet == null || metricSet.isEmpty()) throw new IllegalArgumentException("Metric set must not be empty");
+        if (step <= 0) throw new IllegalArgumentException("Step must be greater than 0");
+        this.mu = mu;
+        this.metricSet = metricSet;
+        this.stepMillis = unit.toMillis(step);
+        this.publisher = new MuMeasurementPublisher(mu);
+        if (stepMillis < publisher.getIntervalMillis()) publisher.setInterval(stepMillis, TimeUnit.MILLISECONDS);
+        // Steps start at multiples of the step, so registries of different processes publish at the same times
+        long firstDelay = stepMillis - System.currentTimeMillis() % stepMillis;
+        this.publishing = scheduler.scheduleAtFixedRate(this::step, firstDelay, stepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Setters
+
+    /**
+     * Sets the monitored resource the metrics of new meters are created for
+     * @param monitoredResourcePath     Path of the monitored resource, null to not create metrics
+     */
+    public void setMonitoredResourcePath(String monitoredResourcePath) {
+        this.monitoredResourcePath = monitoredResourcePath;
+    }
+
+    /**
+     * Sets the provisioner used to create the metrics of new meters
+     * @param provisioner               Provisioner, null to always create them with the service
+     */
+    public void setProvisioner(MuProvisioner provisioner) {
+        this.provisioner = provisioner;
+    }
+
+    // Meters
+
+    /**
+     * Returns the counter called "name", registering it if needed
+     * @param name              Name of the meter, id of its metric
+     * @return                  Counter
+     */
+    public Counter counter(String name) {
+        return register(name, Counter.class, () -> new Counter(name));
+    }
+
+    /**
+     * Returns the gauge called "name", registering it if needed
+     * @param name              Name of the meter, id of its metric
+     * @param dataUnit          Unit of the value (used to create its metric)
+     * @param value             Returns the value, it is called once per step from the publishing thread
+     * @return                  Gauge
+     */
+    public Gauge gauge(String name, String dataUnit, DoubleSupplier value) {
+        return register(name, Gauge.class, () -> new Gauge(name, dataUnit, value));
+    }
+
+    /**
+     * Returns the timer called "name", registering it if needed
+     * @param name              Name of the meter, prefix of its metrics
+     * @return                  Timer
+     */
+    public Timer timer(String name) {
+        return register(name, Timer.class, () -> new Timer(name));
+    }
+
+    /**
+     * Returns the distribution summary called "name", registering it if needed
+     * @param name              Name of the meter, prefix of its metrics
+     * @param dataUnit          Unit of the amounts (used to create its metrics)
+     * @return                  Distribution summary
+     */
+    public DistributionSummary summary(String name, String dataUnit) {
+        return register(name, DistributionSummary.class, () -> new DistributionSummary(name, dataUnit));
+    }
+
+    private <M extends Meter> M register(String name, Class<M> type, Supplier<M> creator) {
+        Meter meter = meters.get(name);
+        if (meter == null) {
+            meter = meters.computeIfAbsent(name, key -> {
+                M created = creator.get();
+                for (MetricSpec metric : created.metrics()) {
+                    toProvision.offer(metric);
+                }
+                return created;
+            });
+        }
+        if (!type.isInstance(meter)) {
+            throw new IllegalArgumentException("Meter " + name + " is a " + meter.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(meter);
+    }
+
+    // Publication
+
+    /**
+     * Publishes the measurements of the current step right away, blocking until sent
+     */
+    public void publish() {
+        provision();
+        record(System.currentTimeMillis());
+        publisher.flush();
+    }
+
+    /**
+     * Scheduled step: records the measurements for the publisher, handing the step to the provisioning thread when
+     * metrics have to be created first
+     */
+    private void step() {
+        long now = System.currentTimeMillis();
+        if (monitoredResourcePath != null && !toProvision.isEmpty()) {
+            if (!provisioningStep.compareAndSet(false, true)) return;
+            try {
+                provisioning.execute(() -> {
+                    try {
+                        provision();
+                        record(now);
+                    } finally {
+                        provisioningStep.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                provisioningStep.set(false);
+            }
+        } else if (!provisioningStep.get()) {
+            record(now);
+        }
+    }
+
+    private synchronized void record(long tsInMillis) {
+        for (Meter meter : meters.values()) {
+            try {
+                meter.publish(metricSet, tsInMillis, publisher);
+            } catch (Exception e) {
+                log.error("There was an error reading meter {}.", meter.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops publishing, after publishing the measurements of the current step
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        publishing.cancel(false);
+        publish();
+        publisher.close();
+    }
+
+    private void provision() {
+        synchronized (provisionLock) {
+            String path = monitoredResourcePath;
+            if (path == null) {
+                toProvision.clear();
+                return;
+            }
+            MuProvisioner using = provisioner;
+            Map<String, String> specs = new LinkedHashMap<>();
+            MetricSpec metric;
+            while ((metric = toProvision.poll()) != null) {
+                try {
+                    if (using != null) {
+                        using.provisionMetric(metric.id, metric.dataType, metric.dataUnit, metric.description);
+                    } else {
+                        mu.createMetric(metric.id, metric.dataType, metric.dataUnit, metric.description);
+                    }
+                } catch (Exception e) {
+                    log.warn("Could not create metric {} in Mu, measurements are published anyway.", metric.id, e);
+                }
+                specs.put(metric.id, mu.getMetricsSpecPath(metric.id));
+            }
+            if (specs.isEmpty()) return;
+            if (metricSetProvisioned) {
+                log.warn("Metrics {} were created after the metric set type {}, they are not in it.", specs.keySet(), metricSet);
+                return;
+            }
+            metricSetProvisioned = true;
+            try {
+                String metricSetTypePath = mu.getMetricsSetTypesPath(metricSet);
+                if (using != null) {
+                    using.provisionMetricSetType(metricSet, specs);
+                    using.provisionMetricSet(metricSet, metricSetTypePath, path);
+                } else {
+                    mu.createMetricSetType(metricSet, specs);
+                    mu.createMetricSet(metricSet, metricSetTypePath, path);
+                }
+            } catch (Exception e) {
+                log.warn("Could not create metric set {} in Mu, measurements are published anyway.", metricSet, e);
+            }
+        }
+    }
+
+    /**
+     * Metric published by a meter, and how it is created in Mu
+     */
+    private static final class MetricSpec {
+        private final String id;
+        private final String dataType;
+        private final String dataUnit;
+        private final String description;
+
+        private MetricSpec(String id, String dataType, String dataUnit, String description) {
+            this.id = id;
+            this.dataType = dataType;
+            this.dataUnit = dataUnit;
+            this.description = description;
+        }
+    }
+
+    /**
+     * Aggregates measurements between publications
+     */
+    public abstract static class Meter {
+        @Getter private final String name;
+
+        private Meter(String name) {
+            this.name = name;
+        }
+
+        abstract MetricSpec[] metrics();
+
+        /**
+         * Records the measurements of the step in a metric set and starts a new one
+         */
+        abstract void publish(String metricSet, long tsInMillis, MuMeasurementPublisher publisher);
+    }
+
+    /**
+     * Counts events, publishing how many happened during the step
+     */
+    public static final class Counter extends Meter {
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void increment(long amount) {
+            count.add(amount);
+        }
+
+        @Override
+        MetricSpec[] metrics() {
+            return new MetricSpec[] {new MetricSpec(getName(), COUNT_TYPE, COUNT_UNIT, "Events of " + getName())};
+        }
+
+        @Override
+        void publish(String metricSet, long tsInMillis, MuMeasurementPublisher publisher) {
+            publisher.record(metricSet, getName(), tsInMillis, count.sumThenReset());
+        }
+    }
+
+    /**
+     * Publishes a value read when publishing
+     */
+    public static final class Gauge extends Meter {
+        private final String dataUnit;
+        private final DoubleSupplier value;
+
+        private Gauge(String name, String dataUnit, DoubleSupplier value) {
+            super(name);
+            this.dataUnit = dataUnit;
+            this.value = value;
+        }
+
+        @Override
+        MetricSpec[] metrics() {
+            return new MetricSpec[] {new MetricSpec(getName(), VALUE_TYPE, dataUnit, "Value of " + getName())};
+        }
+
+        @Override
+        void publish(String metricSet, long tsInMillis, MuMeasurementPublisher publisher) {
+            publisher.record(metricSet, getName(), tsInMillis, value.getAsDouble());
+        }
+    }
+
+    /**
+     * Times events, publishing how many happened during the step, their total and their max duration
+     */
+    public static final class Timer extends Meter {
+        private final String countId;
+        private final String totalId;
+        private final String maxId;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private Timer(String name) {
+            super(name);
+            this.countId = name + ".count";
+            this.totalId = name + ".total";
+            this.maxId = name + ".max";
+        }
+
+        public void record(long duration, TimeUnit unit) {
+            long nanos = unit.toNanos(duration);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public void record(Runnable event) {
+            long start = System.nanoTime();
+            try {
+                event.run();
+            } finally {
+                record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        public <T> T record(Supplier<T> event) {
+            long start = System.nanoTime();
+            try {
+                return event.get();
+            } finally {
+                record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        MetricSpec[] metrics() {
+            return new MetricSpec[] {
+                    new MetricSpec(countId, COUNT_TYPE, COUNT_UNIT, "Events of " + getName()),
+                    new MetricSpec(totalId, VALUE_TYPE, MILLIS_UNIT, "Total duration of " + getName()),
+                    new MetricSpec(maxId, VALUE_TYPE, MILLIS_UNIT, "Max duration of " + getName())};
+        }
+
+        @Override
+        void publish(String metricSet, long tsInMillis, MuMeasurementPublisher publisher) {
+            publisher.record(metricSet, countId, tsInMillis, count.sumThenReset());
+            publisher.record(metricSet, totalId, tsInMillis, totalNanos.sumThenReset() / 1e6);
+            publisher.record(metricSet, maxId, tsInMillis, maxNanos.getThenReset() / 1e6);
+        }
+    }
+
+    /**
+     * Records amounts, publishing how many were recorded during the step, their total and their max
+     */
+    public static final class DistributionSummary extends Meter {
+        private final String dataUnit;
+        private final String countId;
+        private final String totalId;
+        private final String maxId;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder total = new DoubleAdder();
+        private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        private DistributionSummary(String name, String dataUnit) {
+            super(name);
+            this.dataUnit = dataUnit;
+            this.countId = name + ".count";
+            this.totalId = name + ".total";
+            this.maxId = name + ".max";
+        }
+
+        public void record(double amount) {
+            count.increment();
+            total.add(amount);
+            max.accumulate(amount);
+        }
+
+        @Override
+        MetricSpec[] metrics() {
+            return new MetricSpec[] {
+                    new MetricSpec(countId, COUNT_TYPE, COUNT_UNIT, "Amounts of " + getName()),
+                    new MetricSpec(totalId, VALUE_TYPE, dataUnit, "Total of " + getName()),
+                    new MetricSpec(maxId, VALUE_TYPE, dataUnit, "Max of " + getName())};
+        }
+
+        @Override
+        void publish(String metricSet, long tsInMillis, MuMeasurementPublisher publisher) {
+            publisher.record(metricSet, countId, tsInMillis, count.sumThenReset());
+            publisher.record(metricSet, totalId, tsInMillis, total.sumThenReset());
+            // Nothing recorded during the step
+            double stepMax = max.getThenReset();
+            publisher.record(metricSet, maxId, tsInMillis, (stepMax == Double.NEGATIVE_INFINITY) ? 0 : stepMax);
+        }
+    }
+}
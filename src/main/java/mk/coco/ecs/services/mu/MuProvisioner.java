@@ -0,0 +1,353 @@
+package mk.coco.ecs.services.mu;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates metrics, metric set types and metric sets in Mu only when they do not exist yet
+ *
+ * Existing ids are listed once ({@link MuService#listMetrics()}, {@link MuService#listMetricSetType()} and
+ * {@link MuService#listMetricSets()}) into an in-memory catalog, so provisioning what already exists costs no request.
+ * With a catalog file ({@link #setCatalogFile(Path)}), the catalog is read from it instead of listed when the file
+ * exists, and saved to it after listing or creating, so restarted processes do not list again. Once the file exists,
+ * Mu is only listed again by {@link #refresh()} or after a creation fails: an id deleted from Mu stays in the file
+ * (and is not created again) until then.
+ *
+ * Concurrent provisioning of the same id waits for a single in-flight creation. When a creation fails, its kind is
+ * listed again: if the id exists by then (i.e. created by another process) it counts as provisioned.
+ */
+@Slf4j
+public class MuProvisioner {
+
+    public enum Kind {
+        METRIC,
+        METRIC_SET_TYPE,
+        METRIC_SET
+    }
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Getter private final MuService mu;
+    @Getter private volatile Path catalogFile;
+
+    // Counters
+    private final LongAdder listed = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder known = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    // Existing ids by kind, read once
+    private final Map<Kind, Set<String>> catalog = new EnumMap<>(Kind.class);
+    private volatile boolean loaded;
+    // Creations in flight by kind and id
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a new MuProvisioner
+     *
+     * @param mu                Service used to list and create
+     */
+    public MuProvisioner(MuService mu) {
+        this.mu = mu;
+        for (Kind kind : Kind.values()) {
+            catalog.put(kind, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    // Setters
+
+    /**
+     * Sets the file the catalog is read from and saved to. When it exists Mu is not listed, call {@link #refresh()}
+     * (or delete the file) after deleting ids from Mu
+     * @param catalogFile       Path of the file, null to keep the catalog in memory only
+     */
+    public void setCatalogFile(Path catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    // Counters
+
+    public long getListed() {return listed.sum();}          // List requests sent
+    public long getCreated() {return created.sum();}        // Create requests that succeeded
+    public long getKnown() {return known.sum();}            // Ids already in the catalog, not created
+    public long getCoalesced() {return coalesced.sum();}    // Ids provisioned by waiting for a creation in flight
+
+    // Usage
+
+    /**
+     * Returns whether an id is in the catalog, reading it if needed
+     * @param kind              Kind of the id
+     * @param id                Id of choice
+     * @return                  True if the id exists
+     * @throws Exception        If the catalog could not be read
+     */
+    public boolean exists(Kind kind, String id) throws Exception {
+        load();
+        return catalog.get(kind).contains(id);
+    }
+
+    /**
+     * Creates a metric unless it exists
+     * @param id            Id of the metric
+     * @param dataType      One of the supported data types
+     * @param dataUnit      One of the supported data units
+     * @param description   Description of the metric
+     * @return              True if it was created by this call
+     * @throws Exception    If it does not exist and could not be created
+     */
+    public boolean provisionMetric(String id, String dataType, String dataUnit, String description) throws Exception {
+        return provision(Kind.METRIC, id, () -> mu.createMetric(id, dataType, dataUnit, description));
+    }
+
+    /**
+     * Creates a metric set type unless it exists
+     * @param id                Id of the metric set type
+     * @param metricsSpecName   Metric spec name
+     * @param metricsSpecPath   Metric spec path
+     * @return                  True if it was created by this call
+     * @throws Exception        If it does not exist and could not be created
+     */
+    public boolean provisionMetricSetType(String id, String metricsSpecName, String metricsSpecPath) throws Exception {
+        return provision(Kind.METRIC_SET_TYPE, id, () -> mu.createMetricSetType(id, metricsSpecName, metricsSpecPath));
+    }
+
+    /**
+     * Creates a metric set type with several metrics unless it exists
+     * @param id                Id of the metric set type
+     * @param metricsSpecs      Metric spec paths by metric spec name
+     * @return                  True if it was created by this call
+     * @throws Exception        If it does not exist and could not be created
+     */
+    public boolean provisionMetricSetType(String id, Map<String, String> metricsSpecs) throws Exception {
+        return provision(Kind.METRIC_SET_TYPE, id, () -> mu.createMetricSetType(id, metricsSpecs));
+    }
+
+    /**
+     * Creates a metric set unless it exists
+     * @param id                    Id of the metric set
+     * @param metricsSetTypePath    Path to the metric set type
+     * @param monitoredResource     Path to the monitored resource
+     * @return                      True if it was created by this call
+     * @throws Exception            If it does not exist and could not be created
+     */
+    public boolean provisionMetricSet(String id, String metricsSetTypePath, String monitoredResource) throws Exception {
+        return provision(Kind.METRIC_SET, id, () -> mu.createMetricSet(id, metricsSetTypePath, monitoredResource));
+    }
+
+    /**
+     * Same as {@link MuService#createMetricFullProcess}, creating only what does not exist
+     * @param monitoredResourcePath     Path to the monitored resource
+     * @param metricID                  Id of the metric
+     * @param dataType                  One of the supported data types
+     * @param dataUnit                  One of the supported data units
+     * @param metricDescription         Description of the metric
+     * @param metricSetTypeID           Id of the metric set type
+     * @param metricsSpecName           Metric spec name
+     * @param metricSetID               Id of the metric set
+     * @return                          What was created or found
+     * @throws Exception                If something that does not exist could not be created
+     */
+    public String provisionMetricFullProcess(
+            String monitoredResourcePath,
+            String metricID,
+            String dataType,
+            String dataUnit,
+            String metricDescription,
+            String metricSetTypeID,
+            String metricsSpecName,
+            String metricSetID
+    ) throws Exception {
+        StringBuilder responses = new StringBuilder();
+
+        responses.append("\n## Metric ").append(metricID).append(": ");
+        responses.append(outcome(provisionMetric(metricID, dataType, dataUnit, metricDescription)));
+
+        responses.append("\n## Metric set type ").append(metricSetTypeID).append(": ");
+        responses.append(outcome(provisionMetricSetType(metricSetTypeID, metricsSpecName, mu.getMetricsSpecPath(metricID))));
+
+        responses.append("\n## Metric set ").append(metricSetID).append(": ");
+        String metricsSetTypePath = mu.getMetricsSetTypesPath(metricSetTypeID);
+        responses.append(outcome(provisionMetricSet(metricSetID, metricsSetTypePath, monitoredResourcePath)));
+
+        return responses.toString();
+    }
+
+    /**
+     * Lists every kind again, adding what was created elsewhere to the catalog
+     * @throws Exception        If a list request fails
+     */
+    public synchronized void refresh() throws Exception {
+        for (Kind kind : Kind.values()) {
+            list(kind);
+        }
+        loaded = true;
+        save();
+    }
+
+    /**
+     * Returns the ids of a kind in the catalog, without reading it
+     * @param kind              Kind of choice
+     * @return                  Unmodifiable view of the ids
+     */
+    public Set<String> getCatalog(Kind kind) {
+        return Collections.unmodifiableSet(catalog.get(kind));
+    }
+
+    // Provisioning
+
+    private boolean provision(Kind kind, String id, Callable<String> create) throws Exception {
+        if (exists(kind, id)) {
+            known.increment();
+            return false;
+        }
+        String key = kind + " " + id;
+        CompletableFuture<Boolean> mine = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                running.get();
+                return false;
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+            }
+        }
+        try {
+            boolean createdNow = create(kind, id, create);
+            mine.complete(createdNow);
+            return createdNow;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private boolean create(Kind kind, String id, Callable<String> create) throws Exception {
+        // A creation finished between the catalog check and taking the slot
+        if (catalog.get(kind).contains(id)) return false;
+        try {
+            create.call();
+        } catch (Exception e) {
+            synchronized (this) {
+                list(kind);
+            }
+            if (!catalog.get(kind).contains(id)) throw e;
+            log.debug("{} {} was created meanwhile, creation failed with {}", kind, id, e.toString());
+            known.increment();
+            save();
+            return false;
+        }
+        created.increment();
+        catalog.get(kind).add(id);
+        save();
+        return true;
+    }
+
+    private static String outcome(boolean createdNow) {
+        return createdNow ? "created" : "exists";
+    }
+
+    // Catalog
+
+    private void load() throws Exception {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            Path file = catalogFile;
+            if (file != null && Files.exists(file)) {
+                read(file);
+            } else {
+                for (Kind kind : Kind.values()) {
+                    list(kind);
+                }
+                save();
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Adds the ids of a kind listed by Mu to the catalog. Only called holding this
+     */
+    private void list(Kind kind) throws Exception {
+        String response;
+        switch (kind) {
+            case METRIC:            response = mu.listMetrics(); break;
+            case METRIC_SET_TYPE:   response = mu.listMetricSetType(); break;
+            default:                response = mu.listMetricSets(); break;
+        }
+        listed.increment();
+        readIds(response, catalog.get(kind));
+    }
+
+    /**
+     * Adds every "_id" of a list response to ids, at any depth
+     */
+    static void readIds(String response, Set<String> ids) throws IOException {
+        if (response == null || response.trim().isEmpty()) return;
+        try (JsonParser parser = JSON.createParser(response)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token == JsonToken.FIELD_NAME && "_id".equals(parser.getCurrentName())
+                        && parser.nextToken() == JsonToken.VALUE_STRING) {
+                    ids.add(parser.getText());
+                }
+            }
+        }
+    }
+
+    private void read(Path file) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int space = line.indexOf(' ');
+            if (space < 0) continue;
+            try {
+                catalog.get(Kind.valueOf(line.substring(0, space))).add(line.substring(space + 1));
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring line of catalog {}: {}", file, line);
+            }
+        }
+    }
+
+    /**
+     * Writes the catalog to the catalog file (if any) through a temporary file, so it is never read half written
+     */
+    private synchronized void save() {
+        Path file = catalogFile;
+        if (file == null) return;
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<Kind, Set<String>> kind : catalog.entrySet()) {
+                    for (String id : kind.getValue()) {
+                        writer.write(kind.getKey() + " " + id);
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not save the catalog of Mu to {}.", file, e);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package mk.coco.ecs.services.mu;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reduces raw samples to rollup windows before publishing them to Mu, so high-frequency signals cost one measurement
+ * per aggregate and window instead of one per sample.
+ *
+ * Each series (metric of a metric set) is rolled up into every window (i.e. 10 seconds and 1 minute): samples update
+ * min, max, sum, count and last of the window they fall in, in constant time. When a window ends (a sample of a later
+ * window arrives, or the window is over for {@link #getGraceMillis()}) each aggregate in {@link #getAggregates()} is
+ * published through a {@link MuMeasurementPublisher}, at the start of the window, to metric "metricId.window.aggregate"
+ * (i.e. "cpu.10s.max") of the same metric set. A sample older than the window being rolled up, or than the end of the
+ * last window published, is left out of that window (and still rolled up into the others), so a window is never
+ * published twice.
+ *
+ * With provisioning on, the metric of each aggregate in {@link #getAggregates()} is created with
+ * {@link MuService#createMetric} once, before the first windows of its series are published.
+ */
+@Slf4j
+public class MuRollup implements Closeable {
+
+    public enum Aggregate {
+        MIN,
+        MAX,
+        AVG,
+        COUNT,
+        LAST
+    }
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1, runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-mu-rollup-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Aggregate[] AGGREGATES = Aggregate.values();
+
+    @Getter private final MuService mu;
+    @Getter private final MuMeasurementPublisher publisher;
+    private final long[] windowsMillis;
+    private final String[] windowLabels;
+    @Getter private volatile Set<Aggregate> aggregates = EnumSet.allOf(Aggregate.class);
+    @Getter private volatile long graceMillis = TimeUnit.SECONDS.toMillis(1);
+    @Getter private volatile boolean provisioning;
+    @Getter private volatile String defaultDataUnit = "COUNT";
+
+    // Counters
+    private final LongAdder samplesRecorded = new LongAdder();
+    private final LongAdder samplesLate = new LongAdder();
+    private final LongAdder windowsPublished = new LongAdder();
+
+    private final Map<String, Map<String, Series>> series = new ConcurrentHashMap<>();
+    // Series whose aggregate metrics have not been created yet
+    private final Queue<Series> toProvision = new ConcurrentLinkedQueue<>();
+    private final ScheduledFuture<?> ticks;
+    private volatile boolean closed;
+
+    /**
+     * Returns a new MuRollup
+     *
+     * @param mu                Service used to publish
+     * @param unit              Unit of windows
+     * @param windows           Length of each window, greater than 0
+     */
+    public MuRollup(MuService mu, TimeUnit unit, long... windows) {
+        if (windows.length == 0) throw new IllegalArgumentException("At least a window is needed");
+        this.mu = mu;
+        this.windowsMillis = new long[windows.length];
+        this.windowLabels = new String[windows.length];
+        long shortest = Long.MAX_VALUE;
+        for (int ii = 0; ii < windows.length; ii++) {
+            windowsMillis[ii] = unit.toMillis(windows[ii]);
+            if (windowsMillis[ii] <= 0) throw new IllegalArgumentException("Windows must be 1 ms or longer");
+            windowLabels[ii] = label(windowsMillis[ii]);
+            shortest = Math.min(shortest, windowsMillis[ii]);
+        }
+        this.publisher = new MuMeasurementPublisher(mu);
+        publisher.setInterval(shortest, TimeUnit.MILLISECONDS);
+        long tick = Math.min(shortest, TimeUnit.SECONDS.toMillis(1));
+        this.ticks = scheduler.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    // Setters
+
+    /**
+     * Sets the aggregates published for each window. With provisioning on, the metrics of aggregates added later are
+     * only created for new series
+     * @param aggregates        Aggregates, at least one
+     */
+    public void setAggregates(Set<Aggregate> aggregates) {
+        if (aggregates.isEmpty()) throw new IllegalArgumentException("At least an aggregate is needed");
+        this.aggregates = EnumSet.copyOf(aggregates);
+    }
+
+    /**
+     * Sets how long after its end a window waits for samples when no later sample arrives
+     * @param grace             Grace, 0 or greater
+     * @param unit              Unit of grace
+     */
+    public void setGrace(long grace, TimeUnit unit) {
+        if (grace < 0) throw new IllegalArgumentException("Grace can't be negative");
+        this.graceMillis = unit.toMillis(grace);
+    }
+
+    /**
+     * Sets whether the metrics of the aggregates are created in Mu
+     * @param provisioning      True to create them
+     */
+    public void setProvisioning(boolean provisioning) {
+        this.provisioning = provisioning;
+    }
+
+    /**
+     * Sets the data unit of the series created by {@link #record(String, String, long, double)}
+     * @param defaultDataUnit   One of the supported data units
+     */
+    public void setDefaultDataUnit(String defaultDataUnit) {
+        if (defaultDataUnit == null) throw new IllegalArgumentException("Data unit can't be null");
+        this.defaultDataUnit = defaultDataUnit;
+    }
+
+    public long[] getWindowsMillis() {
+        return Arrays.copyOf(windowsMillis, windowsMillis.length);
+    }
+
+    // Counters
+
+    public long getSamplesRecorded() {return samplesRecorded.sum();}    // Samples rolled up
+    public long getSamplesLate() {return samplesLate.sum();}            // Samples left out of a window that was over
+    public long getWindowsPublished() {return windowsPublished.sum();}  // Windows whose aggregates were published
+
+    // Usage
+
+    /**
+     * Returns a series, to record its samples without looking it up again
+     * @param metricSet         Metric set of choice
+     * @param metricId          Id of the metric, prefix of the aggregate metrics
+     * @param dataUnit          Data unit of the samples (used to create the aggregate metrics)
+     * @return                  Series
+     */
+    public Series series(String metricSet, String metricId, String dataUnit) {
+        Map<String, Series> metrics = series.get(metricSet);
+        if (metrics == null) metrics = series.computeIfAbsent(metricSet, key -> new ConcurrentHashMap<>());
+        Series found = metrics.get(metricId);
+        if (found != null) return found;
+        return metrics.computeIfAbsent(metricId, key -> {
+            Series created = new Series(metricSet, metricId, dataUnit);
+            toProvision.offer(created);
+            return created;
+        });
+    }
+
+    /**
+     * Records a sample
+     * @param metricSet         Metric set of choice
+     * @param metricId          Id of the metric, prefix of the aggregate metrics
+     * @param tsInMillis        Timestamp in milliseconds
+     * @param value             Value, must be finite
+     * @return                  False if the sample was dropped
+     */
+    public boolean record(String metricSet, String metricId, long tsInMillis, double value) {
+        return series(metricSet, metricId, defaultDataUnit).record(tsInMillis, value);
+    }
+
+    /**
+     * Publishes every window, over or not, and stops rolling up
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        ticks.cancel(false);
+        synchronized (this) {
+            provision();
+            forEachSeries(Long.MAX_VALUE);
+        }
+        publisher.close();
+    }
+
+    // Windows
+
+    private synchronized void tick() {
+        try {
+            provision();
+            forEachSeries(System.currentTimeMillis() - graceMillis);
+        } catch (Exception e) {
+            log.error("There was an error publishing rollup windows.", e);
+        }
+    }
+
+    private void forEachSeries(long now) {
+        for (Map<String, Series> metrics : series.values()) {
+            for (Series each : metrics.values()) {
+                each.publishOver(now);
+            }
+        }
+    }
+
+    private void provision() {
+        Series created;
+        while ((created = toProvision.poll()) != null) {
+            if (!provisioning) continue;
+            Set<Aggregate> provisioned = aggregates;
+            for (String[] ids : created.ids) {
+                for (Aggregate aggregate : provisioned) {
+                    String id = ids[aggregate.ordinal()];
+                    boolean count = aggregate == Aggregate.COUNT;
+                    try {
+                        mu.createMetric(id, count ? "integer" : "double", count ? "COUNT" : created.dataUnit,
+                                aggregate.name().toLowerCase() + " of " + created.metricId);
+                    } catch (Exception e) {
+                        log.warn("Could not create metric {} in Mu, it is published anyway.", id, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String label(long millis) {
+        if (millis % TimeUnit.HOURS.toMillis(1) == 0) return millis / TimeUnit.HOURS.toMillis(1) + "h";
+        if (millis % TimeUnit.MINUTES.toMillis(1) == 0) return millis / TimeUnit.MINUTES.toMillis(1) + "m";
+        if (millis % TimeUnit.SECONDS.toMillis(1) == 0) return millis / TimeUnit.SECONDS.toMillis(1) + "s";
+        return millis + "ms";
+    }
+
+    /**
+     * A metric of a metric set, rolled up into every window
+     */
+    public final class Series {
+        @Getter private final String metricSet;
+        @Getter private final String metricId;
+        @Getter private final String dataUnit;
+        // Metric of each aggregate, by window and aggregate
+        private final String[][] ids;
+        // State of each window, guarded by this
+        private final long[] starts;
+        private final long[] counts;
+        private final double[] mins;
+        private final double[] maxs;
+        private final double[] sums;
+        private final double[] lasts;
+        // End of the last window published, samples before it are late
+        private final long[] publishedUntil;
+
+        private Series(String metricSet, String metricId, String dataUnit) {
+            this.metricSet = metricSet;
+            this.metricId = metricId;
+            this.dataUnit = dataUnit;
+            int windows = windowsMillis.length;
+            this.ids = new String[windows][AGGREGATES.length];
+            for (int ww = 0; ww < windows; ww++) {
+                for (Aggregate aggregate : AGGREGATES) {
+                    ids[ww][aggregate.ordinal()] = metricId + "." + windowLabels[ww] + "." + aggregate.name().toLowerCase();
+                }
+            }
+            this.starts = new long[windows];
+            this.counts = new long[windows];
+            this.mins = new double[windows];
+            this.maxs = new double[windows];
+            this.sums = new double[windows];
+            this.lasts = new double[windows];
+            this.publishedUntil = new long[windows];
+            Arrays.fill(publishedUntil, Long.MIN_VALUE);
+        }
+
+        /**
+         * Records a sample
+         * @param tsInMillis        Timestamp in milliseconds
+         * @param value             Value, must be finite
+         * @return                  False if the sample was dropped (not finite, too late for every window or rollup
+         *                          closed)
+         */
+        public boolean record(long tsInMillis, double value) {
+            if (closed || Double.isNaN(value) || Double.isInfinite(value)) return false;
+            int rolledUp = 0;
+            synchronized (this) {
+                for (int ww = 0; ww < starts.length; ww++) {
+                    // Older than the window being rolled up or published, only this window leaves it out
+                    if (tsInMillis < publishedUntil[ww] || (counts[ww] > 0 && tsInMillis < starts[ww])) continue;
+                    if (counts[ww] > 0 && tsInMillis >= starts[ww] + windowsMillis[ww]) publish(ww);
+                    if (counts[ww] == 0) {
+                        starts[ww] = tsInMillis - Math.floorMod(tsInMillis, windowsMillis[ww]);
+                        mins[ww] = value;
+                        maxs[ww] = value;
+                        sums[ww] = 0;
+                    } else {
+                        mins[ww] = Math.min(mins[ww], value);
+                        maxs[ww] = Math.max(maxs[ww], value);
+                    }
+                    sums[ww] += value;
+                    lasts[ww] = value;
+                    counts[ww]++;
+                    rolledUp++;
+                }
+            }
+            if (rolledUp < starts.length) samplesLate.increment();
+            if (rolledUp == 0) return false;
+            samplesRecorded.increment();
+            return true;
+        }
+
+        /**
+         * Publishes the windows over at "now"
+         */
+        private synchronized void publishOver(long now) {
+            for (int ww = 0; ww < starts.length; ww++) {
+                if (counts[ww] > 0 && (now == Long.MAX_VALUE || starts[ww] + windowsMillis[ww] <= now)) publish(ww);
+            }
+        }
+
+        /**
+         * Publishes a window and empties it. Only called holding this
+         */
+        private void publish(int ww) {
+            Set<Aggregate> published = aggregates;
+            String[] windowIds = ids[ww];
+            long start = starts[ww];
+            for (Aggregate aggregate : published) {
+                double value;
+                switch (aggregate) {
+                    case MIN:   value = mins[ww]; break;
+                    case MAX:   value = maxs[ww]; break;
+                    case AVG:   value = sums[ww] / counts[ww]; break;
+                    case COUNT: value = counts[ww]; break;
+                    default:    value = lasts[ww]; break;
+                }
+                publisher.record(metricSet, windowIds[aggregate.ordinal()], start, value);
+            }
+            counts[ww] = 0;
+            publishedUntil[ww] = start + windowsMillis[ww];
+            windowsPublished.increment();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package mk.coco.ecs.services.mu;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffers pending measurements of many series (metric of a metric set) off-heap, without an object per point
+ *
+ * Each series is interned once into an id ({@link #seriesId(String, String)}) and owns a ring of
+ * {@link #getPointsPerSeries()} slots in two columns of a single direct buffer: timestamps and values. Memory is fixed
+ * when the buffer is created, {@link #getMemoryBytes()}. When the ring of a series is full, a new point either
+ * overwrites its oldest one or halves the resolution of the ring, averaging its points by pairs, as set by
+ * {@link OverflowPolicy}.
+ *
+ * {@link #flush(int, BodyConsumer)} writes the points straight into addMeasurements bodies
+ * ({@link MuService#addMeasurementsWithBody(String, String)}), one metric set at a time, and empties the buffer.
+ *
+ * Series are locked by stripes, so recording points of different series rarely waits.
+ */
+@Slf4j
+public class MuSeriesBuffer {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // A new point overwrites the oldest one of its series
+        DOWNSAMPLE      // Points of the series are averaged by pairs, making room for half of them
+    }
+
+    /**
+     * Receives the bodies written by {@link #flush(int, BodyConsumer)}
+     */
+    public interface BodyConsumer {
+        /**
+         * @param metricSet         Metric set of the measurements
+         * @param body              addMeasurements body
+         * @param points            Points in body
+         * @throws Exception        If the body could not be sent, its points are counted as failed
+         */
+        void accept(String metricSet, String body, int points) throws Exception;
+    }
+
+    private static final int STRIPES = 64;
+    private static final int POINT_BYTES = Long.BYTES + Double.BYTES;
+
+    @Getter private final int maxSeries;
+    @Getter private final int pointsPerSeries;
+    @Getter private final OverflowPolicy overflowPolicy;
+
+    // Counters
+    private final LongAdder pointsRecorded = new LongAdder();
+    private final LongAdder pointsRejected = new LongAdder();
+    private final LongAdder pointsOverwritten = new LongAdder();
+    private final LongAdder pointsDownsampled = new LongAdder();
+    private final LongAdder pointsFlushed = new LongAdder();
+    private final LongAdder pointsFailed = new LongAdder();
+
+    // Columns, point j of series k is at k * pointsPerSeries + j
+    private final LongBuffer timestamps;
+    private final DoubleBuffer values;
+    // Ring of each series, guarded by the stripe of the series
+    private final int[] starts;
+    private final int[] counts;
+    private final Object[] stripes = new Object[STRIPES];
+
+    // Series ids by metric set and metric, names by series id
+    private final Map<String, Map<String, Integer>> ids = new ConcurrentHashMap<>();
+    private final String[] seriesMetricIds;
+    private int seriesCount;            // Guarded by ids
+
+    /**
+     * Returns a new MuSeriesBuffer
+     *
+     * @param maxSeries         Max series buffered
+     * @param pointsPerSeries   Points buffered per series, at least 2
+     * @param overflowPolicy    What to do when a new point does not fit in its series
+     */
+    public MuSeriesBuffer(int maxSeries, int pointsPerSeries, OverflowPolicy overflowPolicy) {
+        if (maxSeries <= 0) throw new IllegalArgumentException("Max series must be greater than 0");
+        if (pointsPerSeries < 2) throw new IllegalArgumentException("Points per series must be at least 2");
+        if (overflowPolicy == null) throw new IllegalArgumentException("Overflow policy can't be null");
+        long points = (long) maxSeries * pointsPerSeries;
+        if (points * POINT_BYTES > Integer.MAX_VALUE) throw new IllegalArgumentException("Buffer can't be over 2 GB");
+        this.maxSeries = maxSeries;
+        this.pointsPerSeries = pointsPerSeries;
+        this.overflowPolicy = overflowPolicy;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) points * POINT_BYTES);
+        buffer.limit((int) points * Long.BYTES);
+        this.timestamps = buffer.slice().asLongBuffer();
+        buffer.limit(buffer.capacity()).position((int) points * Long.BYTES);
+        this.values = buffer.slice().asDoubleBuffer();
+
+        this.starts = new int[maxSeries];
+        this.counts = new int[maxSeries];
+        this.seriesMetricIds = new String[maxSeries];
+        for (int ii = 0; ii < STRIPES; ii++) {
+            stripes[ii] = new Object();
+        }
+    }
+
+    // Counters
+
+    public long getPointsRecorded() {return pointsRecorded.sum();}      // Points stored
+    public long getPointsRejected() {return pointsRejected.sum();}      // Points not stored: no room for their series, or value not finite
+    public long getPointsOverwritten() {return pointsOverwritten.sum();}// Points lost to newer ones (DROP_OLDEST)
+    public long getPointsDownsampled() {return pointsDownsampled.sum();}// Points merged with another one (DOWNSAMPLE)
+    public long getPointsFlushed() {return pointsFlushed.sum();}        // Points handed over in bodies
+    public long getPointsFailed() {return pointsFailed.sum();}          // Points in bodies the consumer could not send
+    public long getMemoryBytes() {return (long) maxSeries * pointsPerSeries * POINT_BYTES;}
+
+    public int getSeries() {
+        synchronized (ids) {
+            return seriesCount;
+        }
+    }
+
+    // Usage
+
+    /**
+     * Returns the id of a series, to record its points without looking it up again
+     * @param metricSet         Metric set of choice
+     * @param metricId          Id of the metric (metrics spec name)
+     * @return                  Series id, or -1 if there is no room for more series
+     */
+    public int seriesId(String metricSet, String metricId) {
+        Map<String, Integer> metrics = ids.get(metricSet);
+        if (metrics != null) {
+            Integer id = metrics.get(metricId);
+            if (id != null) return id;
+        }
+        synchronized (ids) {
+            metrics = ids.computeIfAbsent(metricSet, key -> new ConcurrentHashMap<>());
+            Integer id = metrics.get(metricId);
+            if (id != null) return id;
+            if (seriesCount == maxSeries) return -1;
+            seriesMetricIds[seriesCount] = metricId;
+            metrics.put(metricId, seriesCount);
+            return seriesCount++;
+        }
+    }
+
+    /**
+     * Records a point
+     * @param metricSet         Metric set of choice
+     * @param metricId          Id of the metric (metrics spec name)
+     * @param tsInMillis        Timestamp in milliseconds
+     * @param value             Value, must be finite
+     * @return                  False if the point was rejected
+     */
+    public boolean record(String metricSet, String metricId, long tsInMillis, double value) {
+        return record(seriesId(metricSet, metricId), tsInMillis, value);
+    }
+
+    /**
+     * Records a point
+     * @param seriesId          Id returned by {@link #seriesId(String, String)}
+     * @param tsInMillis        Timestamp in milliseconds
+     * @param value             Value, must be finite
+     * @return                  False if the point was rejected
+     */
+    public boolean record(int seriesId, long tsInMillis, double value) {
+        if (seriesId < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            pointsRejected.increment();
+            return false;
+        }
+        synchronized (stripes[seriesId % STRIPES]) {
+            if (counts[seriesId] == pointsPerSeries) makeRoom(seriesId);
+            int slot = slot(seriesId, counts[seriesId]);
+            timestamps.put(slot, tsInMillis);
+            values.put(slot, value);
+            counts[seriesId]++;
+        }
+        pointsRecorded.increment();
+        return true;
+    }
+
+    /**
+     * Hands over every buffered point in addMeasurements bodies and empties the buffer. Points of a series are
+     * written in the order they were recorded
+     * @param maxPointsPerBody  Points after which a body is handed over (a series is never split, so a body may have
+     *                          up to pointsPerSeries more)
+     * @param consumer          Receives the bodies, one metric set at a time
+     * @return                  Points handed over
+     */
+    public long flush(int maxPointsPerBody, BodyConsumer consumer) {
+        if (maxPointsPerBody <= 0) throw new IllegalArgumentException("Max points per body must be greater than 0");
+        StringBuilder body = new StringBuilder(Math.min(maxPointsPerBody, 4096) * 64);
+        long flushed = 0;
+        for (Map.Entry<String, Map<String, Integer>> metricSet : ids.entrySet()) {
+            int points = 0;
+            for (Integer seriesId : metricSet.getValue().values()) {
+                if (points == 0) body.setLength(0);
+                points += drain(seriesId, body, points == 0);
+                if (points >= maxPointsPerBody) {
+                    flushed += send(metricSet.getKey(), body, points, consumer);
+                    points = 0;
+                }
+            }
+            if (points > 0) flushed += send(metricSet.getKey(), body, points, consumer);
+        }
+        return flushed;
+    }
+
+    /**
+     * Same as {@link #flush(int, BodyConsumer)}, sending the bodies through
+     * {@link MuService#addMeasurementsWithBody(String, String)}
+     * @param mu                Service used to send measurements
+     * @param maxPointsPerBody  Points after which a request is sent
+     * @return                  Points handed over
+     */
+    public long flush(MuService mu, int maxPointsPerBody) {
+        return flush(maxPointsPerBody, (metricSet, body, points) -> mu.addMeasurementsWithBody(metricSet, body));
+    }
+
+    private long send(String metricSet, StringBuilder body, int points, BodyConsumer consumer) {
+        MuService.endMeasurements(body);
+        pointsFlushed.add(points);
+        try {
+            consumer.accept(metricSet, body.toString(), points);
+        } catch (Exception e) {
+            log.error("There was an error sending {} measurements of metric set {}.", points, metricSet, e);
+            pointsFailed.add(points);
+        }
+        return points;
+    }
+
+    // Series
+
+    private int slot(int seriesId, int index) {
+        return seriesId * pointsPerSeries + (starts[seriesId] + index) % pointsPerSeries;
+    }
+
+    /**
+     * Frees at least one slot of a full series. Only called holding its stripe
+     */
+    private void makeRoom(int seriesId) {
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            starts[seriesId] = (starts[seriesId] + 1) % pointsPerSeries;
+            counts[seriesId]--;
+            pointsOverwritten.increment();
+            return;
+        }
+        // Point ii takes the average of points 2ii and 2ii + 1, and the timestamp of the latest one
+        int merged = 0;
+        for (int ii = 0; ii + 1 < pointsPerSeries; ii += 2) {
+            int first = slot(seriesId, ii);
+            int second = slot(seriesId, ii + 1);
+            int target = slot(seriesId, merged++);
+            values.put(target, (values.get(first) + values.get(second)) / 2);
+            timestamps.put(target, timestamps.get(second));
+        }
+        if (pointsPerSeries % 2 == 1) {
+            int last = slot(seriesId, pointsPerSeries - 1);
+            int target = slot(seriesId, merged++);
+            values.put(target, values.get(last));
+            timestamps.put(target, timestamps.get(last));
+        }
+        pointsDownsampled.add(pointsPerSeries - merged);
+        counts[seriesId] = merged;
+    }
+
+    /**
+     * Writes the points of a series into body and empties the series
+     */
+    private int drain(int seriesId, StringBuilder body, boolean first) {
+        synchronized (stripes[seriesId % STRIPES]) {
+            int count = counts[seriesId];
+            String metricId = seriesMetricIds[seriesId];
+            for (int ii = 0; ii < count; ii++) {
+                int slot = slot(seriesId, ii);
+                MuService.startMeasurement(body, first && ii == 0, timestamps.get(slot));
+                MuService.appendMeasurementValue(body, true, metricId, values.get(slot));
+                MuService.endMeasurement(body);
+            }
+            starts[seriesId] = 0;
+            counts[seriesId] = 0;
+            return count;
+        }
+    }
+}
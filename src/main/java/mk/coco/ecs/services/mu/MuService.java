@@ -9,7 +9,11 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.text.StringEscapeUtils;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestAsync;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/mu/documentation/api/v0
@@ -21,11 +25,12 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class MuService extends SemaasService {
 
-    @Getter private String metrics;
-    @Getter private String metricsSetTypes;
-    @Getter private String metricsSets;
-    @Getter private String addMetrics;
-    @Getter private String addMeasurements;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String metrics;
+    @Getter private volatile String metricsSetTypes;
+    @Getter private volatile String metricsSets;
+    @Getter private volatile String addMetrics;
+    @Getter private volatile String addMeasurements;
 
     // Constructor
 
@@ -69,6 +74,17 @@ public class MuService extends SemaasService {
     private String createMetricSetTypeBody(String id, String metricsSpecName, String metricsSpecPath) {
         return "{\"_id\": \"" + id + "\", \"metricsSpec\":{\"" + metricsSpecName + "\":\"" + metricsSpecPath + "\"}}";
     }
+    private String createMetricSetTypeBody(String id, Map<String, String> metricsSpecs) {
+        StringBuilder body = new StringBuilder("{\"_id\": \"").append(id).append("\", \"metricsSpec\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> spec : metricsSpecs.entrySet()) {
+            if (!first) body.append(',');
+            first = false;
+            body.append('"').append(StringEscapeUtils.escapeJava(spec.getKey())).append("\":\"")
+                    .append(StringEscapeUtils.escapeJava(spec.getValue())).append('"');
+        }
+        return body.append("}}").toString();
+    }
     private String createMetricSetBody(String id, String metricSetType, String monitoredResource) {
         return "{ \"_id\": \"" + id + "\", \"metricSetType\": \"" + metricSetType + "\", \"monitoredResource\": \"" + monitoredResource + "\" }";
     }
@@ -76,6 +92,47 @@ public class MuService extends SemaasService {
         return "{\"metrics\": [{\"timestamp\": " + tsInMillis + " ,\"values\": {\"" + id + "\": " + value + " }}]}";
     }
 
+    // addMeasurements bodies written point by point, straight into a StringBuilder, by the publishers of this package:
+    // startMeasurement, its values, endMeasurement (repeated for every timestamp) and endMeasurements
+
+    /**
+     * Appends a new timestamp, opening the body if it is the first one
+     * @param body              Body being written
+     * @param first             Whether it is the first timestamp of the body
+     * @param tsInMillis        Timestamp in milliseconds
+     */
+    static void startMeasurement(StringBuilder body, boolean first, long tsInMillis) {
+        body.append(first ? "{\"metrics\": [" : ",")
+                .append("{\"timestamp\": ").append(tsInMillis * 1000000).append(" ,\"values\": {");
+    }
+
+    /**
+     * Appends the value of a metric to the current timestamp, the id escaped and the value without a fraction when it
+     * has none
+     * @param body              Body being written
+     * @param first             Whether it is the first value of the timestamp
+     * @param metricId          Id of the metric
+     * @param value             Value, finite
+     */
+    static void appendMeasurementValue(StringBuilder body, boolean first, String metricId, double value) {
+        if (!first) body.append(',');
+        body.append('"').append(StringEscapeUtils.escapeJava(metricId)).append("\": ");
+        long integral = (long) value;
+        if (integral == value && Math.abs(integral) < (1L << 53)) {
+            body.append(integral);
+        } else {
+            body.append(value);
+        }
+    }
+
+    static void endMeasurement(StringBuilder body) {
+        body.append(" }}");
+    }
+
+    static void endMeasurements(StringBuilder body) {
+        body.append("]}");
+    }
+
     public String getMetricsSpecPath(String metricID) {
         return urls.getSlash() + urls.getSlash() + urls.getServiceUrlName() + urls.getDot() + urls.getZone() + urls.getNs()
                 +  urls.getSlash() + urls.getNamespace() + urls.getSlash() + metrics + urls.getSlash() + metricID;
@@ -96,8 +153,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String listMetrics() throws Exception {
-        urls.setServiceOption(metrics);
-        return request(urls.buildCommonServiceURL( ), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metrics).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /***
@@ -107,8 +163,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String getMetric(String id) throws Exception {
-        urls.setServiceOption(metrics);
-        return request(urls.buildCommonServiceURL( urls.getSlash() + id), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metrics).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -121,10 +176,9 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String createMetric(String id, String dataType, String dataUnit, String description) throws Exception {
-        urls.setServiceOption(metrics);
         String escapedDescription = StringEscapeUtils.escapeJava(description);
         String body = createMetricBody(id, dataType.toLowerCase().trim(), dataUnit.toUpperCase().trim(), escapedDescription);
-        return request(urls.buildCommonServiceURL(), body, cred, RestContent.RequestType.POST);
+        return request(urls.commonTemplate(metrics).expand(), body, cred, RestContent.RequestType.POST);
     }
 
     // Metric set type
@@ -140,9 +194,21 @@ public class MuService extends SemaasService {
      * @throws Exception        If connection fails
      */
     public String createMetricSetType(String id, String metricsSpecName, String metricsSpecPath) throws Exception {
-        urls.setServiceOption(metricsSetTypes);
         String body = createMetricSetTypeBody(id, metricsSpecName, metricsSpecPath);
-        return request(urls.buildCommonServiceURL(), body, cred, RestContent.RequestType.POST);
+        return request(urls.commonTemplate(metricsSetTypes).expand(), body, cred, RestContent.RequestType.POST);
+    }
+
+    /**
+     * Creates a new metric set type with several metrics, published together in the measurements of its metric sets
+     * @param id                Id of the new metric set type
+     * @param metricsSpecs      Metric spec paths by metric spec name, must not be empty
+     * @return                  Information of the new metric set type in a JSON format
+     * @throws Exception        If connection fails
+     */
+    public String createMetricSetType(String id, Map<String, String> metricsSpecs) throws Exception {
+        if (metricsSpecs.isEmpty()) throw new IllegalArgumentException("A metric set type needs at least one metric spec");
+        String body = createMetricSetTypeBody(id, metricsSpecs);
+        return request(urls.commonTemplate(metricsSetTypes).expand(), body, cred, RestContent.RequestType.POST);
     }
 
     /**
@@ -152,8 +218,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String getMetricSetType(String id) throws Exception {
-        urls.setServiceOption(metricsSetTypes);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metricsSetTypes).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -163,8 +228,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String deleteMetricSetType(String id) throws Exception {
-        urls.setServiceOption(metricsSetTypes);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RestContent.RequestType.DELETE);
+        return request(urls.commonTemplate(metricsSetTypes).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.DELETE);
     }
 
     /**
@@ -173,8 +237,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String listMetricSetType() throws Exception {
-        urls.setServiceOption(metricsSetTypes);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metricsSetTypes).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     // Metric set
@@ -185,8 +248,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String listMetricSets() throws Exception {
-        urls.setServiceOption(metricsSets);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metricsSets).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -200,9 +262,8 @@ public class MuService extends SemaasService {
      * @throws Exception                  If connection fails
      */
     public String createMetricSet(String id, String metricsSetTypePath, String monitoredResource) throws Exception {
-        urls.setServiceOption(metricsSets);
         String body = createMetricSetBody(id, metricsSetTypePath, monitoredResource);
-        return request(urls.buildCommonServiceURL(), body, cred, RestContent.RequestType.POST);
+        return request(urls.commonTemplate(metricsSets).expand(), body, cred, RestContent.RequestType.POST);
     }
 
     /**
@@ -215,11 +276,43 @@ public class MuService extends SemaasService {
      * @throws Exception        If request fails
      */
     public String addMetric(String metricSet, String metricSetName, long tsInMillis, String value) throws Exception {
-        urls.setServiceOption(metricsSets);
-        urls.setOptionName(metricSet);
-        urls.setAction(addMeasurements);
         String body = createAddMetricBody(metricSetName, tsInMillis * 1000000, value);
-        return request(urls.buildActionDefaultURL(), body, cred, RestContent.RequestType.POST);
+        return addMeasurementsWithBody(metricSet, body);
+    }
+
+    /**
+     * Same as {@link #addMetric(String, String, long, String)}, without blocking the calling thread
+     * @param metricSet         Metric set of choice
+     * @param metricSetName     Id of the metric
+     * @param tsInMillis        Timestamp in milliseconds
+     * @param value             New value
+     * @return                  Future with the response (usually nothing)
+     */
+    public CompletableFuture<String> addMetricAsync(String metricSet, String metricSetName, long tsInMillis, String value) {
+        String body = createAddMetricBody(metricSetName, tsInMillis * 1000000, value);
+        return addMeasurementsWithBodyAsync(metricSet, body);
+    }
+
+    /**
+     * Adds measurements to a metric set with a given body, several timestamps with several values each:
+     * {"metrics": [{"timestamp": ts, "values": {"metricId": value, ...}}, ...]}
+     * @param metricSet         Metric set of choice
+     * @param body              Body of the request (timestamps in nanoseconds)
+     * @return                  Usually nothing
+     * @throws Exception        If request fails
+     */
+    public String addMeasurementsWithBody(String metricSet, String body) throws Exception {
+        return request(urls.actionTemplate(metricsSets, addMeasurements).expand(metricSet), body, cred, RestContent.RequestType.POST);
+    }
+
+    /**
+     * Same as {@link #addMeasurementsWithBody(String, String)}, without blocking the calling thread
+     * @param metricSet         Metric set of choice
+     * @param body              Body of the request (timestamps in nanoseconds)
+     * @return                  Future with the response (usually nothing)
+     */
+    public CompletableFuture<String> addMeasurementsWithBodyAsync(String metricSet, String body) {
+        return requestAsync(urls.actionTemplate(metricsSets, addMeasurements).expand(metricSet), body, cred, RestContent.RequestType.POST);
     }
 
     /**
@@ -228,8 +321,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String listMetricSet() throws Exception {
-        urls.setServiceOption(metricsSets);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metricsSets).expand(), "", cred, RestContent.RequestType.GET);
     }
     /**
      * Get a specific metric set
@@ -238,8 +330,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String getMetricSet(String id) throws Exception {
-        urls.setServiceOption(metricsSets);
-        return request(urls.buildCommonServiceURL(), "", cred, RestContent.RequestType.GET);
+        return request(urls.commonTemplate(metricsSets).expand(), "", cred, RestContent.RequestType.GET);
     }
 
     /**
@@ -249,8 +340,7 @@ public class MuService extends SemaasService {
      * @throws Exception    If connection fails
      */
     public String deleteMetricSet(String id) throws Exception {
-        urls.setServiceOption(metricsSets);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RestContent.RequestType.DELETE);
+        return request(urls.commonTemplate(metricsSets).expand(urls.getSlash(), id), "", cred, RestContent.RequestType.DELETE);
     }
 
     // Unification
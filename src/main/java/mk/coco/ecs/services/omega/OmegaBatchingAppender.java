@@ -0,0 +1,542 @@
+package mk.coco.ecs.services.omega;
+
+import mk.coco.ecs.restcontent.HttpStatusException;
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+import mk.coco.ecs.services.omega.OmegaSpillBuffer.SpilledEntry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends logs to Omega in batches: {@link #append(OmegaLogEntry)} only renders the entry and enqueues it, and a
+ * background thread sends queued entries as multi-entry arrays through
+ * {@link OmegaService#appendLogsWithBody(String, String)} (one request per monitored resource in the batch).
+ *
+ * A batch is sent as soon as it reaches {@link #getMaxBatchEntries()} entries or {@link #getMaxBatchBytes()} chars
+ * of JSON, or when its oldest entry has waited {@link #getLingerMillis()}. The queue holds at most
+ * {@link #getCapacity()} entries, when it is full new entries are dropped or the caller waits, as set by
+ * {@link #setOverflowPolicy(OverflowPolicy)}. Appending never takes a lock.
+ *
+ * {@link #close()} stops accepting entries and sends every queued one before returning (or until
+ * {@link #getCloseTimeoutMillis()} elapses).
+ *
+ * With a {@link OmegaSpillBuffer} set, entries that don't fit in the queue and batches that fail are written to disk
+ * instead of being lost. While there are entries on disk, new batches are written after them, and the background
+ * thread replays them in order, waiting longer after each failure (up to 30 seconds) until Omega takes them again.
+ * Entries that don't fit in the queue are spilled right away, so they may be sent before older entries that were
+ * still in the queue. A batch Omega rejects for what it is (a 4xx other than 408, 425 or 429, i.e. a malformed entry
+ * or an unknown monitored resource) is never retried nor spilled, and neither is a spilled batch that failed
+ * {@link #getMaxReplayAttempts()} times in a row: its entries count as failed, so one bad entry can't hold back the
+ * ones after it.
+ *
+ * With a {@link OmegaLogPolicy} set, entries it holds back or limits are not queued, and the background thread sends
+ * the summaries of its dedup windows as they end.
+ */
+@Slf4j
+public class OmegaBatchingAppender implements Closeable {
+
+    public enum OverflowPolicy {
+        DROP,       // New entries are dropped while the queue is full
+        BLOCK       // Callers wait for room in the queue (or until the appender is closed)
+    }
+
+    private static final AtomicInteger appenderCount = new AtomicInteger();
+    // How long a blocked caller sleeps before checking again for room in the queue
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    // Wait before replaying spilled entries after a failure, doubled after each one
+    private static final long MIN_REPLAY_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_REPLAY_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Getter private final OmegaService omega;
+    @Getter private final int capacity;
+    @Getter private volatile int maxBatchEntries = 500;
+    @Getter private volatile int maxBatchBytes = 1024 * 1024;
+    @Getter private volatile long lingerMillis = 1000;
+    @Getter private volatile long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+    @Getter private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    @Getter private volatile OmegaSpillBuffer spillBuffer;
+    @Getter private volatile OmegaLogPolicy policy;
+    @Getter private volatile int maxReplayAttempts = 20;
+
+    // Counters
+    private final LongAdder entriesSent = new LongAdder();
+    private final LongAdder entriesDropped = new LongAdder();
+    private final LongAdder entriesFailed = new LongAdder();
+    private final LongAdder entriesSpilled = new LongAdder();
+    private final LongAdder entriesFiltered = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    // The queue does not know its size in constant time, so it is counted apart
+    private final AtomicInteger queuedEntries = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final Thread flusher;
+    private volatile boolean closed;
+    // Only used by the thread holding sendLock
+    private long nextReplayAt;
+    private long replayBackoffMillis;
+    private int replayAttempts;         // Failed attempts to replay the oldest spilled batch
+    // Only used by the flusher
+    private long nextSummariesAt;
+
+    /**
+     * Returns a new OmegaBatchingAppender holding up to 10000 entries
+     *
+     * @param omega             Service used to send logs
+     */
+    public OmegaBatchingAppender(OmegaService omega) {
+        this(omega, 10000);
+    }
+
+    /**
+     * Returns a new OmegaBatchingAppender
+     *
+     * @param omega             Service used to send logs
+     * @param capacity          Max number of entries waiting to be sent
+     */
+    public OmegaBatchingAppender(OmegaService omega, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be greater than 0");
+        this.omega = omega;
+        this.capacity = capacity;
+        flusher = new Thread(this::flushLoop, "mk-ecs-omega-appender-" + appenderCount.incrementAndGet());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Setters
+
+    /**
+     * Sets the number of entries that makes a batch be sent right away
+     * @param maxBatchEntries   Max entries per batch, must be greater than 0
+     */
+    public void setMaxBatchEntries(int maxBatchEntries) {
+        if (maxBatchEntries <= 0) throw new IllegalArgumentException("Max batch entries must be greater than 0");
+        this.maxBatchEntries = maxBatchEntries;
+    }
+
+    /**
+     * Sets the size of JSON (in chars) that makes a batch be sent right away
+     * @param maxBatchBytes     Max size per batch, must be greater than 0
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        if (maxBatchBytes <= 0) throw new IllegalArgumentException("Max batch bytes must be greater than 0");
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Sets how long an entry may wait for its batch to fill up
+     * @param linger            Linger time, must be greater than 0
+     * @param unit              Unit of linger
+     */
+    public void setLinger(long linger, TimeUnit unit) {
+        if (linger <= 0) throw new IllegalArgumentException("Linger must be greater than 0");
+        this.lingerMillis = unit.toMillis(linger);
+    }
+
+    /**
+     * Sets how long {@link #close()} waits for queued entries to be sent
+     * @param timeout           Timeout, 0 or greater
+     * @param unit              Unit of timeout
+     */
+    public void setCloseTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("Close timeout can't be negative");
+        this.closeTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) throw new IllegalArgumentException("Overflow policy can't be null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets where entries are kept while Omega can't take them, it is not closed by this appender. With a spill
+     * buffer, entries that don't fit in the queue are written to disk whatever the overflow policy
+     * @param spillBuffer       Spill buffer, null to drop those entries
+     */
+    public void setSpillBuffer(OmegaSpillBuffer spillBuffer) {
+        this.spillBuffer = spillBuffer;
+        LockSupport.unpark(flusher);
+    }
+
+    /**
+     * Sets which entries are sent, it is asked by every call to append
+     * @param policy            Policy, null to send every entry
+     */
+    public void setPolicy(OmegaLogPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Sets how many times in a row the oldest spilled batch is tried before its entries are counted as failed
+     * @param maxReplayAttempts Max attempts, 0 to retry until Omega takes it
+     */
+    public void setMaxReplayAttempts(int maxReplayAttempts) {
+        if (maxReplayAttempts < 0) throw new IllegalArgumentException("Max replay attempts can't be negative");
+        this.maxReplayAttempts = maxReplayAttempts;
+    }
+
+    // Counters
+
+    public long getEntriesSent() {return entriesSent.sum();}        // Entries accepted by Omega
+    public long getEntriesDropped() {return entriesDropped.sum();}  // Entries never sent as the queue was full or the appender closed
+    public long getEntriesFailed() {return entriesFailed.sum();}    // Entries in batches rejected by Omega, or whose request failed and could not be spilled
+    public long getEntriesSpilled() {return entriesSpilled.sum();}  // Entries written to the spill buffer
+    public long getEntriesFiltered() {return entriesFiltered.sum();}// Entries held back or limited by the policy
+    public long getBatchesSent() {return batchesSent.sum();}        // Requests made to Omega
+    public int getQueuedEntries() {return queuedEntries.get();}     // Entries waiting to be sent
+
+    // Usage
+
+    /**
+     * Queues a log to be sent in the next batch
+     * @param mrId                      Monitored Resource ID to append logs to
+     * @param jobName                   Job name (null if not needed)
+     * @param level                     Log level
+     * @param message                   My log message
+     * @param creationDateInMillis      Log creation date in milliseconds
+     * @return                          False if the log was dropped
+     */
+    public boolean append(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInMillis) {
+        return append(new OmegaLogEntry(mrId, jobName, level, message, creationDateInMillis));
+    }
+
+    /**
+     * Queues a log to be sent in the next batch
+     * @param entry             Log to send
+     * @return                  False if the log was dropped (queue full with policy DROP and no spill buffer, held
+     *                          back by the log policy, or appender closed)
+     */
+    public boolean append(OmegaLogEntry entry) {
+        return append(entry, null);
+    }
+
+    /**
+     * Queues a log to be sent in the next batch, with the stack trace of "throwable" after its message
+     * @param entry             Log to send
+     * @param throwable         Throwable of the log, written by {@link OmegaService#getThrowableEncoder()} (null if not
+     *                          needed)
+     * @return                  False if the log was dropped, see {@link #append(OmegaLogEntry)}
+     */
+    public boolean append(OmegaLogEntry entry, Throwable throwable) {
+        OmegaLogPolicy logPolicy = policy;
+        if (logPolicy != null && !closed && !logPolicy.admit(entry)) {
+            entriesFiltered.increment();
+            return false;
+        }
+        // Rendered by the caller, so the flusher only has to join entries
+        String json = throwable == null
+                ? entry.toJson()
+                : entry.appendJson(new StringBuilder(1024), throwable, omega.getThrowableEncoder()).toString();
+        return enqueue(entry.getMrId(), json);
+    }
+
+    private boolean enqueue(String mrId, String json) {
+        if (closed || !reserve()) {
+            if (!closed && spill(mrId, json)) return true;
+            entriesDropped.increment();
+            return false;
+        }
+        // Closed since the check above: the last flush only waits for entries reserved before closing, so this one
+        // would be left in the queue
+        if (closed) {
+            queuedEntries.decrementAndGet();
+            entriesDropped.increment();
+            return false;
+        }
+        queue.offer(new Pending(mrId, json, System.currentTimeMillis()));
+        long bytes = queuedBytes.addAndGet(json.length());
+        if (queuedEntries.get() >= maxBatchEntries || bytes >= maxBatchBytes) LockSupport.unpark(flusher);
+        return true;
+    }
+
+    /**
+     * Sends every queued entry (or spills it, if there are entries on disk waiting to be replayed), blocking until
+     * done
+     */
+    public void flush() {
+        sendLock.lock();
+        try {
+            while (queuedEntries.get() > 0) {
+                // Counted but not queued yet, the appending thread is about to offer it
+                if (sendBatch() == 0) Thread.yield();
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting entries and sends the queued ones, waiting up to {@link #getCloseTimeoutMillis()}
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(closeTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("Omega appender closed with {} entries not sent.", queuedEntries.get());
+            return;
+        }
+        // Entries queued after the last flush of the flusher, by threads that saw it open
+        flush();
+    }
+
+    // Queue
+
+    /**
+     * Queues a summary of the log policy, even over capacity: they are few, and the flusher can't wait for room
+     */
+    private void enqueueSummary(OmegaLogEntry entry) {
+        String json = entry.toJson();
+        queuedEntries.incrementAndGet();
+        queue.offer(new Pending(entry.getMrId(), json, System.currentTimeMillis()));
+        queuedBytes.addAndGet(json.length());
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int queued = queuedEntries.get();
+            if (queued < capacity) {
+                if (queuedEntries.compareAndSet(queued, queued + 1)) return true;
+            } else if (overflowPolicy == OverflowPolicy.DROP || closed || spillBuffer != null) {
+                return false;
+            } else {
+                LockSupport.unpark(flusher);
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                if (Thread.currentThread().isInterrupted()) return false;
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            if (hasBacklog() && now >= nextReplayAt) {
+                replayLocked();
+                continue;
+            }
+
+            Pending oldest = queue.peek();
+            long wait = lingerMillis;
+            if (oldest != null) {
+                if (queuedEntries.get() >= maxBatchEntries || queuedBytes.get() >= maxBatchBytes
+                        || now - oldest.enqueuedAt >= lingerMillis) {
+                    sendLocked();
+                    continue;
+                }
+                wait = lingerMillis - (now - oldest.enqueuedAt);
+            }
+            if (hasBacklog()) wait = Math.min(wait, nextReplayAt - now);
+            OmegaLogPolicy logPolicy = policy;
+            if (logPolicy != null) {
+                if (now >= nextSummariesAt) {
+                    logPolicy.drainSummaries(false, this::enqueueSummary);
+                    nextSummariesAt = now + Math.max(lingerMillis, logPolicy.getDedupWindowMillis() / 2);
+                    continue;
+                }
+                wait = Math.min(wait, nextSummariesAt - now);
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(Math.max(1, wait)));
+        }
+        // Entries appended right before closing are still sent, so are the logs held back by the policy
+        OmegaLogPolicy logPolicy = policy;
+        if (logPolicy != null) logPolicy.drainSummaries(true, this::enqueueSummary);
+        flush();
+        log.debug("Omega appender closed: {} entries sent in {} batches, {} dropped, {} failed, {} spilled.",
+                getEntriesSent(), getBatchesSent(), getEntriesDropped(), getEntriesFailed(), getEntriesSpilled());
+    }
+
+    private void sendLocked() {
+        sendLock.lock();
+        try {
+            sendBatch();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void replayLocked() {
+        sendLock.lock();
+        try {
+            replay();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends up to a batch of queued entries, grouped by monitored resource. Only called holding sendLock
+     * @return                  Number of entries taken from the queue
+     */
+    private int sendBatch() {
+        Map<String, List<String>> byMrId = new LinkedHashMap<>();
+        int entries = 0;
+        long bytes = 0;
+        int maxEntries = maxBatchEntries;
+        int maxBytes = maxBatchBytes;
+
+        Pending pending;
+        while (entries < maxEntries && (pending = queue.peek()) != null) {
+            if (entries > 0 && bytes + pending.json.length() > maxBytes) break;
+            queue.poll();
+            byMrId.computeIfAbsent(pending.mrId, key -> new ArrayList<>()).add(pending.json);
+            entries++;
+            bytes += pending.json.length();
+        }
+        queuedEntries.addAndGet(-entries);
+        queuedBytes.addAndGet(-bytes);
+
+        for (Map.Entry<String, List<String>> batch : byMrId.entrySet()) {
+            send(batch.getKey(), batch.getValue());
+        }
+        return entries;
+    }
+
+    private void send(String mrId, List<String> jsons) {
+        // Entries waiting on disk go first, these are written after them
+        if (hasBacklog()) {
+            spillAll(mrId, jsons);
+            return;
+        }
+        try {
+            post(mrId, jsons);
+            entriesSent.add(jsons.size());
+        } catch (Exception e) {
+            log.error("There was an error sending {} logs of monitored resource {} to Omega.", jsons.size(), mrId, e);
+            if (spillBuffer == null || isPermanent(e)) {
+                entriesFailed.add(jsons.size());
+            } else {
+                backOff();
+                spillAll(mrId, jsons);
+            }
+        }
+    }
+
+    /**
+     * Sends the oldest spilled entries of the same monitored resource, so they are sent in the order they were
+     * spilled. Only called holding sendLock
+     */
+    private void replay() {
+        OmegaSpillBuffer spill = spillBuffer;
+        List<SpilledEntry> spilled = spill.peek(maxBatchEntries, maxBatchBytes);
+        if (spilled.isEmpty()) return;
+
+        String mrId = spilled.get(0).getMrId();
+        List<String> jsons = new ArrayList<>(spilled.size());
+        for (SpilledEntry entry : spilled) {
+            if (!entry.getMrId().equals(mrId)) break;
+            jsons.add(entry.getJson());
+        }
+        try {
+            post(mrId, jsons);
+            entriesSent.add(jsons.size());
+        } catch (Exception e) {
+            int maxAttempts = maxReplayAttempts;
+            if (!isPermanent(e) && (maxAttempts == 0 || ++replayAttempts < maxAttempts)) {
+                backOff();
+                log.warn("There was an error replaying {} spilled logs of monitored resource {}, retrying in {} ms.",
+                        jsons.size(), mrId, replayBackoffMillis, e);
+                return;
+            }
+            log.error("Giving up {} spilled logs of monitored resource {} after {} attempts.",
+                    jsons.size(), mrId, replayAttempts + (isPermanent(e) ? 1 : 0), e);
+            entriesFailed.add(jsons.size());
+        }
+        // Sent or given up, the next batch is tried right away
+        spill.commit(spilled.get(jsons.size() - 1));
+        replayAttempts = 0;
+        replayBackoffMillis = 0;
+        nextReplayAt = 0;
+    }
+
+    /**
+     * Returns whether Omega rejected a request for what it is, so sending it again would fail the same way
+     */
+    private static boolean isPermanent(Exception e) {
+        return e instanceof HttpStatusException && !((HttpStatusException) e).isRetryable();
+    }
+
+    private void post(String mrId, List<String> jsons) throws Exception {
+        int length = 2;
+        for (String json : jsons) {
+            length += json.length() + 1;
+        }
+        StringBuilder body = new StringBuilder(length).append('[');
+        for (int ii = 0; ii < jsons.size(); ii++) {
+            if (ii > 0) body.append(',');
+            body.append(jsons.get(ii));
+        }
+        body.append(']');
+
+        batchesSent.increment();
+        omega.appendLogsWithBody(mrId, body.toString());
+    }
+
+    // Spill
+
+    private boolean hasBacklog() {
+        OmegaSpillBuffer spill = spillBuffer;
+        return spill != null && !spill.isEmpty();
+    }
+
+    private void backOff() {
+        replayBackoffMillis = Math.min(MAX_REPLAY_BACKOFF_MILLIS, Math.max(MIN_REPLAY_BACKOFF_MILLIS, replayBackoffMillis * 2));
+        nextReplayAt = System.currentTimeMillis() + replayBackoffMillis;
+    }
+
+    private void spillAll(String mrId, List<String> jsons) {
+        for (String json : jsons) {
+            if (!spill(mrId, json)) entriesFailed.increment();
+        }
+    }
+
+    private boolean spill(String mrId, String json) {
+        OmegaSpillBuffer spill = spillBuffer;
+        if (spill == null) return false;
+        try {
+            if (spill.write(mrId, json)) {
+                entriesSpilled.increment();
+                return true;
+            }
+        } catch (IOException e) {
+            log.error("There was an error spilling a log of monitored resource {} to {}.", mrId, spill.getDirectory(), e);
+        }
+        return false;
+    }
+
+    /**
+     * A rendered entry waiting in the queue
+     */
+    private static final class Pending {
+        private final String mrId;
+        private final String json;
+        private final long enqueuedAt;
+
+        private Pending(String mrId, String json, long enqueuedAt) {
+            this.mrId = mrId;
+            this.json = json;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
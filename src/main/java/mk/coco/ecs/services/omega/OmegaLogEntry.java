@@ -0,0 +1,118 @@
+package mk.coco.ecs.services.omega;
+
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import lombok.Getter;
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * A log line of a monitored resource, as sent in the JSON array appended by
+ * {@link OmegaService#appendLogsWithBody(String, String)}
+ */
+public class OmegaLogEntry {
+
+    @Getter private final String mrId;
+    @Getter private final String jobName;
+    @Getter private final Map<String, String> properties;
+    @Getter private final OmegaLogLevel level;
+    @Getter private final String message;
+    @Getter private final long creationDateInMillis;
+
+    /**
+     * Returns a new OmegaLogEntry
+     *
+     * @param mrId                      Monitored Resource ID the log belongs to
+     * @param jobName                   Job name (null if not needed)
+     * @param level                     Log level
+     * @param message                   My log message
+     * @param creationDateInMillis      Log creation date in milliseconds
+     */
+    public OmegaLogEntry(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInMillis) {
+        this(mrId, jobName, Collections.emptyMap(), level, message, creationDateInMillis);
+    }
+
+    /**
+     * Returns a new OmegaLogEntry
+     *
+     * @param mrId                      Monitored Resource ID the log belongs to
+     * @param jobName                   Job name (null if not needed)
+     * @param properties                Other properties sent next to jobName (i.e. MDC of the log)
+     * @param level                     Log level
+     * @param message                   My log message
+     * @param creationDateInMillis      Log creation date in milliseconds
+     */
+    public OmegaLogEntry(String mrId, String jobName, Map<String, String> properties, OmegaLogLevel level, String message,
+                         long creationDateInMillis) {
+        this.mrId = mrId;
+        this.jobName = jobName;
+        this.properties = properties.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(withoutNullValues(properties));
+        this.level = level;
+        this.message = message;
+        this.creationDateInMillis = creationDateInMillis;
+    }
+
+    // A property without value would be rendered as "null"
+    private static Map<String, String> withoutNullValues(Map<String, String> properties) {
+        Map<String, String> copy = new LinkedHashMap<>(properties);
+        copy.values().removeIf(Objects::isNull);
+        return copy;
+    }
+
+    /**
+     * Returns the JSON object of this entry
+     *
+     * @return                  JSON object, to be sent inside an array
+     */
+    public String toJson() {
+        return appendJson(new StringBuilder(128 + message.length())).toString();
+    }
+
+    /**
+     * Writes the JSON object of this entry at the end of "builder"
+     *
+     * @param builder           Where JSON is written
+     * @return                  The same builder
+     */
+    public StringBuilder appendJson(StringBuilder builder) {
+        return appendJson(builder, null, null);
+    }
+
+    /**
+     * Writes the JSON object of this entry at the end of "builder", with the stack trace of "throwable" after message
+     *
+     * @param builder           Where JSON is written
+     * @param throwable         Throwable of the log (null if not needed)
+     * @param encoder           Writes the stack trace of throwable
+     * @return                  The same builder
+     */
+    public StringBuilder appendJson(StringBuilder builder, Throwable throwable, ThrowableEncoder encoder) {
+        builder.append("{\"mrId\": \"").append(mrId).append('"');
+        if (jobName != null || !properties.isEmpty()) {
+            builder.append(", \"properties\": {");
+            boolean first = true;
+            if (jobName != null) {
+                builder.append("\"jobName\": \"").append(StringEscapeUtils.escapeJava(jobName)).append('"');
+                first = false;
+            }
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                if (!first) builder.append(", ");
+                builder.append('"').append(StringEscapeUtils.escapeJava(property.getKey())).append("\": \"")
+                        .append(StringEscapeUtils.escapeJava(property.getValue())).append('"');
+                first = false;
+            }
+            builder.append('}');
+        }
+        builder.append(", \"level\": \"").append(level)
+                .append("\", \"message\" : \"").append(StringEscapeUtils.escapeJava(message));
+        if (throwable != null) encoder.encode(builder, throwable);
+        return builder.append("\", \"creationDate\": ").append(creationDateInMillis * 1000000).append(" }");
+    }
+
+}
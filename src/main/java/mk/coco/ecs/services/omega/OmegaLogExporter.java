@@ -0,0 +1,368 @@
+package mk.coco.ecs.services.omega;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports the logs of several monitored resources in a time range to gzip'ed NDJSON files (one JSON log per line),
+ * {@code <mrId>.ndjson.gz} in the output directory, optionally merged by creationDate into {@link #MERGED_FILE}. The
+ * mrId is url-encoded in file names, so ids with "/" or "\" can't write out of the directory.
+ *
+ * Monitored resources are exported concurrently by up to {@link #getThreads()} workers. Each worker streams the logs
+ * it reads straight to its file, so no page is ever held in memory. Every page is written as its own gzip member and
+ * followed by a checkpoint ({@code <mrId>.ndjson.gz.checkpoint}) with the position in the file and the key of the next
+ * page: exporting again to the same directory with the same range skips the monitored resources already exported
+ * and resumes the rest from their last page.
+ *
+ * Merging expects each monitored resource to be read in creationDate order, see {@link #setSort(String)}.
+ */
+@Slf4j
+public class OmegaLogExporter {
+
+    public static final String MERGED_FILE = "merged.ndjson.gz";
+    private static final String FILE_SUFFIX = ".ndjson.gz";
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Receives the progress of an export, from the worker threads
+     */
+    public interface ProgressListener {
+        /**
+         * @param mrId          Monitored Resource ID
+         * @param pages         Pages exported so far
+         * @param entries       Logs exported so far
+         * @param finished      True once every log of the monitored resource has been exported
+         */
+        void progress(String mrId, int pages, long entries, boolean finished);
+    }
+
+    @Getter private final OmegaService omega;
+    @Getter private final Path directory;
+    @Getter private volatile int threads = 4;
+    @Getter private volatile int pageSize = 1000;
+    @Getter private volatile String sort = "creationDate";
+    @Getter private volatile String rangeQueryFormat = "creationDate >= %d and creationDate < %d";
+    @Getter private volatile boolean merged;
+    @Getter private volatile ProgressListener progressListener;
+
+    /**
+     * Returns a new OmegaLogExporter
+     *
+     * @param omega             Service used to read logs
+     * @param directory         Output directory, created if missing
+     */
+    public OmegaLogExporter(OmegaService omega, Path directory) {
+        this.omega = omega;
+        this.directory = directory;
+    }
+
+    // Setters
+
+    public void setThreads(int threads) {
+        if (threads <= 0) throw new IllegalArgumentException("Threads must be greater than 0");
+        this.threads = threads;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be greater than 0");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets the sort param of each request
+     * @param sort              Sort putting logs in creationDate order, null to use Omega's default
+     */
+    public void setSort(String sort) {
+        this.sort = sort;
+    }
+
+    /**
+     * Sets the query requesting only the logs in the range, logs out of it are also skipped here
+     * @param rangeQueryFormat  Format with two %d, replaced by the start (included) and end (excluded) of the range in
+     *                          nanoseconds. Null to request every log
+     */
+    public void setRangeQueryFormat(String rangeQueryFormat) {
+        this.rangeQueryFormat = rangeQueryFormat;
+    }
+
+    /**
+     * Sets whether files of every monitored resource are merged by creationDate into {@link #MERGED_FILE}
+     * @param merged            True to merge files
+     */
+    public void setMerged(boolean merged) {
+        this.merged = merged;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    // Usage
+
+    /**
+     * Exports logs, resuming a previous export with the same range in the same directory
+     * @param mrIds             Monitored Resource IDs to export
+     * @param fromMillis        Start of the range (included), in milliseconds
+     * @param toMillis          End of the range (excluded), in milliseconds
+     * @return                  Files written, one per monitored resource, or only the merged one
+     * @throws Exception        If some monitored resource could not be exported (the rest are exported anyway, and
+     *                          the failed ones are resumed by the next export)
+     */
+    public List<Path> export(List<String> mrIds, long fromMillis, long toMillis) throws Exception {
+        if (fromMillis >= toMillis) throw new IllegalArgumentException("Range must start before it ends");
+        Files.createDirectories(directory);
+
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, mrIds.size())), runnable -> {
+            Thread thread = new Thread(runnable, "mk-ecs-omega-export-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<Path>> exports = new ArrayList<>();
+        try {
+            for (String mrId : mrIds) {
+                Callable<Path> export = () -> export(mrId, fromMillis * 1000000, toMillis * 1000000);
+                exports.add(workers.submit(export));
+            }
+
+            List<Path> files = new ArrayList<>();
+            Exception failure = null;
+            for (int ii = 0; ii < exports.size(); ii++) {
+                try {
+                    files.add(exports.get(ii).get());
+                } catch (ExecutionException e) {
+                    log.error("There was an error exporting logs of {}.", mrIds.get(ii), e.getCause());
+                    if (failure == null) failure = new Exception("Could not export logs of every monitored resource");
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+            if (failure != null) throw failure;
+
+            if (!merged) return files;
+            Path mergedFile = directory.resolve(MERGED_FILE);
+            merge(files, mergedFile);
+            List<Path> result = new ArrayList<>();
+            result.add(mergedFile);
+            return result;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // Export of a monitored resource
+
+    private Path export(String mrId, long from, long to) throws Exception {
+        Path file = directory.resolve(URLEncoder.encode(mrId, StandardCharsets.UTF_8.name()) + FILE_SUFFIX);
+        Path checkpointFile = file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+        Checkpoint checkpoint = Checkpoint.read(checkpointFile, from, to);
+        if (checkpoint.done) {
+            log.debug("Logs of {} already exported to {}.", mrId, file);
+            return file;
+        }
+
+        String query = (rangeQueryFormat == null) ? null : String.format(rangeQueryFormat, from, to);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Anything after the checkpoint belongs to a page that was not completed
+            channel.truncate(checkpoint.position);
+            channel.position(checkpoint.position);
+            while (!checkpoint.done) {
+                PageCount count = new PageCount();
+                String params = OmegaLogPages.buildParams(query, sort, pageSize, checkpoint.paginationKey);
+                String nextKey;
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new ChannelOutputStream(channel), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                    nextKey = omega.readLogs(mrId, params, body -> OmegaLogPages.read(body, json -> {
+                        count.read++;
+                        long creationDate = OmegaLogPages.readCreationDate(json);
+                        if (creationDate >= from && creationDate < to) {
+                            writer.write(json);
+                            writer.write('\n');
+                            count.written++;
+                        }
+                        return true;
+                    }));
+                }
+                channel.force(false);
+
+                checkpoint.position = channel.position();
+                checkpoint.paginationKey = nextKey;
+                checkpoint.pages++;
+                checkpoint.entries += count.written;
+                checkpoint.done = nextKey == null || count.read == 0;
+                checkpoint.write(checkpointFile);
+                ProgressListener listener = progressListener;
+                if (listener != null) listener.progress(mrId, checkpoint.pages, checkpoint.entries, checkpoint.done);
+            }
+        }
+        log.debug("Exported {} logs of {} to {}.", checkpoint.entries, mrId, file);
+        return file;
+    }
+
+    // Merge
+
+    private static void merge(List<Path> files, Path mergedFile) throws IOException {
+        Path temporary = mergedFile.resolveSibling(mergedFile.getFileName() + ".tmp");
+        List<BufferedReader> readers = new ArrayList<>();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                Files.newOutputStream(temporary), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            PriorityQueue<Head> heads = new PriorityQueue<>(
+                    Comparator.comparingLong((Head head) -> head.creationDate).thenComparingInt(head -> head.index));
+            for (Path file : files) {
+                // GZIPInputStream reads every member of the file, one per page
+                InputStream input = new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_SIZE);
+                readers.add(reader);
+                Head head = new Head(readers.size() - 1, reader);
+                if (head.advance()) heads.add(head);
+            }
+            Head head;
+            while ((head = heads.poll()) != null) {
+                writer.write(head.line);
+                writer.write('\n');
+                if (head.advance()) heads.add(head);
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        Files.move(temporary, mergedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Next line of a file being merged
+     */
+    private static final class Head {
+        private final int index;
+        private final BufferedReader reader;
+        private String line;
+        private long creationDate;
+
+        private Head(int index, BufferedReader reader) {
+            this.index = index;
+            this.reader = reader;
+        }
+
+        private boolean advance() throws IOException {
+            line = reader.readLine();
+            if (line == null) return false;
+            creationDate = OmegaLogPages.readCreationDate(line);
+            return true;
+        }
+    }
+
+    /**
+     * Logs read and written in a page
+     */
+    private static final class PageCount {
+        private int read;
+        private int written;
+    }
+
+    /**
+     * Writes to a channel without closing it, so each page can be a complete gzip member
+     */
+    private static final class ChannelOutputStream extends FilterOutputStream {
+        private ChannelOutputStream(FileChannel channel) {
+            super(Channels.newOutputStream(channel));
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * How far the export of a monitored resource went
+     */
+    private static final class Checkpoint {
+        private final long from;
+        private final long to;
+        private long position;
+        private String paginationKey;
+        private int pages;
+        private long entries;
+        private boolean done;
+
+        private Checkpoint(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private static Checkpoint read(Path file, long from, long to) throws IOException {
+            Checkpoint checkpoint = new Checkpoint(from, to);
+            if (!Files.exists(file)) return checkpoint;
+
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            }
+            // A checkpoint of another range is not resumed
+            if (Long.parseLong(properties.getProperty("from")) != from || Long.parseLong(properties.getProperty("to")) != to) {
+                return checkpoint;
+            }
+            checkpoint.position = Long.parseLong(properties.getProperty("position"));
+            checkpoint.paginationKey = properties.getProperty("paginationKey");
+            checkpoint.pages = Integer.parseInt(properties.getProperty("pages"));
+            checkpoint.entries = Long.parseLong(properties.getProperty("entries"));
+            checkpoint.done = Boolean.parseBoolean(properties.getProperty("done"));
+            return checkpoint;
+        }
+
+        private void write(Path file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("from", Long.toString(from));
+            properties.setProperty("to", Long.toString(to));
+            properties.setProperty("position", Long.toString(position));
+            if (paginationKey != null) properties.setProperty("paginationKey", paginationKey);
+            properties.setProperty("pages", Integer.toString(pages));
+            properties.setProperty("entries", Long.toString(entries));
+            properties.setProperty("done", Boolean.toString(done));
+
+            // Written apart and moved, so a crash never leaves half a checkpoint
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                properties.store(output, null);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package mk.coco.ecs.services.omega;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Follows the logs of a monitored resource ("tail -f"): polls Omega and hands every new log to a consumer, once.
+ *
+ * Only logs created after the last one seen are requested (see {@link #setSinceQueryFormat(String)}), and they are
+ * also filtered here, so logs sharing the creationDate of the last one seen are not delivered twice. A poll follows
+ * every page, unless pages are known to come newest first ({@link #setNewestFirst(boolean)}), in which case it stops at
+ * the first page without new logs.
+ *
+ * Logs are delivered page by page, each page in creationDate order, so a poll holds one page at a time. Logs are in
+ * creationDate order across pages as long as Omega returns them oldest first. A poll delivers up to
+ * {@link #getMaxEntriesPerPoll()} logs, the next one goes on from the last one delivered.
+ *
+ * Polls are adaptive: right after a poll brings logs the next one comes after {@link #getMinIntervalMillis()}, and
+ * each idle or failed poll doubles the wait, up to {@link #getMaxIntervalMillis()}.
+ *
+ * Every follower shares one small scheduler, a follower never polls twice at the same time, and the consumer is
+ * called from the scheduler threads, so it should not block for long.
+ */
+@Slf4j
+public class OmegaLogFollower implements Closeable {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-omega-follow-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Comparator<NewEntry> BY_CREATION_DATE = Comparator.comparingLong(entry -> entry.creationDate);
+
+    @Getter private final String mrId;
+    @Getter private final String query;
+    @Getter private volatile int pageSize = 500;
+    @Getter private volatile long minIntervalMillis = 500;
+    @Getter private volatile long maxIntervalMillis = TimeUnit.SECONDS.toMillis(30);
+    @Getter private volatile String sinceQueryFormat = "creationDate >= %d";
+    @Getter private volatile boolean newestFirst;
+    @Getter private volatile int maxEntriesPerPoll = 10000;
+
+    // State, only used by the poll being run
+    @Getter private volatile long lastCreationDate;
+    @Getter private volatile long intervalMillis;
+    @Getter private volatile long polls;
+    @Getter private volatile long entriesDelivered;
+
+    private final OmegaService omega;
+    private final Consumer<String> consumer;
+    // Logs with creationDate == lastCreationDate already delivered
+    private final Set<String> boundary = new HashSet<>();
+    private volatile boolean closed;
+
+    OmegaLogFollower(OmegaService omega, String mrId, String query, long sinceMillis, Consumer<String> consumer) {
+        this.omega = omega;
+        this.mrId = mrId;
+        this.query = query;
+        this.consumer = consumer;
+        this.lastCreationDate = sinceMillis * 1000000;
+        this.intervalMillis = minIntervalMillis;
+        scheduler.execute(this::poll);
+    }
+
+    // Setters
+
+    /**
+     * Sets the wait between polls
+     * @param min               Wait after a poll that brought logs, greater than 0
+     * @param max               Max wait after idle polls, not lower than min
+     * @param unit              Unit of min and max
+     */
+    public void setPollIntervals(long min, long max, TimeUnit unit) {
+        if (min <= 0 || max < min) throw new IllegalArgumentException("Poll intervals must be 0 < min <= max");
+        this.minIntervalMillis = unit.toMillis(min);
+        this.maxIntervalMillis = unit.toMillis(max);
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be greater than 0");
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets whether Omega returns the pages of the query newest first, so a poll can stop at the first page without
+     * new logs instead of following every page
+     * @param newestFirst       True only if the query sorts logs by creationDate, descending
+     */
+    public void setNewestFirst(boolean newestFirst) {
+        this.newestFirst = newestFirst;
+    }
+
+    /**
+     * Sets the max logs delivered by a poll. With pages newest first, the older logs of a poll that reaches it are
+     * never delivered
+     * @param maxEntriesPerPoll Max logs, greater than 0
+     */
+    public void setMaxEntriesPerPoll(int maxEntriesPerPoll) {
+        if (maxEntriesPerPoll <= 0) throw new IllegalArgumentException("Max entries per poll must be greater than 0");
+        this.maxEntriesPerPoll = maxEntriesPerPoll;
+    }
+
+    /**
+     * Sets the condition added to the query so only logs since the last one seen are requested
+     * @param sinceQueryFormat  Format with a single %d, replaced by the last creationDate seen (in nanoseconds). Null
+     *                          to request every log matching the query and filter them here
+     */
+    public void setSinceQueryFormat(String sinceQueryFormat) {
+        this.sinceQueryFormat = sinceQueryFormat;
+    }
+
+    /**
+     * Stops following, a poll being run ends without delivering anything else
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // Polls
+
+    private void poll() {
+        if (closed) return;
+        int delivered = 0;
+        try {
+            delivered = readAndDeliver();
+        } catch (Exception e) {
+            log.warn("There was an error following logs of {}, polling again in {} ms.", mrId, nextInterval(0), e);
+        }
+        polls++;
+        intervalMillis = nextInterval(delivered);
+        if (!closed) scheduler.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private long nextInterval(int delivered) {
+        return (delivered > 0) ? minIntervalMillis : Math.max(minIntervalMillis, Math.min(maxIntervalMillis, intervalMillis * 2));
+    }
+
+    private int readAndDeliver() throws Exception {
+        // Logs are new compared with the last one seen before the poll, as pages may not come in order
+        long since = lastCreationDate;
+        Set<String> sinceBoundary = new HashSet<>(boundary);
+        Set<String> seen = new HashSet<>();
+        List<NewEntry> page = new ArrayList<>();
+        int max = maxEntriesPerPoll;
+        String pollQuery = buildQuery();
+        String paginationKey = null;
+        int delivered = 0;
+        do {
+            page.clear();
+            String params = OmegaLogPages.buildParams(pollQuery, pageSize, paginationKey);
+            paginationKey = omega.readLogs(mrId, params, body -> OmegaLogPages.read(body, json -> {
+                long creationDate = OmegaLogPages.readCreationDate(json);
+                // Pages may overlap while new logs arrive, so duplicates are dropped in the poll too
+                if (isNew(since, sinceBoundary, creationDate, json) && seen.add(json)) {
+                    page.add(new NewEntry(json, creationDate));
+                }
+                return !closed && seen.size() < max;
+            }));
+            delivered += deliver(page);
+            // Pages after one without new logs are older when they come newest first
+            if (page.isEmpty() && newestFirst) break;
+        } while (paginationKey != null && seen.size() < max && !closed);
+        return delivered;
+    }
+
+    private String buildQuery() {
+        String format = sinceQueryFormat;
+        if (format == null) return query;
+        String since = String.format(format, lastCreationDate);
+        return (query == null) ? since : "(" + query + ") and " + since;
+    }
+
+    private static boolean isNew(long since, Set<String> sinceBoundary, long creationDate, String json) {
+        if (creationDate == Long.MIN_VALUE) return false;
+        return creationDate > since || (creationDate == since && !sinceBoundary.contains(json));
+    }
+
+    private int deliver(List<NewEntry> entries) {
+        entries.sort(BY_CREATION_DATE);
+        int delivered = 0;
+        for (NewEntry entry : entries) {
+            if (closed) break;
+            try {
+                consumer.accept(entry.json);
+            } catch (Exception e) {
+                log.error("There was an error handling a log of {}.", mrId, e);
+            }
+            if (entry.creationDate > lastCreationDate) {
+                lastCreationDate = entry.creationDate;
+                boundary.clear();
+            }
+            boundary.add(entry.json);
+            delivered++;
+        }
+        entriesDelivered += delivered;
+        return delivered;
+    }
+
+    /**
+     * A log not delivered yet
+     */
+    private static final class NewEntry {
+        private final String json;
+        private final long creationDate;
+
+        private NewEntry(String json, long creationDate) {
+            this.json = json;
+            this.creationDate = creationDate;
+        }
+    }
+}
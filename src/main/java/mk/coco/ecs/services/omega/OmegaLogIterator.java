@@ -0,0 +1,158 @@
+package mk.coco.ecs.services.omega;
+
+import mk.coco.ecs.restcontent.AbortableInputStream;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Iterates over every log of a monitored resource, following "paginationKey" from page to page.
+ *
+ * Pages are read by a background thread and parsed while they are received. Entries wait in a queue of one page, so
+ * the next page is being downloaded while the current one is consumed, and memory does not grow with the number of
+ * logs. {@link #close()} stops reading (the current request is aborted, dropping the rest of its page), it must be
+ * called when the iteration is stopped before the end: until then, a reader waiting for room in the queue stays parked.
+ *
+ * Each entry is the JSON of a log, as returned by Omega.
+ */
+@Slf4j
+public class OmegaLogIterator implements Iterator<String>, Closeable {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService readers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mk-ecs-omega-pages-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Marks the end of the logs in the queue
+    private static final Object END = new Object();
+    // How often a reader waiting for room in the queue checks whether the iterator was closed
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    @Getter private final String mrId;
+    @Getter private final String query;
+    @Getter private final int pageSize;
+    @Getter private volatile int pagesRead;
+
+    private final OmegaService omega;
+    private final BlockingQueue<Object> queue;
+    private volatile boolean closed;
+    private volatile InputStream body;  // Body of the page being read, null between pages
+    private int entriesInPage;          // Only used by the reader thread
+    private Object next;
+    private boolean finished;
+
+    OmegaLogIterator(OmegaService omega, String mrId, String query, int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("Page size must be greater than 0");
+        this.omega = omega;
+        this.mrId = mrId;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.queue = new ArrayBlockingQueue<>(pageSize + 1);
+        readers.execute(this::readPages);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (finished) return false;
+        try {
+            next = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading logs of " + mrId, e);
+        }
+        if (next == END) {
+            finished = true;
+            next = null;
+            return false;
+        }
+        if (next instanceof Exception) {
+            finished = true;
+            Exception error = (Exception) next;
+            next = null;
+            throw new IllegalStateException("There was an error reading logs of " + mrId, error);
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String entry = (String) next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * Stops reading pages, aborting the page being read
+     */
+    @Override
+    public void close() {
+        closed = true;
+        finished = true;
+        queue.clear();
+        abort(body);
+    }
+
+    private void readPages() {
+        String paginationKey = null;
+        try {
+            do {
+                String params = OmegaLogPages.buildParams(query, pageSize, paginationKey);
+                entriesInPage = 0;
+                paginationKey = omega.readLogs(mrId, params, this::readPage);
+                pagesRead++;
+                // An empty page ends the logs, even if it comes with a key
+            } while (paginationKey != null && entriesInPage > 0 && !closed);
+            offer(END);
+        } catch (Exception e) {
+            if (closed) return;
+            log.debug("There was an error reading page {} of logs of {}.", pagesRead + 1, mrId, e);
+            try {
+                offer(e);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String readPage(InputStream page) throws Exception {
+        body = page;
+        try {
+            String paginationKey = OmegaLogPages.read(page, this::offerEntry);
+            // Closing the rest of the page would read it to the end
+            if (closed) abort(page);
+            return paginationKey;
+        } finally {
+            body = null;
+        }
+    }
+
+    private static void abort(InputStream page) {
+        if (page instanceof AbortableInputStream) ((AbortableInputStream) page).abort();
+    }
+
+    private boolean offerEntry(String entry) throws InterruptedException {
+        entriesInPage++;
+        return offer(entry);
+    }
+
+    private boolean offer(Object entry) throws InterruptedException {
+        while (!queue.offer(entry, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (closed) return false;
+        }
+        return !closed;
+    }
+}
@@ -0,0 +1,169 @@
+package mk.coco.ecs.services.omega;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads pages of logs returned by {@link OmegaService#readLogs(String, String)} while they are received, without
+ * buffering the whole page
+ *
+ * Entries are the elements of the first array of the response, each one handed over as its own JSON. The key of the
+ * next page is the value of "paginationKey" or "nextPaginationKey", at the top of the response or inside any object
+ * at the top (i.e. "pagination").
+ */
+final class OmegaLogPages {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private OmegaLogPages() {
+        // Avoid class instantiation
+    }
+
+    /**
+     * Receives the entries of a page, one at a time
+     */
+    interface EntryConsumer {
+        /**
+         * @param entry             JSON of the entry
+         * @return                  False to stop reading the page
+         * @throws Exception        Stops reading the page
+         */
+        boolean accept(String entry) throws Exception;
+    }
+
+    /**
+     * Returns the dynamicParams of {@link OmegaService#readLogs(String, String)} for a page
+     *
+     * @param query             Query (q), null if not needed
+     * @param pageSize          Entries per page
+     * @param paginationKey     Key of the page, null for the first one
+     * @return                  Params started by "?"
+     */
+    static String buildParams(String query, int pageSize, String paginationKey) {
+        return buildParams(query, null, pageSize, paginationKey);
+    }
+
+    /**
+     * Returns the dynamicParams of {@link OmegaService#readLogs(String, String)} for a page
+     *
+     * @param query             Query (q), null if not needed
+     * @param sort              Sort, null if not needed
+     * @param pageSize          Entries per page
+     * @param paginationKey     Key of the page, null for the first one
+     * @return                  Params started by "?"
+     */
+    static String buildParams(String query, String sort, int pageSize, String paginationKey) {
+        StringBuilder params = new StringBuilder("?pageSize=").append(pageSize);
+        if (query != null) params.append("&q=").append(encode(query));
+        if (sort != null) params.append("&sort=").append(encode(sort));
+        if (paginationKey != null) params.append("&paginationKey=").append(encode(paginationKey));
+        return params.toString();
+    }
+
+    /**
+     * Reads a page, handing each entry to "consumer" as soon as it is parsed
+     *
+     * @param body              Response of readLogs
+     * @param consumer          Receives each entry
+     * @return                  Key of the next page, null if it was the last one or consumer stopped reading
+     * @throws Exception        If the response is not a page of logs or consumer fails
+     */
+    static String read(InputStream body, EntryConsumer consumer) throws Exception {
+        try (JsonParser parser = JSON.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                readEntries(parser, consumer);
+                return null;
+            }
+            if (token != JsonToken.START_OBJECT) throw new IOException("Unexpected response reading logs: " + token);
+
+            String paginationKey = null;
+            boolean entriesRead = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                token = parser.nextToken();
+                if (token == JsonToken.START_ARRAY && !entriesRead) {
+                    entriesRead = true;
+                    if (!readEntries(parser, consumer)) return null;
+                } else if (token == JsonToken.START_OBJECT) {
+                    String nested = readPaginationKey(parser);
+                    if (nested != null) paginationKey = nested;
+                } else if (isPaginationKey(field) && token == JsonToken.VALUE_STRING) {
+                    paginationKey = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return (paginationKey == null || paginationKey.isEmpty()) ? null : paginationKey;
+        }
+    }
+
+    /**
+     * Returns the creationDate of an entry read by {@link #read(InputStream, EntryConsumer)}
+     *
+     * @param entry             JSON of the entry
+     * @return                  creationDate (in nanoseconds), or Long.MIN_VALUE if the entry has none
+     * @throws IOException      If entry is not a JSON object
+     */
+    static long readCreationDate(String entry) throws IOException {
+        try (JsonParser parser = JSON.createParser(entry)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Log entry is not an object: " + entry);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("creationDate".equals(field)) {
+                    if (token == JsonToken.VALUE_NUMBER_INT) return parser.getLongValue();
+                    if (token == JsonToken.VALUE_STRING) return Long.parseLong(parser.getText());
+                }
+                parser.skipChildren();
+            }
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static boolean readEntries(JsonParser parser, EntryConsumer consumer) throws Exception {
+        StringWriter writer = new StringWriter(256);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            writer.getBuffer().setLength(0);
+            try (JsonGenerator generator = JSON.createGenerator(writer)) {
+                generator.copyCurrentStructure(parser);
+            }
+            if (!consumer.accept(writer.toString())) return false;
+        }
+        return true;
+    }
+
+    private static String readPaginationKey(JsonParser parser) throws IOException {
+        String paginationKey = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.VALUE_STRING && isPaginationKey(field)) {
+                paginationKey = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return paginationKey;
+    }
+
+    private static boolean isPaginationKey(String field) {
+        return "paginationKey".equals(field) || "nextPaginationKey".equals(field);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package mk.coco.ecs.services.omega;
+
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+
+/**
+ * Decides which logs are sent to Omega, so a job logging the same line in a loop does not throttle the whole namespace
+ *
+ * Identical logs (same mrId, level and message) are sent once per {@link #getDedupWindowMillis()}: the repetitions
+ * within the window are counted and, once it ends, sent as a single summary entry (the first log with property
+ * {@value #OCCURRENCES_PROPERTY} = repetitions) by {@link #drainSummaries(boolean, Consumer)}.
+ *
+ * The logs that pass are then limited by a token bucket per level (see {@link #setRateLimit(OmegaLogLevel, double, int)}).
+ *
+ * ERROR and FATAL logs always pass. Deciding takes no lock, counters are striped ({@link LongAdder}).
+ */
+public class OmegaLogPolicy {
+
+    public static final String OCCURRENCES_PROPERTY = "occurrences";
+
+    @Getter private volatile long dedupWindowMillis = TimeUnit.SECONDS.toMillis(10);
+    @Getter private volatile int maxDedupKeys = 10000;
+
+    // Counters
+    private final LongAdder entriesAdmitted = new LongAdder();
+    private final LongAdder entriesSuppressed = new LongAdder();
+    private final LongAdder entriesRateLimited = new LongAdder();
+    private final LongAdder summariesDrained = new LongAdder();
+
+    private final Map<OmegaLogLevel, TokenBucket> buckets = new EnumMap<>(OmegaLogLevel.class);
+    private final ConcurrentHashMap<DedupKey, Window> windows = new ConcurrentHashMap<>();
+    // Windows replaced by a new one before their summary was drained
+    private final Queue<Window> ended = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Returns a new OmegaLogPolicy with no rate limits
+     */
+    public OmegaLogPolicy() {
+        for (OmegaLogLevel level : OmegaLogLevel.values()) {
+            buckets.put(level, new TokenBucket());
+        }
+    }
+
+    // Setters
+
+    /**
+     * Sets how long identical logs are held back after the first one is sent
+     * @param window            Window, 0 to send every identical log
+     * @param unit              Unit of window
+     */
+    public void setDedupWindow(long window, TimeUnit unit) {
+        if (window < 0) throw new IllegalArgumentException("Dedup window can't be negative");
+        this.dedupWindowMillis = unit.toMillis(window);
+    }
+
+    /**
+     * Sets how many different logs are tracked at the same time, new ones are not deduplicated beyond it
+     * @param maxDedupKeys      Max logs tracked, must be greater than 0
+     */
+    public void setMaxDedupKeys(int maxDedupKeys) {
+        if (maxDedupKeys <= 0) throw new IllegalArgumentException("Max dedup keys must be greater than 0");
+        this.maxDedupKeys = maxDedupKeys;
+    }
+
+    /**
+     * Limits the logs of a level
+     * @param level             Log level, not ERROR nor FATAL
+     * @param perSecond         Logs per second, 0 or lower to remove the limit
+     * @param burst             Logs that may be sent at once after being idle, must be greater than 0
+     */
+    public void setRateLimit(OmegaLogLevel level, double perSecond, int burst) {
+        if (alwaysPasses(level)) throw new IllegalArgumentException(level + " logs can't be limited");
+        if (burst <= 0) throw new IllegalArgumentException("Burst must be greater than 0");
+        buckets.get(level).configure(perSecond, burst);
+    }
+
+    // Counters
+
+    public long getEntriesAdmitted() {return entriesAdmitted.sum();}        // Logs to be sent
+    public long getEntriesSuppressed() {return entriesSuppressed.sum();}    // Identical logs held back, sent as counts
+    public long getEntriesRateLimited() {return entriesRateLimited.sum();}  // Logs dropped by the rate limits
+    public long getSummariesDrained() {return summariesDrained.sum();}      // Summary entries handed over
+    public int getDedupKeys() {return windows.size();}                      // Logs being deduplicated
+
+    // Usage
+
+    /**
+     * Decides whether a log is sent
+     * @param entry             Log to send
+     * @return                  True if the log must be sent
+     */
+    public boolean admit(OmegaLogEntry entry) {
+        OmegaLogLevel level = entry.getLevel();
+        if (alwaysPasses(level)) {
+            entriesAdmitted.increment();
+            return true;
+        }
+        if (!dedup(entry)) {
+            entriesSuppressed.increment();
+            return false;
+        }
+        if (!buckets.get(level).tryAcquire()) {
+            entriesRateLimited.increment();
+            return false;
+        }
+        entriesAdmitted.increment();
+        return true;
+    }
+
+    /**
+     * Hands over a summary entry for each dedup window that held back logs and has ended, forgetting those windows
+     * @param all               True to end every window (i.e. when closing)
+     * @param sink              Receives the summary entries, which must be sent without asking this policy again
+     */
+    public void drainSummaries(boolean all, Consumer<OmegaLogEntry> sink) {
+        long now = System.currentTimeMillis();
+        Window window;
+        while ((window = ended.poll()) != null) {
+            drain(window, sink);
+        }
+        for (Iterator<Window> windowsIterator = windows.values().iterator(); windowsIterator.hasNext(); ) {
+            window = windowsIterator.next();
+            if (all || now >= window.end) {
+                windowsIterator.remove();
+                drain(window, sink);
+            }
+        }
+    }
+
+    private void drain(Window window, Consumer<OmegaLogEntry> sink) {
+        // A repetition counted right while its window is drained may be lost
+        long occurrences = window.suppressed.sumThenReset();
+        if (occurrences == 0) return;
+        OmegaLogEntry first = window.first;
+        Map<String, String> properties = new LinkedHashMap<>(first.getProperties());
+        properties.put(OCCURRENCES_PROPERTY, Long.toString(occurrences));
+        summariesDrained.increment();
+        sink.accept(new OmegaLogEntry(first.getMrId(), first.getJobName(), properties, first.getLevel(), first.getMessage(),
+                window.lastCreationDateInMillis));
+    }
+
+    // Dedup
+
+    private static boolean alwaysPasses(OmegaLogLevel level) {
+        return level == OmegaLogLevel.ERROR || level == OmegaLogLevel.FATAL;
+    }
+
+    /**
+     * Returns true for the first log of a window, counts the rest
+     */
+    private boolean dedup(OmegaLogEntry entry) {
+        long windowMillis = dedupWindowMillis;
+        if (windowMillis == 0) return true;
+        DedupKey key = new DedupKey(entry);
+        while (true) {
+            long now = System.currentTimeMillis();
+            Window window = windows.get(key);
+            if (window != null && now < window.end) {
+                window.suppressed.increment();
+                // Only written when it moves, so threads repeating a log don't fight over it
+                long creationDate = entry.getCreationDateInMillis();
+                if (creationDate > window.lastCreationDateInMillis) window.lastCreationDateInMillis = creationDate;
+                return false;
+            }
+            Window started = new Window(entry, now + windowMillis);
+            if (window == null) {
+                if (windows.size() >= maxDedupKeys) return true;
+                if (windows.putIfAbsent(key, started) == null) return true;
+            } else if (windows.replace(key, window, started)) {
+                ended.offer(window);
+                return true;
+            }
+            // Another thread started the window first
+        }
+    }
+
+    /**
+     * What makes two logs identical
+     */
+    private static final class DedupKey {
+        private final String mrId;
+        private final OmegaLogLevel level;
+        private final String message;
+        private final int hash;
+
+        private DedupKey(OmegaLogEntry entry) {
+            this.mrId = entry.getMrId();
+            this.level = entry.getLevel();
+            this.message = entry.getMessage();
+            this.hash = (mrId.hashCode() * 31 + level.hashCode()) * 31 + message.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof DedupKey)) return false;
+            DedupKey key = (DedupKey) other;
+            return hash == key.hash && level == key.level && mrId.equals(key.mrId) && message.equals(key.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Logs identical to "first" held back until "end"
+     */
+    private static final class Window {
+        private final OmegaLogEntry first;
+        private final long end;
+        private final LongAdder suppressed = new LongAdder();
+        private volatile long lastCreationDateInMillis;
+
+        private Window(OmegaLogEntry first, long end) {
+            this.first = first;
+            this.end = end;
+            this.lastCreationDateInMillis = first.getCreationDateInMillis();
+        }
+    }
+
+    // Rate limits
+
+    /**
+     * Token bucket kept as the time it will be full again (GCRA), so taking a token is a single compare-and-set
+     */
+    private static final class TokenBucket {
+        private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+        private volatile long nanosPerToken;        // 0 when not limited
+        private volatile long burstNanos;
+
+        private void configure(double perSecond, int burst) {
+            long interval = (perSecond <= 0) ? 0 : Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+            this.burstNanos = interval * burst;
+            this.nanosPerToken = interval;
+            fullAt.set(Long.MIN_VALUE);
+        }
+
+        private boolean tryAcquire() {
+            long interval = nanosPerToken;
+            if (interval == 0) return true;
+            long now = System.nanoTime();
+            while (true) {
+                long current = fullAt.get();
+                long next = ((current == Long.MIN_VALUE || current - now < 0) ? now : current) + interval;
+                if (next - now > burstNanos) return false;
+                if (fullAt.compareAndSet(current, next)) return true;
+            }
+        }
+    }
+}
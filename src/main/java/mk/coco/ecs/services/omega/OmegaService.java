@@ -1,15 +1,25 @@
 package mk.coco.ecs.services.omega;
 
 import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
 import mk.coco.ecs.restcontent.RestContent;
 import mk.coco.ecs.services.common.SemaasService;
 import mk.coco.ecs.services.common.SupportedServices;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.text.StringEscapeUtils;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestAsync;
+import static mk.coco.ecs.restcontent.RestContent.requestStream;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/omega/documentation/api/logs-api-http-v1
@@ -21,8 +31,10 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class OmegaService extends SemaasService {
 
-    @Getter private String mrs;
-    @Getter private String logs;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String mrs;
+    @Getter private volatile String logs;
+    @Getter private final ThrowableEncoder throwableEncoder = new ThrowableEncoder();
 
     public enum OmegaLogLevel {
         WARN,
@@ -65,17 +77,6 @@ public class OmegaService extends SemaasService {
         logs = sec.readValueFromSecretWithKey(secretName,serv + urls.getDotUrlDot() + "logs");
     }
 
-    // Body composition
-
-    private String getAppendBody(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInNano) {
-        return "[{\"mrId\": \"" + mrId + "\", \"properties\": {\"jobName\": \"" + jobName + "\"}, \"level\": \"" + level
-                + "\", \"message\" : \"" + message + "\", \"creationDate\": " + creationDateInNano + " }]";
-    }
-    private String getAppendBody(String mrId, OmegaLogLevel level, String message, long creationDateInNano) {
-        return "[{\"mrId\": \"" + mrId + "\", \"level\": \"" + level
-                + "\", \"message\" : \"" + message + "\", \"creationDate\": " + creationDateInNano + " }]";
-    }
-
     // Usage
     /**
      *  Get logs of a monitored resource
@@ -91,9 +92,24 @@ public class OmegaService extends SemaasService {
      * @return                  Response in a JSON format
      */
     public String readLogs(String mrID, String dynamicParams) throws Exception {
-        urls.setServiceOption(mrs);
-        String append = urls.getSlash() + mrID + urls.getSlash() + logs + dynamicParams;
-        return request(urls.buildCommonServiceURL(append), "", cred, RestContent.RequestType.GET);
+        return request(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrID, urls.getSlash(), logs, dynamicParams),
+                "", cred, RestContent.RequestType.GET);
+    }
+
+    /**
+     *  Get logs of a monitored resource, streaming the response to "handler" instead of returning it as a String
+     * @param mrID              Monitored Resource ID to get logs from
+     * @param dynamicParams     Same as in {@link #readLogs(String, String)}
+     * @param handler           Consumes the raw JSON response while it is received
+     * @param <T>               Result of the handler
+     * @throws Exception        If connection is not possible or the handler fails
+     * @return                  Whatever the handler returns
+     */
+    public <T> T readLogs(String mrID, String dynamicParams, ResponseBodyHandler<T> handler) throws Exception {
+        return requestStream(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrID, urls.getSlash(), logs, dynamicParams),
+                "", cred, RestContent.RequestType.GET, handler);
     }
 
     /**
@@ -106,6 +122,67 @@ public class OmegaService extends SemaasService {
         return readLogs(mrID, "");
     }
 
+    /**
+     *  Iterate over every log of a monitored resource, following pages while they are consumed. Close the iterator
+     *  if the iteration is stopped before the end: its reader thread stays parked, holding a connection, until then
+     * @param mrID              Monitored Resource ID to get logs from
+     * @param query             Query (q param), null to get every log
+     * @param pageSize          Logs per request, also the number of logs read ahead
+     * @return                  Iterator over the JSON of each log
+     */
+    public OmegaLogIterator iterateLogs(String mrID, String query, int pageSize) {
+        return new OmegaLogIterator(this, mrID, query, pageSize);
+    }
+
+    /**
+     *  Stream every log of a monitored resource, see {@link #iterateLogs(String, String, int)}. Closing the stream
+     *  (i.e. with try-with-resources) stops reading pages, a stream left open keeps its reader thread parked
+     * @param mrID              Monitored Resource ID to get logs from
+     * @param query             Query (q param), null to get every log
+     * @param pageSize          Logs per request, also the number of logs read ahead
+     * @return                  Sequential stream of the JSON of each log
+     */
+    public Stream<String> streamLogs(String mrID, String query, int pageSize) {
+        OmegaLogIterator iterator = iterateLogs(mrID, query, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     *  Get logs of a monitored resource without blocking the calling thread
+     * @param mrID              Monitored Resource ID to get logs from
+     * @param dynamicParams     Same as in {@link #readLogs(String, String)}
+     * @return                  Future with the response in a JSON format
+     */
+    public CompletableFuture<String> readLogsAsync(String mrID, String dynamicParams) {
+        return requestAsync(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrID, urls.getSlash(), logs, dynamicParams),
+                "", cred, RestContent.RequestType.GET);
+    }
+
+    /**
+     *  Follow the logs of a monitored resource created from now on, see {@link OmegaLogFollower}
+     * @param mrID              Monitored Resource ID to follow
+     * @param query             Query (q param), null to follow every log
+     * @param consumer          Receives the JSON of each new log, page by page in creationDate order
+     * @return                  Follower, close it to stop following
+     */
+    public OmegaLogFollower follow(String mrID, String query, Consumer<String> consumer) {
+        return follow(mrID, query, System.currentTimeMillis(), consumer);
+    }
+
+    /**
+     *  Follow the logs of a monitored resource, see {@link OmegaLogFollower}
+     * @param mrID              Monitored Resource ID to follow
+     * @param query             Query (q param), null to follow every log
+     * @param sinceMillis       Logs created since this date (in milliseconds) are delivered
+     * @param consumer          Receives the JSON of each new log, page by page in creationDate order
+     * @return                  Follower, close it to stop following
+     */
+    public OmegaLogFollower follow(String mrID, String query, long sinceMillis, Consumer<String> consumer) {
+        return new OmegaLogFollower(this, mrID, query, sinceMillis, consumer);
+    }
+
     /**
      *  Get logs of a monitored resource and submits a specific body
      * @param mrID              Monitored Resource ID to get logs from
@@ -114,9 +191,9 @@ public class OmegaService extends SemaasService {
      * @throws Exception        If connection is not possible
      */
     public String readLogsWithBody(String mrID, String body) throws Exception {
-        urls.setServiceOption(mrs);
-        String append = urls.getSlash() + mrID + urls.getSlash() + logs;
-        return request(urls.buildCommonServiceURL(append), body, cred, RestContent.RequestType.POST);
+        return request(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrID, urls.getSlash(), logs),
+                body, cred, RestContent.RequestType.POST);
     }
 
     /**
@@ -124,15 +201,15 @@ public class OmegaService extends SemaasService {
      * @param mrId              Monitored Resource ID to append logs to
      * @param level             Log level
      * @param message           Will work as a header for the log message
-     * @param e                 Throwable (stack trace will be obtained and logged)
+     * @param e                 Throwable (stack trace will be obtained and logged, see {@link #getThrowableEncoder()})
      * @param creationDate      Log creation date in milliseconds
      * @return                  Info in a JSON format
      * @throws Exception        If connection is not possible
      */
     public String appendLogs(String mrId, OmegaLogLevel level, String message, Throwable e, long creationDate) throws Exception {
-        String msg= message + "\n";
-        for (StackTraceElement ste : e.getStackTrace()) {msg += ste.toString() +"\n";}
-        return appendLogs(mrId, null, level, msg, creationDate);
+        StringBuilder body = new StringBuilder(2048).append('[');
+        new OmegaLogEntry(mrId, null, level, message, creationDate).appendJson(body, e, throwableEncoder);
+        return appendLogsWithBody(mrId, body.append(']').toString());
     }
 
     /**
@@ -159,14 +236,40 @@ public class OmegaService extends SemaasService {
      * @throws Exception                If connection is not possible
      */
     public String appendLogs(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInMillis) throws Exception {
-        String escapedMessage = StringEscapeUtils.escapeJava(message);
-        String body;
-        if (jobName == null) {
-            body = getAppendBody(mrId, level, escapedMessage, creationDateInMillis * 1000000);
-        } else {
-            body = getAppendBody(mrId, jobName, level, escapedMessage, creationDateInMillis * 1000000);
+        return appendLogsWithBody(mrId, buildAppendBody(mrId, jobName, level, message, creationDateInMillis));
+    }
+
+    /**
+     * Append logs to a monitored resource with a basic body, without blocking the calling thread
+     * @param mrId                      Monitored Resource ID to append logs to
+     * @param jobName                   Job name (null if not needed)
+     * @param level                     Log level
+     * @param message                   My log message
+     * @param creationDateInMillis      Log creation date in milliseconds
+     * @return                          Future with info in a JSON format
+     */
+    public CompletableFuture<String> appendLogsAsync(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInMillis) {
+        return appendLogsWithBodyAsync(mrId, buildAppendBody(mrId, jobName, level, message, creationDateInMillis));
+    }
+
+    /**
+     * Append several logs of the same monitored resource in a single request
+     * @param mrId              Monitored Resource ID to append logs to
+     * @param entries           Logs to append, all of them of monitored resource "mrId"
+     * @return                  Info in a JSON format
+     * @throws Exception        If connection is not possible
+     */
+    public String appendLogs(String mrId, List<OmegaLogEntry> entries) throws Exception {
+        StringBuilder body = new StringBuilder(entries.size() * 256).append('[');
+        for (int ii = 0; ii < entries.size(); ii++) {
+            if (ii > 0) body.append(',');
+            entries.get(ii).appendJson(body);
         }
-        return appendLogsWithBody(mrId, body);
+        return appendLogsWithBody(mrId, body.append(']').toString());
+    }
+
+    private String buildAppendBody(String mrId, String jobName, OmegaLogLevel level, String message, long creationDateInMillis) {
+        return "[" + new OmegaLogEntry(mrId, jobName, level, message, creationDateInMillis).toJson() + "]";
     }
 
     /**
@@ -177,9 +280,21 @@ public class OmegaService extends SemaasService {
      * @throws Exception        If connection is not possible
      */
     public String appendLogsWithBody(String mrId, String body) throws Exception {
-        urls.setServiceOption(mrs);
-        String append = urls.getSlash() + mrId + urls.getSlash() + logs;
-        return request(urls.buildCommonServiceURL(append), body, cred, RestContent.RequestType.POST);
+        return request(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrId, urls.getSlash(), logs),
+                body, cred, RestContent.RequestType.POST);
+    }
+
+    /**
+     *  Append logs to a monitored resource with a given body, without blocking the calling thread
+     * @param mrId              Monitored Resource ID to append logs to
+     * @param body              Body of the request
+     * @return                  Future with info in a JSON format
+     */
+    public CompletableFuture<String> appendLogsWithBodyAsync(String mrId, String body) {
+        return requestAsync(
+                urls.commonTemplate(mrs).expand(urls.getSlash(), mrId, urls.getSlash(), logs),
+                body, cred, RestContent.RequestType.POST);
     }
 
 }
@@ -0,0 +1,368 @@
+package mk.coco.ecs.services.omega;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * On-disk FIFO of rendered Omega log entries, used by {@link OmegaBatchingAppender} to keep logs while Omega can't
+ * take them. Entries are written to memory-mapped segment files of {@link #getSegmentBytes()} bytes in a directory
+ * and read back in the order they were written.
+ *
+ * Disk usage is capped to {@link #getMaxDiskBytes()}: when a new segment does not fit, the oldest ones are deleted
+ * with every entry they hold. Segments survive a JVM restart: each one stores how far it has been read, and segments
+ * found in the directory when the buffer is opened are read before new entries (a record cut by a crash ends its
+ * segment). All methods are synchronized.
+ *
+ * Segment layout: a header (magic, version, read position) followed by records {@code [length][crc32][payload]},
+ * where payload is {@code [mrId length][mrId][json]} in UTF-8. A length of 0 marks the end of written records.
+ */
+@Slf4j
+public class OmegaSpillBuffer implements Closeable {
+
+    private static final int MAGIC = 0x4f4d5350;         // "OMSP"
+    private static final int VERSION = 1;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spill";
+
+    @Getter private final Path directory;
+    @Getter private final int segmentBytes;
+    @Getter private final long maxDiskBytes;
+
+    @Getter private long entriesSpilled;        // Entries written since the buffer was opened
+    @Getter private long entriesEvicted;        // Entries deleted, unread, to keep disk usage under the cap
+    @Getter private long bufferedEntries;       // Entries written and not read yet, including recovered ones
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSequence;
+    private boolean closed;
+
+    /**
+     * Returns a new OmegaSpillBuffer with segments of 8 MB, using up to 256 MB
+     *
+     * @param directory         Directory of segments, created if missing
+     * @throws IOException      If directory or its segments can't be read
+     */
+    public OmegaSpillBuffer(String directory) throws IOException {
+        this(directory, 8 * 1024 * 1024, 256L * 1024 * 1024);
+    }
+
+    /**
+     * Returns a new OmegaSpillBuffer, reading the segments already in "directory"
+     *
+     * @param directory         Directory of segments, created if missing
+     * @param segmentBytes      Size of each segment file, greater than 1 KB
+     * @param maxDiskBytes      Max size of all segments together, at least two segments
+     * @throws IOException      If directory or its segments can't be read
+     */
+    public OmegaSpillBuffer(String directory, int segmentBytes, long maxDiskBytes) throws IOException {
+        if (segmentBytes <= 1024) throw new IllegalArgumentException("Segment bytes must be greater than 1024");
+        if (maxDiskBytes < 2L * segmentBytes) throw new IllegalArgumentException("Max disk bytes must hold at least two segments");
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.maxDiskBytes = maxDiskBytes;
+
+        Files.createDirectories(this.directory);
+        recover();
+    }
+
+    // Usage
+
+    /**
+     * Writes an entry at the end of the buffer
+     * @param mrId              Monitored Resource ID of the entry
+     * @param json              Rendered entry, as in {@link OmegaLogEntry#toJson()}
+     * @return                  False if the entry does not fit in a segment or the buffer is closed
+     * @throws IOException      If a new segment can't be created
+     */
+    public synchronized boolean write(String mrId, String json) throws IOException {
+        if (closed) return false;
+        byte[] mrIdBytes = mrId.getBytes(StandardCharsets.UTF_8);
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 2 + mrIdBytes.length + jsonBytes.length;
+        // A length of 0 always follows the last record, so 4 more bytes are needed
+        int recordLength = RECORD_HEADER_BYTES + payloadLength;
+        if (mrIdBytes.length > 0xffff || HEADER_BYTES + recordLength + 4 > segmentBytes) {
+            log.warn("Omega log entry of {} bytes does not fit in a spill segment, dropping it.", recordLength);
+            return false;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.writable || tail.writePosition + recordLength + 4 > segmentBytes) {
+            tail = newSegment();
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.putShort((short) mrIdBytes.length).put(mrIdBytes).put(jsonBytes);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payloadLength);
+
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.position(position + RECORD_HEADER_BYTES);
+        buffer.put(payload.array(), 0, payloadLength);
+        // Length is written last, so a record is never seen before it is complete
+        buffer.putInt(position, payloadLength);
+
+        tail.writePosition += recordLength;
+        tail.entries++;
+        entriesSpilled++;
+        bufferedEntries++;
+        return true;
+    }
+
+    /**
+     * Returns the oldest entries without removing them, see {@link #commit(SpilledEntry)}
+     * @param maxEntries        Max number of entries returned
+     * @param maxBytes          Max size of json returned (at least one entry is returned)
+     * @return                  Oldest entries, in the order they were written
+     */
+    public synchronized List<SpilledEntry> peek(int maxEntries, int maxBytes) {
+        List<SpilledEntry> entries = new ArrayList<>();
+        int bytes = 0;
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            while (position < segment.writePosition && entries.size() < maxEntries) {
+                SpilledEntry entry = segment.read(position);
+                if (!entries.isEmpty() && bytes + entry.json.length() > maxBytes) return entries;
+                entries.add(entry);
+                bytes += entry.json.length();
+                position = entry.nextPosition;
+            }
+            if (entries.size() >= maxEntries) break;
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the oldest entries once they have been sent, up to "last" included. Entries evicted since they were
+     * read are skipped
+     * @param last              Last entry sent, as returned by {@link #peek(int, int)}
+     */
+    public synchronized void commit(SpilledEntry last) {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            if (segment.sequence > last.segmentSequence) return;
+
+            int end = (segment.sequence == last.segmentSequence) ? last.nextPosition : segment.writePosition;
+            while (segment.readPosition < end) {
+                segment.readPosition += RECORD_HEADER_BYTES + segment.buffer.getInt(segment.readPosition);
+                segment.entries--;
+                bufferedEntries--;
+            }
+            segment.buffer.putInt(READ_POSITION_OFFSET, segment.readPosition);
+
+            // The segment being written is kept, even when it has been read completely
+            if (segment.readPosition < segment.writePosition || (segment.writable && segments.size() == 1)) return;
+            segments.pollFirst();
+            segment.delete();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return bufferedEntries == 0;
+    }
+
+    /**
+     * Writes segments to disk and closes them, they are read again by the next OmegaSpillBuffer on the directory
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    // Segments
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                paths.add(file);
+            }
+        }
+        // Sequences are zero padded, so names sort in the order segments were created
+        paths.sort(null);
+
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            Segment segment = Segment.open(path, sequence);
+            if (segment == null || segment.entries == 0) {
+                if (segment != null) segment.close();
+                Files.deleteIfExists(path);
+                continue;
+            }
+            segments.addLast(segment);
+            bufferedEntries += segment.entries;
+        }
+        if (bufferedEntries > 0) {
+            log.info("Recovered {} Omega log entries spilled to {}.", bufferedEntries, directory);
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        while (!segments.isEmpty() && (segments.size() + 1L) * segmentBytes > maxDiskBytes) {
+            Segment oldest = segments.pollFirst();
+            entriesEvicted += oldest.entries;
+            bufferedEntries -= oldest.entries;
+            log.warn("Omega spill buffer is full, deleting {} entries not sent yet.", oldest.entries);
+            oldest.delete();
+        }
+        if (!segments.isEmpty()) segments.peekLast().buffer.force();
+
+        long sequence = nextSequence++;
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = Segment.create(path, sequence, segmentBytes);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * An entry read from the buffer
+     */
+    public static final class SpilledEntry {
+        @Getter private final String mrId;
+        @Getter private final String json;
+        // Where the entry is, to commit it
+        private final long segmentSequence;
+        private final int nextPosition;
+
+        private SpilledEntry(String mrId, String json, long segmentSequence, int nextPosition) {
+            this.mrId = mrId;
+            this.json = json;
+            this.segmentSequence = segmentSequence;
+            this.nextPosition = nextPosition;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final boolean writable;     // Recovered segments are only read, a crash may have left garbage after their last record
+        private int readPosition;
+        private int writePosition;
+        private int entries;                // Entries written and not read yet
+
+        private Segment(Path path, long sequence, FileChannel channel, MappedByteBuffer buffer, boolean writable) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writable = writable;
+        }
+
+        private static Segment create(Path path, long sequence, int segmentBytes) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(READ_POSITION_OFFSET, HEADER_BYTES);
+
+            Segment segment = new Segment(path, sequence, channel, buffer, true);
+            segment.readPosition = HEADER_BYTES;
+            segment.writePosition = HEADER_BYTES;
+            return segment;
+        }
+
+        private static Segment open(Path path, long sequence) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                channel.close();
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int readPosition = buffer.getInt(READ_POSITION_OFFSET);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || readPosition < HEADER_BYTES || readPosition > size) {
+                log.warn("Ignoring spill segment {}, it is not a valid segment.", path);
+                channel.close();
+                return null;
+            }
+
+            Segment segment = new Segment(path, sequence, channel, buffer, false);
+            segment.readPosition = readPosition;
+            segment.writePosition = readPosition;
+            // Complete records go until a length of 0, or until a record cut by a crash
+            while (segment.writePosition + RECORD_HEADER_BYTES <= size) {
+                int length = buffer.getInt(segment.writePosition);
+                if (length <= 0 || segment.writePosition + RECORD_HEADER_BYTES + length > size || !segment.isValid(segment.writePosition)) break;
+                segment.writePosition += RECORD_HEADER_BYTES + length;
+                segment.entries++;
+            }
+            return segment;
+        }
+
+        private boolean isValid(int position) {
+            int length = buffer.getInt(position);
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_BYTES);
+            view.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            return buffer.getInt(position + 4) == (int) crc.getValue();
+        }
+
+        private SpilledEntry read(int position) {
+            int length = buffer.getInt(position);
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_BYTES);
+            int mrIdLength = view.getShort() & 0xffff;
+            byte[] mrId = new byte[mrIdLength];
+            view.get(mrId);
+            byte[] json = new byte[length - 2 - mrIdLength];
+            view.get(json);
+            return new SpilledEntry(new String(mrId, StandardCharsets.UTF_8), new String(json, StandardCharsets.UTF_8),
+                    sequence, position + RECORD_HEADER_BYTES + length);
+        }
+
+        private void close() {
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("There was an error closing spill segment {}.", path, e);
+            }
+        }
+
+        private void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("There was an error deleting spill segment {}.", path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package mk.coco.ecs.services.omega;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * Writes the stack trace of a Throwable, JSON-escaped, straight into the body of a request (inside a JSON string).
+ *
+ * The trace looks like {@link Throwable#printStackTrace()}: causes and suppressed throwables are included, and frames
+ * shared with the enclosing trace are collapsed into "... N more". Nesting is capped by {@link #getMaxDepth()} and
+ * the characters written by {@link #getMaxLength()}.
+ *
+ * With fingerprinting on, a trace identical (same classes and frames, whatever the messages) to one written less than
+ * {@link #getFingerprintWindowMillis()} ago is replaced by its first line, a reference to the fingerprint written with
+ * the whole trace and the times it was repeated.
+ */
+public class ThrowableEncoder {
+
+    private static final int MAX_FINGERPRINTS = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Getter private volatile int maxDepth = 8;
+    @Getter private volatile int maxLength = 32 * 1024;
+    @Getter private volatile boolean fingerprinting;
+    @Getter private volatile long fingerprintWindowMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private final ConcurrentHashMap<Long, Occurrence> occurrences = new ConcurrentHashMap<>();
+
+    // Setters
+
+    /**
+     * Sets how deep causes and suppressed throwables are followed
+     * @param maxDepth          Nested throwables written, 0 to write only the top one
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("Max depth must not be negative");
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the max characters written for a trace, the trace is cut when they are reached
+     * @param maxLength         Characters written, counted once escaped
+     */
+    public void setMaxLength(int maxLength) {
+        if (maxLength <= 0) throw new IllegalArgumentException("Max length must be greater than 0");
+        this.maxLength = maxLength;
+    }
+
+    public void setFingerprinting(boolean fingerprinting) {
+        this.fingerprinting = fingerprinting;
+    }
+
+    public void setFingerprintWindowMillis(long fingerprintWindowMillis) {
+        if (fingerprintWindowMillis <= 0) throw new IllegalArgumentException("Fingerprint window must be greater than 0");
+        this.fingerprintWindowMillis = fingerprintWindowMillis;
+    }
+
+    // Usage
+
+    /**
+     * Writes the stack trace of "throwable", JSON-escaped and started by a line break, at the end of "json"
+     *
+     * @param json              Where the trace is written, inside a JSON string
+     * @param throwable         Throwable to write
+     * @return                  The same builder
+     */
+    public StringBuilder encode(StringBuilder json, Throwable throwable) {
+        Trace trace = new Trace(json, json.length() + maxLength);
+        if (fingerprinting) {
+            long fingerprint = fingerprint(throwable, 0, 0, Collections.newSetFromMap(new IdentityHashMap<>()));
+            long now = System.currentTimeMillis();
+            Occurrence occurrence = occurrences.get(fingerprint);
+            if (occurrence != null && now - occurrence.firstMillis < fingerprintWindowMillis) {
+                long repeated = occurrence.repeated.incrementAndGet();
+                if (trace.newLine() && trace.text(String.valueOf(throwable)) && trace.newLine() && trace.text("\t[same trace as ")) {
+                    appendHex(json, fingerprint);
+                    trace.text(", repeated " + repeated + " times]");
+                }
+                return json;
+            }
+            // Stale fingerprints are only dropped when there are too many
+            if (occurrences.size() >= MAX_FINGERPRINTS) occurrences.clear();
+            occurrences.put(fingerprint, new Occurrence(now));
+            if (trace.newLine() && trace.text("[trace ")) {
+                appendHex(json, fingerprint);
+                json.append(']');
+            }
+        }
+        write(trace, throwable, new StackTraceElement[0], "", "", 0, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return json;
+    }
+
+    /**
+     * Returns the stack trace of "throwable" as written by {@link #encode(StringBuilder, Throwable)}
+     *
+     * @param throwable         Throwable to write
+     * @return                  JSON-escaped trace
+     */
+    public String encode(Throwable throwable) {
+        return encode(new StringBuilder(1024), throwable).toString();
+    }
+
+    // Trace
+
+    private boolean write(Trace trace, Throwable throwable, StackTraceElement[] enclosing, String caption, String prefix,
+                          int depth, Set<Throwable> written) {
+        if (!trace.newLine() || !trace.text(prefix) || !trace.text(caption)) return false;
+        if (!written.add(throwable)) return trace.text("[CIRCULAR REFERENCE: ") && trace.text(String.valueOf(throwable)) && trace.text("]");
+        if (!trace.text(String.valueOf(throwable))) return false;
+
+        StackTraceElement[] frames = throwable.getStackTrace();
+        int last = frames.length - 1;
+        for (int ii = enclosing.length - 1; last >= 0 && ii >= 0 && frames[last].equals(enclosing[ii]); ii--) {
+            last--;
+        }
+        for (int ii = 0; ii <= last; ii++) {
+            if (!trace.newLine() || !trace.text(prefix) || !trace.text("\tat ") || !trace.frame(frames[ii])) return false;
+        }
+        int inCommon = frames.length - 1 - last;
+        if (inCommon > 0 && !(trace.newLine() && trace.text(prefix) && trace.text("\t... " + inCommon + " more"))) return false;
+
+        Throwable[] suppressed = throwable.getSuppressed();
+        Throwable cause = throwable.getCause();
+        if (depth >= maxDepth) {
+            if (suppressed.length == 0 && cause == null) return true;
+            return trace.newLine() && trace.text(prefix) && trace.text("\t... nested throwables omitted");
+        }
+        for (Throwable nested : suppressed) {
+            if (!write(trace, nested, frames, "Suppressed: ", prefix + "\t", depth + 1, written)) return false;
+        }
+        return cause == null || write(trace, cause, frames, "Caused by: ", prefix, depth + 1, written);
+    }
+
+    private long fingerprint(Throwable throwable, long hash, int depth, Set<Throwable> seen) {
+        if (!seen.add(throwable)) return hash;
+        hash = mix(hash, throwable.getClass().getName().hashCode());
+        for (StackTraceElement frame : throwable.getStackTrace()) {
+            hash = mix(hash, frame.hashCode());
+        }
+        if (depth >= maxDepth) return hash;
+        for (Throwable nested : throwable.getSuppressed()) {
+            hash = fingerprint(nested, mix(hash, 1), depth + 1, seen);
+        }
+        Throwable cause = throwable.getCause();
+        return (cause == null) ? hash : fingerprint(cause, mix(hash, 2), depth + 1, seen);
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    private static void appendHex(StringBuilder json, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            json.append(HEX[(int) (value >>> shift) & 0xf]);
+        }
+    }
+
+    /**
+     * Trace being written, until it reaches its limit
+     */
+    private static final class Trace {
+        private final StringBuilder json;
+        private final int limit;
+        private boolean truncated;
+
+        private Trace(StringBuilder json, int limit) {
+            this.json = json;
+            this.limit = limit;
+        }
+
+        private boolean newLine() {
+            return text("\n");
+        }
+
+        private boolean frame(StackTraceElement frame) {
+            // As printStackTrace writes it, with the class loader and module of the frame on Java 9+
+            return text(frame.toString());
+        }
+
+        /**
+         * Writes "text" escaped, returns false (once the trace is cut) when the limit is reached
+         */
+        private boolean text(String text) {
+            if (truncated) return false;
+            for (int ii = 0; ii < text.length(); ii++) {
+                if (json.length() >= limit) {
+                    truncated = true;
+                    json.append("\\n\\t... trace truncated");
+                    return false;
+                }
+                char c = text.charAt(ii);
+                switch (c) {
+                    case '"':  json.append("\\\""); break;
+                    case '\\': json.append("\\\\"); break;
+                    case '\n': json.append("\\n"); break;
+                    case '\r': json.append("\\r"); break;
+                    case '\t': json.append("\\t"); break;
+                    case '\b': json.append("\\b"); break;
+                    case '\f': json.append("\\f"); break;
+                    default:
+                        if (c < 0x20) {
+                            json.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                        } else {
+                            json.append(c);
+                        }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * First time a fingerprint was written whole in the current window
+     */
+    private static final class Occurrence {
+        private final long firstMillis;
+        private final AtomicLong repeated = new AtomicLong();
+
+        private Occurrence(long firstMillis) {
+            this.firstMillis = firstMillis;
+        }
+    }
+}
@@ -6,8 +6,11 @@ import mk.coco.ecs.credentials.MySecrets;
 import mk.coco.ecs.services.common.SemaasService;
 import mk.coco.ecs.services.common.SupportedServices;
 
+import java.util.concurrent.CompletableFuture;
+
 import static mk.coco.ecs.restcontent.RestContent.RequestType;
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestAsync;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/pushsub/documentation/05-api-clientsdk/api-http-v1
@@ -18,10 +21,11 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class PsiService extends SemaasService {
 
-    @Getter private String messeges;
-    @Getter private String stores;
-    @Getter private String subscriptions;
-    @Getter private String topics;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String messeges;
+    @Getter private volatile String stores;
+    @Getter private volatile String subscriptions;
+    @Getter private volatile String topics;
 
     // Constructor
 
@@ -68,7 +72,7 @@ public class PsiService extends SemaasService {
      */
     public String getMessage(String messageId) throws Exception {
         return request(
-                urls.buildNsServiceURL(messeges + urls.getSlash() + messageId),
+                urls.nsTemplate().expand(messeges, urls.getSlash(), messageId),
                 "", cred, RequestType.GET);
     }
 
@@ -79,7 +83,7 @@ public class PsiService extends SemaasService {
      */
     public String listMessage() throws Exception {
         return request(
-                urls.buildNsServiceURL(messeges),
+                urls.nsTemplate().expand(messeges),
                 "", cred, RequestType.GET);
     }
 
@@ -91,7 +95,7 @@ public class PsiService extends SemaasService {
      */
     public String getStore(String storeId) throws Exception {
         return request(
-                urls.buildNsServiceURL(stores + urls.getSlash() + storeId),
+                urls.nsTemplate().expand(stores, urls.getSlash(), storeId),
                 "", cred, RequestType.GET);
     }
 
@@ -102,7 +106,7 @@ public class PsiService extends SemaasService {
      */
     public String listStore() throws Exception {
         return request(
-                urls.buildNsServiceURL(stores),
+                urls.nsTemplate().expand(stores),
                 "", cred, RequestType.GET);
     }
 
@@ -115,7 +119,7 @@ public class PsiService extends SemaasService {
      */
     public String getSubscription(String topicId,String subscriptionId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + subscriptions + urls.getSlash() + subscriptionId),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, subscriptions, urls.getSlash(), subscriptionId),
                 "", cred, RequestType.GET);
     }
 
@@ -127,7 +131,7 @@ public class PsiService extends SemaasService {
      */
     public String listSubscription(String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + subscriptions),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, subscriptions),
                 "", cred, RequestType.GET);
     }
 
@@ -139,7 +143,7 @@ public class PsiService extends SemaasService {
      */
     public String getTopic(String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId),
                 "", cred, RequestType.GET);
     }
 
@@ -150,7 +154,7 @@ public class PsiService extends SemaasService {
      */
     public String listTopic() throws Exception {
         return request(
-                urls.buildNsServiceURL(topics),
+                urls.nsTemplate().expand(topics),
                 "", cred, RequestType.GET);
     }
 
@@ -183,7 +187,7 @@ public class PsiService extends SemaasService {
      */
     public String createMessage(String body) throws Exception {
         return request(
-                urls.buildNsServiceURL(messeges),
+                urls.nsTemplate().expand(messeges),
                 body, cred, RequestType.POST);
     }
 
@@ -217,7 +221,7 @@ public class PsiService extends SemaasService {
      */
     public String createStore(String body) throws Exception {
         return request(
-                urls.buildNsServiceURL(stores),
+                urls.nsTemplate().expand(stores),
                 body, cred, RequestType.POST);
     }
 
@@ -253,7 +257,7 @@ public class PsiService extends SemaasService {
      */
     public String createSubscription(String body, String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + subscriptions),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, subscriptions),
                 body, cred, RequestType.POST);
     }
 
@@ -267,7 +271,7 @@ public class PsiService extends SemaasService {
      */
     private String manageSubscription(String topicId, String subscriptionId, String append) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + subscriptions + urls.getSlash() + subscriptionId + urls.getColon() + append),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, subscriptions, urls.getSlash(), subscriptionId, urls.getColon(), append),
                 "", cred, RequestType.POST);
     }
 
@@ -327,7 +331,7 @@ public class PsiService extends SemaasService {
      */
     public String createTopic(String body) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics),
+                urls.nsTemplate().expand(topics),
                 body, cred, RequestType.POST);
     }
 
@@ -340,7 +344,19 @@ public class PsiService extends SemaasService {
      */
     public String publishMessageInTopic(String body, String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + urls.getColon() + "publishMessage"),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, urls.getColon(), "publishMessage"),
+                body, cred, RequestType.POST);
+    }
+
+    /** Escribe en un tópic sin bloquear el hilo que llama
+     *
+     * @param body Body de la llamada API REST
+     * @param topicId Id del topic
+     * @return Future con "Http code 204: successful request but no response from server"
+     */
+    public CompletableFuture<String> publishMessageInTopicAsync(String body, String topicId) {
+        return requestAsync(
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, urls.getColon(), "publishMessage"),
                 body, cred, RequestType.POST);
     }
 
@@ -353,7 +369,19 @@ public class PsiService extends SemaasService {
      */
     public String publishMessageBatchInTopic(String body, String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + urls.getColon() + "publishMessageBatch"),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, urls.getColon(), "publishMessageBatch"),
+                body, cred, RequestType.POST);
+    }
+
+    /** Escribe en batch en un tópic sin bloquear el hilo que llama
+     *
+     * @param body Body de la llamada API REST
+     * @param topicId Id del topic
+     * @return Future con el numero de mensajes escritos y número de mensajes fallados
+     */
+    public CompletableFuture<String> publishMessageBatchInTopicAsync(String body, String topicId) {
+        return requestAsync(
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, urls.getColon(), "publishMessageBatch"),
                 body, cred, RequestType.POST);
     }
 
@@ -367,7 +395,7 @@ public class PsiService extends SemaasService {
      */
     public String deleteMessage(String messageId) throws Exception {
         return request(
-                urls.buildNsServiceURL(messeges + urls.getSlash() + messageId),
+                urls.nsTemplate().expand(messeges, urls.getSlash(), messageId),
                 "", cred, RequestType.DELETE);
     }
 
@@ -379,7 +407,7 @@ public class PsiService extends SemaasService {
      */
     public String deleteStore(String storeId) throws Exception {
         return request(
-                urls.buildNsServiceURL(stores + urls.getSlash() + storeId),
+                urls.nsTemplate().expand(stores, urls.getSlash(), storeId),
                 "", cred, RequestType.DELETE);
     }
 
@@ -392,7 +420,7 @@ public class PsiService extends SemaasService {
      */
     public String deleteSubscription(String topicId, String subscriptionId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId + subscriptions + urls.getSlash() + subscriptionId),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId, subscriptions, urls.getSlash(), subscriptionId),
                 "", cred, RequestType.DELETE);
     }
 
@@ -404,7 +432,7 @@ public class PsiService extends SemaasService {
      */
     public String deleteTopic(String topicId) throws Exception {
         return request(
-                urls.buildNsServiceURL(topics + urls.getSlash() + topicId),
+                urls.nsTemplate().expand(topics, urls.getSlash(), topicId),
                 "", cred, RequestType.DELETE);
     }
 
@@ -1,14 +1,19 @@
 package mk.coco.ecs.services.rho;
 
 import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
 import mk.coco.ecs.services.common.SemaasService;
 import mk.coco.ecs.services.common.SupportedServices;
 
+import java.util.concurrent.CompletableFuture;
+
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import static mk.coco.ecs.restcontent.RestContent.RequestType;
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestAsync;
+import static mk.coco.ecs.restcontent.RestContent.requestStream;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/rho/documentation/api/traces-api-http-v1
@@ -17,9 +22,10 @@ import static mk.coco.ecs.restcontent.RestContent.request;
  */
 @Slf4j
 public class RhoService extends SemaasService {
-    @Getter private String spans;
-    @Getter private String traces;
-    @Getter private String trace;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String spans;
+    @Getter private volatile String traces;
+    @Getter private volatile String trace;
 
     // Constructor
 
@@ -62,10 +68,23 @@ public class RhoService extends SemaasService {
      */
     public String findSpans() throws Exception {
         return request(
-            urls.buildNsServiceURL(spans),
+            urls.nsTemplate().expand(spans),
                 "", cred, RequestType.GET);
     }
 
+    /**
+     *
+     * @param handler Consumes the raw JSON with all Spans in a namespace while it is received
+     * @param <T> Result of the handler
+     * @return Whatever the handler returns
+     * @throws Exception If request or handler fail
+     */
+    public <T> T findSpans(ResponseBodyHandler<T> handler) throws Exception {
+        return requestStream(
+            urls.nsTemplate().expand(spans),
+                "", cred, RequestType.GET, handler);
+    }
+
     /**
      *
      * @return All Traces in a namespace
@@ -73,7 +92,7 @@ public class RhoService extends SemaasService {
      */
     public String findTraces() throws Exception {
         return request(
-            urls.buildNsServiceURL(traces),
+            urls.nsTemplate().expand(traces),
                 "", cred, RequestType.GET);
     }
 
@@ -86,7 +105,7 @@ public class RhoService extends SemaasService {
      */
     public String loadSpan(String mrsName, String spanId) throws Exception {
         return request(
-                urls.buildNsServiceURL(urls.getMrs() + urls.getSlash() + mrsName + spans + urls.getSlash() + spanId),
+                urls.nsTemplate().expand(urls.getMrs(), urls.getSlash(), mrsName, spans, urls.getSlash(), spanId),
                 "", cred, RequestType.GET);
     }
 
@@ -99,7 +118,7 @@ public class RhoService extends SemaasService {
      */
     public String loadTrace(String mrsName, String traceId) throws Exception {
         return request(
-                urls.buildNsServiceURL(urls.getMrs() + urls.getSlash() + mrsName + traces + urls.getSlash() + traceId),
+                urls.nsTemplate().expand(urls.getMrs(), urls.getSlash(), mrsName, traces, urls.getSlash(), traceId),
                 "", cred, RequestType.GET);
     }
 
@@ -112,7 +131,7 @@ public class RhoService extends SemaasService {
      */
     public String loadSpanTrace(String mrsName, String spanId) throws Exception {
         return request(
-                urls.buildNsServiceURL(urls.getMrs() + urls.getSlash() + mrsName + spans + urls.getSlash() + spanId + urls.getColon() + trace),
+                urls.nsTemplate().expand(urls.getMrs(), urls.getSlash(), mrsName, spans, urls.getSlash(), spanId, urls.getColon(), trace),
                 "", cred, RequestType.GET);
     }
 
@@ -126,9 +145,21 @@ public class RhoService extends SemaasService {
      */
     public String createSpans(String body) throws Exception {
         return request(
-                urls.buildNsServiceURL(spans),
+                urls.nsTemplate().expand(spans),
                 body, cred, RequestType.POST);
     }
+
+    /** Create a Span from a Body without blocking the calling thread
+     *
+     * @param body Body to create Span
+     * @return Future with an empty String
+     */
+    public CompletableFuture<String> createSpansAsync(String body) {
+        return requestAsync(
+                urls.nsTemplate().expand(spans),
+                body, cred, RequestType.POST);
+    }
+
     /** Create a Span from a predefined Body
      *
      * @param spanName Span Name
@@ -0,0 +1,305 @@
+package mk.coco.ecs.services.rho;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Exports finished spans to Rho in batches: {@link #record} only stores the span in a ring buffer, and a background
+ * thread sends them through {@link RhoService#createSpans(String)}, up to {@link #getBatchSize()} spans per request.
+ *
+ * The ring is allocated once ({@link #getCapacity()} slots, columns of references and longs) and is lock free: a
+ * recording thread claims a slot with a single compare-and-set and publishes it through the sequence of the slot, so
+ * recording allocates nothing and never waits for the exporter. Spans recorded while the ring is full are dropped and
+ * counted ({@link #getSpansDropped()}).
+ *
+ * Spans are sent as soon as {@link #getBatchSize()} of them are waiting, or after {@link #getLingerMillis()}.
+ * {@link #close()} sends every recorded span before returning (or until {@link #getCloseTimeoutMillis()} elapses).
+ */
+@Slf4j
+public class RhoSpanExporter implements Closeable {
+
+    private static final AtomicInteger exporterCount = new AtomicInteger();
+    // Tail of a closed exporter, no position can be claimed from it
+    private static final long CLOSED_TAIL = -1;
+
+    @Getter private final RhoService rho;
+    @Getter private final int capacity;
+    @Getter private volatile int batchSize = 500;
+    @Getter private volatile long lingerMillis = TimeUnit.SECONDS.toMillis(1);
+    @Getter private volatile long closeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+
+    // Counters
+    private final LongAdder spansRecorded = new LongAdder();
+    private final LongAdder spansDropped = new LongAdder();
+    private final LongAdder spansExported = new LongAdder();
+    private final LongAdder spansFailed = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+
+    // Ring: slot ii holds the span of position p (p % capacity == ii) once sequences[ii] == p + 1, and is free for
+    // position p when sequences[ii] == p
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] names;
+    private final String[] mrIds;
+    private final String[] spanIds;
+    private final String[] traceIds;
+    private final long[] startDates;
+    private final long[] finishDates;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;         // Written holding body
+
+    private final Thread exporter;
+    private volatile boolean closed;
+    // Body of the request being sent, its lock is held while draining and sending
+    private final StringBuilder body = new StringBuilder(64 * 1024);
+
+    /**
+     * Returns a new RhoSpanExporter holding up to 8192 spans
+     *
+     * @param rho               Service used to send spans
+     */
+    public RhoSpanExporter(RhoService rho) {
+        this(rho, 8192);
+    }
+
+    /**
+     * Returns a new RhoSpanExporter
+     *
+     * @param rho               Service used to send spans
+     * @param capacity          Max spans waiting to be sent, rounded up to a power of two
+     */
+    public RhoSpanExporter(RhoService rho, int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        this.rho = rho;
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int ii = 0; ii < this.capacity; ii++) {
+            sequences.set(ii, ii);
+        }
+        this.names = new String[this.capacity];
+        this.mrIds = new String[this.capacity];
+        this.spanIds = new String[this.capacity];
+        this.traceIds = new String[this.capacity];
+        this.startDates = new long[this.capacity];
+        this.finishDates = new long[this.capacity];
+        exporter = new Thread(this::exportLoop, "mk-ecs-rho-exporter-" + exporterCount.incrementAndGet());
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+    // Setters
+
+    /**
+     * Sets the number of waiting spans that makes them be sent right away
+     * @param batchSize         Max spans per request, must be greater than 0
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("Batch size must be greater than 0");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets how long a span may wait to be sent
+     * @param linger            Linger, must be greater than 0
+     * @param unit              Unit of linger
+     */
+    public void setLinger(long linger, TimeUnit unit) {
+        if (linger <= 0) throw new IllegalArgumentException("Linger must be greater than 0");
+        this.lingerMillis = unit.toMillis(linger);
+        LockSupport.unpark(exporter);
+    }
+
+    /**
+     * Sets how long {@link #close()} waits for recorded spans to be sent
+     * @param timeout           Timeout, 0 or greater
+     * @param unit              Unit of timeout
+     */
+    public void setCloseTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) throw new IllegalArgumentException("Close timeout can't be negative");
+        this.closeTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    // Counters
+
+    public long getSpansRecorded() {return spansRecorded.sum();}    // Spans stored to be sent
+    public long getSpansDropped() {return spansDropped.sum();}      // Spans never sent as the ring was full or the exporter closed
+    public long getSpansExported() {return spansExported.sum();}    // Spans accepted by Rho
+    public long getSpansFailed() {return spansFailed.sum();}        // Spans in requests that failed
+    public long getRequestsSent() {return requestsSent.sum();}      // Requests made to Rho
+
+    // Usage
+
+    /**
+     * Records a finished span to be sent in a next request. Strings are kept as they are until sent
+     * @param spanName          Span Name
+     * @param mrsName           Monitored Resource Name
+     * @param spanId            Span Id
+     * @param traceId           Trace Id
+     * @param startDate         Start Date in nanoseconds
+     * @param finishDate        Finish Date in nanoseconds
+     * @return                  False if the span was dropped
+     */
+    public boolean record(String spanName, String mrsName, String spanId, String traceId, long startDate, long finishDate) {
+        if (closed) {
+            spansDropped.increment();
+            return false;
+        }
+        long position = tail.get();
+        int slot;
+        while (true) {
+            // Closed since the check above
+            if (position == CLOSED_TAIL) {
+                spansDropped.increment();
+                return false;
+            }
+            slot = (int) position & mask;
+            long free = sequences.get(slot) - position;
+            if (free == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+                position = tail.get();
+            } else if (free < 0) {
+                // Slot still holds the span of the previous lap
+                spansDropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        names[slot] = spanName;
+        mrIds[slot] = mrsName;
+        spanIds[slot] = spanId;
+        traceIds[slot] = traceId;
+        startDates[slot] = startDate;
+        finishDates[slot] = finishDate;
+        sequences.lazySet(slot, position + 1);
+        spansRecorded.increment();
+        if ((position + 1) % batchSize == 0) LockSupport.unpark(exporter);
+        return true;
+    }
+
+    /**
+     * Sends every recorded span, blocking until done. Only one thread sends at a time
+     */
+    public void flush() {
+        synchronized (body) {
+            export();
+        }
+    }
+
+    /**
+     * Stops accepting spans and sends the recorded ones, waiting up to {@link #getCloseTimeoutMillis()}
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        // Spans claimed from here on are dropped, so the ones before end are all that is left to send
+        long end = tail.getAndSet(CLOSED_TAIL);
+        LockSupport.unpark(exporter);
+        try {
+            exporter.join(closeTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (exporter.isAlive()) {
+            log.warn("Rho exporter closed with spans not sent.");
+            return;
+        }
+        // Spans published after the last flush of the exporter, by threads that saw it open
+        synchronized (body) {
+            while (head < end) {
+                // Claimed but not stored yet, its thread is about to publish it
+                if (export() == 0) Thread.yield();
+            }
+        }
+    }
+
+    // Exporting
+
+    private void exportLoop() {
+        long lingerStart = System.currentTimeMillis();
+        while (!closed) {
+            long waiting = tail.get() - head;
+            long now = System.currentTimeMillis();
+            if (waiting == 0) {
+                lingerStart = now;
+            } else if (waiting >= batchSize || now - lingerStart >= lingerMillis) {
+                long sent;
+                synchronized (body) {
+                    sent = export();
+                }
+                lingerStart = now;
+                // A span claimed but not stored yet holds back the ones after it, for a moment
+                if (sent == 0) LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            long wait = Math.max(1, lingerStart + lingerMillis - now);
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+        }
+        // Spans recorded right before closing are still sent
+        flush();
+        log.debug("Rho exporter closed: {} spans exported in {} requests, {} dropped, {} failed.",
+                getSpansExported(), getRequestsSent(), getSpansDropped(), getSpansFailed());
+    }
+
+    /**
+     * Sends the published spans in requests of up to batchSize spans, stopping at the first slot not published yet.
+     * Only called holding the lock of body
+     * @return                  Spans sent (or failed)
+     */
+    private long export() {
+        long sent = 0;
+        int spans;
+        while ((spans = drain(batchSize)) > 0) {
+            try {
+                requestsSent.increment();
+                rho.createSpans(body.toString());
+                spansExported.add(spans);
+            } catch (Exception e) {
+                log.error("There was an error sending {} spans to Rho.", spans, e);
+                spansFailed.add(spans);
+            }
+            sent += spans;
+        }
+        return sent;
+    }
+
+    /**
+     * Moves up to max spans from the ring into body, as a JSON array, freeing their slots
+     */
+    private int drain(int max) {
+        body.setLength(0);
+        body.append('[');
+        int spans = 0;
+        while (spans < max) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) break;
+            if (spans > 0) body.append(',');
+            body.append("{ \"name\": \"").append(StringEscapeUtils.escapeJava(names[slot]))
+                    .append("\", \"mrId\": \"").append(StringEscapeUtils.escapeJava(mrIds[slot]))
+                    .append("\", \"spanId\": \"").append(StringEscapeUtils.escapeJava(spanIds[slot]))
+                    .append("\", \"startDate\": ").append(startDates[slot])
+                    .append(", \"finishDate\": ").append(finishDates[slot])
+                    .append(", \"traceId\": \"").append(StringEscapeUtils.escapeJava(traceIds[slot])).append("\"}");
+            names[slot] = null;
+            mrIds[slot] = null;
+            spanIds[slot] = null;
+            traceIds[slot] = null;
+            sequences.lazySet(slot, head + capacity);
+            head++;
+            spans++;
+        }
+        body.append(']');
+        return spans;
+    }
+}
@@ -6,6 +6,7 @@ import mk.coco.ecs.services.common.SupportedServices;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -15,6 +16,7 @@ import org.apache.commons.text.StringEscapeUtils;
 
 import static mk.coco.ecs.restcontent.RestContent.RequestType;
 import static mk.coco.ecs.restcontent.RestContent.request;
+import static mk.coco.ecs.restcontent.RestContent.requestAsync;
 
 /**
  * Should implement all functionality from https://platform.bbva.com/en-us/developers/sigma/documentation/api/v0
@@ -24,11 +26,12 @@ import static mk.coco.ecs.restcontent.RestContent.request;
 @Slf4j
 public class SigmaService extends SemaasService {
 
-    @Getter private String alarmReceivers;
-    @Getter private String alarmTypes;
-    @Getter private String alarms;
-    @Getter private String alarmStatuses;
-    @Getter private String setStatus;
+    // Volatile: rewritten by reload() when the secret changes, while requests are being built
+    @Getter private volatile String alarmReceivers;
+    @Getter private volatile String alarmTypes;
+    @Getter private volatile String alarms;
+    @Getter private volatile String alarmStatuses;
+    @Getter private volatile String setStatus;
 
     public enum DefaultStatus {
         OK,
@@ -138,17 +141,31 @@ public class SigmaService extends SemaasService {
      * @throws Exception        If request fails
      */
     public String sendEmail(String message, DefaultStatus status, String overrideAlarmId) throws Exception {
-        urls.setServiceOption(alarms);
-        urls.setAction(setStatus);
-        urls.setOptionName(overrideAlarmId);
         String escapedMessage = StringEscapeUtils.escapeJava(message);
         String body = createAlertBody(status.toString(), escapedMessage);
-        String buildUrl = urls.buildActionDefaultURL();
+        String buildUrl = urls.actionTemplate(alarms, setStatus).expand(overrideAlarmId);
         log.debug("Sending email to " + buildUrl + " with body " + body);
 
         return request(buildUrl, body, cred, RequestType.POST);
     }
 
+    /**
+     * Same as {@link #sendEmail(String, DefaultStatus, String)}, without blocking the calling thread
+     *
+     * @param message           Message to be sent
+     * @param status            Alarm status
+     * @param overrideAlarmId   Overrides default alarmId
+     * @return                  Future with the request response
+     */
+    public CompletableFuture<String> sendEmailAsync(String message, DefaultStatus status, String overrideAlarmId) {
+        String escapedMessage = StringEscapeUtils.escapeJava(message);
+        String body = createAlertBody(status.toString(), escapedMessage);
+        String buildUrl = urls.actionTemplate(alarms, setStatus).expand(overrideAlarmId);
+        log.debug("Sending email asynchronously to " + buildUrl + " with body " + body);
+
+        return requestAsync(buildUrl, body, cred, RequestType.POST);
+    }
+
     /**
      * gets info about sigma service
      * @return              Info in a JSON format
@@ -166,8 +183,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmsReceivers() throws Exception {
-        urls.setServiceOption(alarmReceivers);
-        return request(urls.buildCommonServiceURL(), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarmReceivers).expand(), "", cred, RequestType.GET);
     }
 
     /**
@@ -177,8 +193,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmReceiver(String id) throws Exception {
-        urls.setServiceOption(alarmReceivers);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarmReceivers).expand(urls.getSlash(), id), "", cred, RequestType.GET);
     }
 
     /**
@@ -191,8 +206,7 @@ public class SigmaService extends SemaasService {
      */
     public String createAlarmReceiver(String id, AlarmReceiverKinds kind, String receiver) throws Exception {
         String body = createAlarmReceiverBody(id, kind, receiver);
-        urls.setServiceOption(alarmReceivers);
-        return request(urls.buildCommonServiceURL(), body, cred, RequestType.POST);
+        return request(urls.commonTemplate(alarmReceivers).expand(), body, cred, RequestType.POST);
     }
 
     /**
@@ -202,8 +216,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String deleteAlarmReceiver(String id) throws Exception {
-        urls.setServiceOption(alarmReceivers);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.DELETE);
+        return request(urls.commonTemplate(alarmReceivers).expand(urls.getSlash(), id), "", cred, RequestType.DELETE);
     }
 
     /**
@@ -214,9 +227,7 @@ public class SigmaService extends SemaasService {
      */
     public String enableNsAlarmReceiver(AlarmReceiverKinds kind) throws Exception {
         String body = "{\"kind\": \"" + kind.toString() + "\"}";
-        urls.setServiceOption(alarmReceivers);
-        urls.setAction("enable");
-        return request(urls.buildCommonServiceURL(urls.getColon() + urls.getAction()), body, cred, RequestType.POST);
+        return request(urls.commonTemplate(alarmReceivers).expand(urls.getColon(), "enable"), body, cred, RequestType.POST);
     }
 
     /**
@@ -227,9 +238,7 @@ public class SigmaService extends SemaasService {
      */
     public String disableNsAlarmReceiver(AlarmReceiverKinds kind) throws Exception {
         String body = "{\"kind\": \"" + kind.toString() + "\"}";
-        urls.setServiceOption(alarmReceivers);
-        urls.setAction("disable");
-        return request(urls.buildCommonServiceURL(urls.getColon() + urls.getAction()), body, cred, RequestType.POST);
+        return request(urls.commonTemplate(alarmReceivers).expand(urls.getColon(), "disable"), body, cred, RequestType.POST);
     }
 
     // alarm type
@@ -240,8 +249,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmTypes() throws Exception {
-        urls.setServiceOption(alarmTypes);
-        return request(urls.buildCommonServiceURL(), "", cred, RequestType.POST);
+        return request(urls.commonTemplate(alarmTypes).expand(), "", cred, RequestType.POST);
     }
 
     /**
@@ -251,8 +259,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmType(String id) throws Exception {
-        urls.setServiceOption(alarmTypes);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarmTypes).expand(urls.getSlash(), id), "", cred, RequestType.GET);
     }
 
     /**
@@ -262,8 +269,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String deleteAlarmType(String id) throws Exception {
-        urls.setServiceOption(alarmTypes);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.DELETE);
+        return request(urls.commonTemplate(alarmTypes).expand(urls.getSlash(), id), "", cred, RequestType.DELETE);
     }
 
     /**
@@ -288,8 +294,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String createAlarmTypeWithBody(String id, String body) throws Exception {
-        urls.setServiceOption(alarmTypes);
-        return request(urls.buildCommonServiceURL(), body, cred, RequestType.POST);
+        return request(urls.commonTemplate(alarmTypes).expand(), body, cred, RequestType.POST);
     }
 
     // alarms
@@ -300,8 +305,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarms() throws Exception {
-        urls.setServiceOption(alarms);
-        return request(urls.buildCommonServiceURL(), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarms).expand(), "", cred, RequestType.GET);
     }
 
     /**
@@ -311,8 +315,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarm(String id) throws Exception {
-        urls.setServiceOption(alarms);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarms).expand(urls.getSlash(), id), "", cred, RequestType.GET);
     }
 
     /**
@@ -327,9 +330,8 @@ public class SigmaService extends SemaasService {
      * @throws Exception            If request fails
      */
     public String createAlarm(String id, String alarmType, boolean enabled, String monitoredResource, String description, String group) throws Exception {
-        urls.setServiceOption(alarms);
         String body = createSimpleAlarmBody(id, alarmType, enabled, monitoredResource, description, group);
-        return request(urls.buildCommonServiceURL(), body, cred, RequestType.POST);
+        return request(urls.commonTemplate(alarms).expand(), body, cred, RequestType.POST);
     }
 
     /**
@@ -339,8 +341,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String deleteAlarm(String id) throws Exception {
-        urls.setServiceOption(alarms);
-        return request(urls.buildCommonServiceURL(urls.getSlash() + id), "", cred, RequestType.DELETE);
+        return request(urls.commonTemplate(alarms).expand(urls.getSlash(), id), "", cred, RequestType.DELETE);
     }
 
     /**
@@ -351,11 +352,8 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String setEnabledAlarmTo(String id, boolean setTo) throws Exception {
-        urls.setServiceOption(alarms);
-        urls.setOptionName(id);
-        urls.setAction("setEnabled");
         String body = "{\"enabled\": " + setTo + "}";
-        return request(urls.buildActionDefaultURL(), body, cred, RequestType.POST);
+        return request(urls.actionTemplate(alarms, "setEnabled").expand(id), body, cred, RequestType.POST);
     }
 
     /**
@@ -365,15 +363,12 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String resetAlarmStatusElapsedTime(String id) throws Exception {
-        urls.setServiceOption(alarms);
-        urls.setOptionName(id);
-        urls.setAction("resetStatusElapsedTime");
         String body = "{\"statuses\": [\"" +
                 Stream.of(DefaultStatus.values())
                 .map(Enum::name)
                 .collect(Collectors.joining("\", \""))
                 + "\"]}";
-        return request(urls.buildActionDefaultURL(), body, cred, RequestType.POST);
+        return request(urls.actionTemplate(alarms, "resetStatusElapsedTime").expand(id), body, cred, RequestType.POST);
     }
 
     /**
@@ -382,13 +377,12 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmCount() throws Exception {
-        urls.setServiceOption(alarms);
         String body = "{\"statuses\": [\"" +
                 Stream.of(DefaultStatus.values())
                 .map(Enum::name)
                 .collect(Collectors.joining("\", \""))
                 + "\"]}";
-        return request(urls.buildCommonServiceURL(urls.getSlash() + "count"), body, cred, RequestType.GET);
+        return request(urls.commonTemplate(alarms).expand(urls.getSlash(), "count"), body, cred, RequestType.GET);
     }
 
     /**
@@ -397,8 +391,7 @@ public class SigmaService extends SemaasService {
      * @throws Exception    If request fails
      */
     public String getAlarmStatusHistory() throws Exception {
-        urls.setServiceOption(alarmStatuses);
-        return request(urls.buildCommonServiceURL(), "", cred, RequestType.GET);
+        return request(urls.commonTemplate(alarmStatuses).expand(), "", cred, RequestType.GET);
     }
 
     // Unification
@@ -1,11 +1,14 @@
 package mk.coco.ecs.services.unification;
 
+import mk.coco.ecs.restcontent.HttpStatusException;
 import mk.coco.ecs.services.crm.CrmService;
 import mk.coco.ecs.services.monitoredresource.MonitoredResourceService;
+import mk.coco.ecs.services.mu.MuProvisioner;
 import mk.coco.ecs.services.mu.MuService;
 import mk.coco.ecs.services.sigma.SigmaService;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -73,6 +76,97 @@ public class UnificationService {
         return  responses.toString();
     }
 
+    /**
+     * Same as {@link #createMetricAndAllRequirements}, creating the monitored resource type, monitored resource, metric,
+     * metric set type and metric set only if they do not exist, so it can run on every start of many processes
+     *
+     * @param provisioner               Provisioner of Mu, shared by the callers to list existing ids once
+     * @param mrsTypeID                 Monitored resource type ID
+     * @param monitoredResourceID       Monitored resource ID
+     * @param metricID                  Metric ID
+     * @param dataType                  Datatype of the metric
+     * @param dataUnit                  Dataunit of the metric
+     * @param metricDescription         Description of the metric
+     * @param metricSetTypeID           Metric set type ID
+     * @param metricsSpecName           Metric spec name
+     * @param metricSetID               Metric set ID
+     * @return                          All responses from server
+     * @throws Exception                If any connection is not possible
+     */
+    public String createMetricAndAllRequirements(
+            MuProvisioner provisioner,
+            String mrsTypeID,
+            String monitoredResourceID,
+            String metricID,
+            String dataType,
+            String dataUnit,
+            String metricDescription,
+            String metricSetTypeID,
+            String metricsSpecName,
+            String metricSetID
+    ) throws Exception {
+        StringBuilder responses = new StringBuilder();
+
+        MonitoredResourceService mrs = new MonitoredResourceService();
+
+        responses.append("Metric creation responses:");
+
+        // 1 - Create monitored resource type, unless it exists
+        responses.append("Create MRType responses:");
+        responses.append(createUnlessExists(() -> mrs.getMonitorResourcesType(mrsTypeID),
+                () -> mrs.createDefaultMonitorResourceType(mrsTypeID)));
+
+        // 2 - Create monitored resource, unless it exists
+        responses.append("Create MR responses:");
+        String mrsType_path = mrs.getMonitoredResourceTypePath(mrsTypeID);
+        responses.append(createUnlessExists(() -> mrs.getMonitorResources(monitoredResourceID),
+                () -> mrs.createMonitorResourceFromTypePath(monitoredResourceID, mrsType_path)));
+
+        // 3 - Provision metric
+        String monitoredResourcePath = mrs.getMonitoredResourcePath(monitoredResourceID);
+        responses.append(provisioner.provisionMetricFullProcess(monitoredResourcePath, metricID, dataType, dataUnit,
+                metricDescription, metricSetTypeID, metricsSpecName, metricSetID));
+
+        return  responses.toString();
+    }
+
+    /**
+     * Runs "create" unless "get" finds what it creates. A creation that fails counts as done if "get" finds it afterwards
+     * (i.e. created by another process meanwhile)
+     *
+     * @param get                       Gets the resource, failing with a 404 if it does not exist
+     * @param create                    Creates the resource
+     * @return                          Response of the creation, or "exists"
+     * @throws Exception                If the resource does not exist and could not be created
+     */
+    private static String createUnlessExists(Callable<String> get, Callable<String> create) throws Exception {
+        if (exists(get)) return "exists";
+        try {
+            return create.call();
+        } catch (Exception e) {
+            boolean createdMeanwhile;
+            try {
+                createdMeanwhile = exists(get);
+            } catch (Exception other) {
+                e.addSuppressed(other);
+                throw e;
+            }
+            if (!createdMeanwhile) throw e;
+            log.debug("Resource was created meanwhile, creation failed with {}", e.toString());
+            return "exists";
+        }
+    }
+
+    private static boolean exists(Callable<String> get) throws Exception {
+        try {
+            get.call();
+            return true;
+        } catch (HttpStatusException e) {
+            if (e.getStatusCode() == 404) return false;
+            throw e;
+        }
+    }
+
     // MONITORED RESOURCE & SIGMA               -----------------------------------------------------------------------------------------------
 
     /**
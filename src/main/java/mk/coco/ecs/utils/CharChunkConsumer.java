@@ -0,0 +1,19 @@
+package mk.coco.ecs.utils;
+
+import java.nio.CharBuffer;
+
+/**
+ * Receives decoded text in chunks, see {@link FileUtils#decodeChunks}
+ */
+@FunctionalInterface
+public interface CharChunkConsumer {
+
+    /**
+     * Consumes a chunk of decoded chars. The buffer is reused for the next chunk, so its content must be copied or
+     * processed before returning.
+     *
+     * @param chunk         Decoded chars, ready to be read
+     * @throws Exception    If the chunk can't be consumed
+     */
+    void accept(CharBuffer chunk) throws Exception;
+}
@@ -5,12 +5,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 
 public class FileUtils {
 
+    private static final int CHUNK_SIZE = 8192;
+
+    // One UTF-8 decoder per thread, taken while in use so reentrant calls get their own
+    private static final ThreadLocal<CharsetDecoder> utf8Decoder = new ThreadLocal<>();
+
     private FileUtils() {
         // Avoid class instantiation
     }
@@ -52,4 +63,70 @@ public class FileUtils {
         return sb.toString();
     }
 
-}
\ No newline at end of file
+    /**
+     * Decodes an input stream into chunks of chars without materialising the whole content, so memory stays flat
+     * whatever the size of the stream. Line separators and any other char are kept as they are.
+     *
+     * @param inputStream   Stream to decode (not closed by this method)
+     * @param charset       Charset of the stream
+     * @param consumer      Receives each decoded chunk
+     * @throws Exception    On read failure, or if the consumer fails
+     */
+    public static void decodeChunks(InputStream inputStream, Charset charset, CharChunkConsumer consumer) throws Exception {
+        CharsetDecoder decoder = takeDecoder(charset);
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+            boolean endOfInput = false;
+
+            while (!endOfInput) {
+                int read = inputStream.read(bytes.array(), bytes.position(), bytes.remaining());
+                if (read < 0) {
+                    endOfInput = true;
+                } else {
+                    bytes.position(bytes.position() + read);
+                }
+
+                bytes.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, endOfInput);
+                    if (result.isOverflow() || chars.position() > 0) emit(chars, consumer);
+                } while (result.isOverflow());
+                bytes.compact();
+            }
+
+            while (decoder.flush(chars).isOverflow()) {
+                emit(chars, consumer);
+            }
+            emit(chars, consumer);
+        } finally {
+            returnDecoder(charset, decoder);
+        }
+    }
+
+    private static void emit(CharBuffer chars, CharChunkConsumer consumer) throws Exception {
+        if (chars.position() == 0) return;
+        chars.flip();
+        consumer.accept(chars);
+        chars.clear();
+    }
+
+    private static CharsetDecoder takeDecoder(Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            CharsetDecoder decoder = utf8Decoder.get();
+            if (decoder != null) {
+                utf8Decoder.remove();
+                return decoder.reset();
+            }
+        }
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void returnDecoder(Charset charset, CharsetDecoder decoder) {
+        if (StandardCharsets.UTF_8.equals(charset)) utf8Decoder.set(decoder);
+    }
+
+}
@@ -3,16 +3,29 @@ package mk.coco.ecs.utils;
 import mk.coco.ecs.credentials.MySecrets;
 import mk.coco.ecs.services.common.SupportedServices;
 
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * If override URLs are defined, they are used instead of using parameters from methods to create urls
+ *
+ * Services build their urls from the immutable templates returned by {@link #nsTemplate()},
+ * {@link #commonTemplate(String)} and {@link #actionTemplate(String, String)}, so a service instance can be shared by
+ * any number of threads. Templates are cached and rebuilt when any url parameter changes. serviceOption, optionName and
+ * action (and the build* methods using them) are kept for compatibility, but they are not thread safe.
  */
 public class URLs {
 
     private MySecrets sec = new MySecrets();
     private String serv;
+    // Last value read from secrets for each key, to tell values set in code from values loaded from secrets
+    private final Map<String, String> loadedValues = new ConcurrentHashMap<>();
+    // Templates by kind and endpoint, replaced every time a parameter used to build them changes
+    private volatile Templates templates = new Templates();
 
     // Constant parameters - shall not be changed in code
     @Getter @Setter private final String crt;
@@ -27,8 +40,8 @@ public class URLs {
     @Getter private final String slash = "/";
     @Getter private final String https = "https://";
     @Getter private final String dotUrlDot = dot + url + dot ;
-    @Getter @Setter final String serviceUrlName;
-    @Getter @Setter final String ns;
+    @Getter volatile String serviceUrlName;
+    @Getter volatile String ns;
 
     // Parameters which MUST be modified in code
     @Getter @Setter private String serviceOption = "";
@@ -36,19 +49,19 @@ public class URLs {
     @Getter @Setter private String action = "";
 
     // Parameters which can be modified in code
-    @Getter @Setter private String from;
-    @Getter @Setter private String zone;
-    @Getter @Setter private String version;
-    @Getter @Setter private String namespace;
-    @Getter @Setter private String mrs;
+    @Getter private volatile String from;
+    @Getter private volatile String zone;
+    @Getter private volatile String version;
+    @Getter private volatile String namespace;
+    @Getter @Setter private volatile String mrs;
 
     // Urls used to override "dynamic" construction
-    @Getter @Setter private String overrideServiceBaseAddressUrl;   // https://sigma.work-01.platform.bbva.com/
-    @Getter @Setter private String overrideServiceVersionYNsURL;
-    @Getter @Setter private String overrideNsServiceUrl;            // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/
-    @Getter @Setter private String overrideCommonServiceUrl;        // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/
-    @Getter @Setter private String overrideActionServiceUrl;        // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/id_alarm:setStatus
-    @Getter @Setter private String overrideServiceFullUrl;          // https://any-url Will override all, if this is set, it will be used over any other
+    @Getter private volatile String overrideServiceBaseAddressUrl;   // https://sigma.work-01.platform.bbva.com/
+    @Getter private volatile String overrideServiceVersionYNsURL;
+    @Getter private volatile String overrideNsServiceUrl;            // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/
+    @Getter private volatile String overrideCommonServiceUrl;        // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/
+    @Getter private volatile String overrideActionServiceUrl;        // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/id_alarm:setStatus
+    @Getter private volatile String overrideServiceFullUrl;          // https://any-url Will override all, if this is set, it will be used over any other
 
     public URLs(SupportedServices service, String secretName) {
         this.serv = service.toString().toLowerCase();
@@ -57,13 +70,28 @@ public class URLs {
         crt = ecs + dot + "crt";         // cert
         pk = ecs + dot + "pk";           // key
 
-        ns = sec.readValueFromSecretWithKey(secretName,ecs + dot + url + dot + "ns");                           // "/ns"
-        from = sec.readValueFromSecretWithKey(secretName,ecs + dot + url + dot + "typeofaccess");               // serverFromOutside
-        zone = sec.readValueFromSecretWithKey(secretName,ecs + dot + url + dot + "zone");                       // "work-01"
-        namespace = sec.readValueFromSecretWithKey(secretName,ecs + dot + url + dot + "namespace");             // "user.xe81235"
-        mrs = sec.readValueFromSecretWithKey(secretName,ecs + dot + url + dot + "mrs");                         // "/mrs"
-        serviceUrlName = sec.readValueFromSecretWithKey(secretName,serv + dot + url + dot + "serviceUrlName");  // "sigma"
-        version = sec.readValueFromSecretWithKey(secretName,serv + dot + url + dot + "version");                // "v0"
+        reload();
+    }
+
+    /**
+     * Reads again url parameters from secrets (i.e. after the secret changed). Parameters modified in code keep their
+     * value, the rest take the one in the secret
+     */
+    public void reload() {
+        ns = reloadValue(ns, ecs + dot + url + dot + "ns");                                   // "/ns"
+        from = reloadValue(from, ecs + dot + url + dot + "typeofaccess");                     // serverFromOutside
+        zone = reloadValue(zone, ecs + dot + url + dot + "zone");                             // "work-01"
+        namespace = reloadValue(namespace, ecs + dot + url + dot + "namespace");              // "user.xe81235"
+        mrs = reloadValue(mrs, ecs + dot + url + dot + "mrs");                                // "/mrs"
+        serviceUrlName = reloadValue(serviceUrlName, serv + dot + url + dot + "serviceUrlName");  // "sigma"
+        version = reloadValue(version, serv + dot + url + dot + "version");                  // "v0"
+        invalidateTemplates();
+    }
+
+    private String reloadValue(String current, String key) {
+        String value = sec.readValueFromSecretWithKey(secretName, key);
+        String previous = loadedValues.put(key, value);
+        return (previous == null || Objects.equals(current, previous)) ? value : current;
     }
 
     public void setDefaultUrlsToNull() {
@@ -73,66 +101,228 @@ public class URLs {
         overrideNsServiceUrl = null;
         overrideActionServiceUrl = null;
         overrideServiceFullUrl = null;
+        invalidateTemplates();
+    }
+
+    // Setters of parameters used by templates
+
+    public void setServiceUrlName(String serviceUrlName) {
+        this.serviceUrlName = serviceUrlName;
+        invalidateTemplates();
+    }
+
+    public void setNs(String ns) {
+        this.ns = ns;
+        invalidateTemplates();
+    }
+
+    public void setFrom(String from) {
+        this.from = from;
+        invalidateTemplates();
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+        invalidateTemplates();
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+        invalidateTemplates();
+    }
+
+    public void setNamespace(String namespace) {
+        this.namespace = namespace;
+        invalidateTemplates();
+    }
+
+    public void setOverrideServiceBaseAddressUrl(String overrideServiceBaseAddressUrl) {
+        this.overrideServiceBaseAddressUrl = overrideServiceBaseAddressUrl;
+        invalidateTemplates();
+    }
+
+    public void setOverrideServiceVersionYNsURL(String overrideServiceVersionYNsURL) {
+        this.overrideServiceVersionYNsURL = overrideServiceVersionYNsURL;
+        invalidateTemplates();
+    }
+
+    public void setOverrideNsServiceUrl(String overrideNsServiceUrl) {
+        this.overrideNsServiceUrl = overrideNsServiceUrl;
+        invalidateTemplates();
+    }
+
+    public void setOverrideCommonServiceUrl(String overrideCommonServiceUrl) {
+        this.overrideCommonServiceUrl = overrideCommonServiceUrl;
+        invalidateTemplates();
+    }
+
+    public void setOverrideActionServiceUrl(String overrideActionServiceUrl) {
+        this.overrideActionServiceUrl = overrideActionServiceUrl;
+        invalidateTemplates();
+    }
+
+    public void setOverrideServiceFullUrl(String overrideServiceFullUrl) {
+        this.overrideServiceFullUrl = overrideServiceFullUrl;
+        invalidateTemplates();
     }
 
     // Set default urls from secrets
 
     public void setOverrideServiceAddressUrlFromSecrets(String overrideServiceAddressUrl) {
-        this.overrideServiceBaseAddressUrl = sec.readValueFromSecretWithKey(secretName,overrideServiceAddressUrl);
+        setOverrideServiceBaseAddressUrl(sec.readValueFromSecretWithKey(secretName,overrideServiceAddressUrl));
     }
 
     public void setOverrideActionServiceUrlSecrets(String overrideActionServiceUrl) {
-        this.overrideActionServiceUrl = sec.readValueFromSecretWithKey(secretName,overrideActionServiceUrl);
+        setOverrideActionServiceUrl(sec.readValueFromSecretWithKey(secretName,overrideActionServiceUrl));
     }
 
     public void setOverrideNsServiceUrlSecrets(String overrideNsServiceUrl) {
-        this.overrideNsServiceUrl = sec.readValueFromSecretWithKey(secretName,overrideNsServiceUrl);
+        setOverrideNsServiceUrl(sec.readValueFromSecretWithKey(secretName,overrideNsServiceUrl));
     }
 
     public void setOverrideServiceFullUrlSecrets(String overrideServiceFullUrl) {
-        this.overrideServiceFullUrl = sec.readValueFromSecretWithKey(secretName,overrideServiceFullUrl);
+        setOverrideServiceFullUrl(sec.readValueFromSecretWithKey(secretName,overrideServiceFullUrl));
     }
 
     public void setDefaultCommonUrlFromSecrets(String defaultCommonAlarmUrl) {
-        this.overrideCommonServiceUrl = sec.readValueFromSecretWithKey(secretName,defaultCommonAlarmUrl);
+        setOverrideCommonServiceUrl(sec.readValueFromSecretWithKey(secretName,defaultCommonAlarmUrl));
+    }
+
+    // Immutable templates, safe to use from any thread
+
+    private void invalidateTemplates() {
+        // New maps, so templates being built from old parameters right now are not kept
+        templates = new Templates();
+    }
+
+    private static UrlTemplate cache(Map<String, UrlTemplate> cached, String key, UrlTemplate template) {
+        UrlTemplate previous = cached.putIfAbsent(key, template);
+        return (previous == null) ? template : previous;
+    }
+
+    private UrlTemplate baseTemplate() {
+        Templates current = templates;
+        UrlTemplate template = current.base;
+        if (template == null) {
+            if (overrideServiceFullUrl != null) template = UrlTemplate.fixed(overrideServiceFullUrl);
+            else template = (overrideServiceBaseAddressUrl == null)
+                    ? UrlTemplate.of(https + serviceUrlName + dot + zone + dot + from + slash)
+                    : UrlTemplate.fixed(overrideServiceBaseAddressUrl);
+            current.base = template;
+        }
+        return template;
+    }
+
+    private UrlTemplate versionYNsTemplate() {
+        Templates current = templates;
+        UrlTemplate template = current.versionYNs;
+        if (template == null) {
+            if (overrideServiceFullUrl != null) template = UrlTemplate.fixed(overrideServiceFullUrl);
+            else template = (overrideServiceVersionYNsURL == null)
+                    ? UrlTemplate.of(baseTemplate().getPrefix() + version + ns + slash)
+                    : UrlTemplate.fixed(overrideServiceVersionYNsURL);
+            current.versionYNs = template;
+        }
+        return template;
+    }
+
+    /**
+     * Template of urls under the namespace                     https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235 + segments
+     * @return              Same url as {@link #buildNsServiceURL(String)} once expanded
+     */
+    public UrlTemplate nsTemplate() {
+        Templates current = templates;
+        UrlTemplate template = current.ns;
+        if (template == null) {
+            if (overrideServiceFullUrl != null) template = UrlTemplate.fixed(overrideServiceFullUrl);
+            else template = (overrideNsServiceUrl == null)
+                    ? UrlTemplate.of(baseTemplate().getPrefix() + version + ns + slash + namespace)
+                    : UrlTemplate.fixed(overrideNsServiceUrl);
+            current.ns = template;
+        }
+        return template;
+    }
+
+    /**
+     * Template of urls of an endpoint                          https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms + segments
+     * @param serviceOption Endpoint under the namespace (i.e. alarms)
+     * @return              Same url as {@link #buildCommonServiceURL(String)} with that serviceOption once expanded
+     */
+    public UrlTemplate commonTemplate(String serviceOption) {
+        Templates current = templates;
+        UrlTemplate template = current.common.get(serviceOption);
+        if (template != null) return template;
+
+        if (overrideServiceFullUrl != null) template = UrlTemplate.fixed(overrideServiceFullUrl);
+        else template = (overrideCommonServiceUrl == null)
+                ? UrlTemplate.of(nsTemplate().getPrefix() + slash + serviceOption)
+                : UrlTemplate.fixed(overrideCommonServiceUrl);
+        return cache(current.common, serviceOption, template);
+    }
+
+    /**
+     * Template of urls of an action on an element of an endpoint, expanded with the id of the element
+     *                                                          https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/ + id + :setStatus
+     * @param serviceOption Endpoint under the namespace (i.e. alarms)
+     * @param action        Action (i.e. setStatus)
+     * @return              Same url as {@link #buildActionDefaultURL()} with that serviceOption, optionName and action
+     *                      once expanded with the optionName
+     */
+    public UrlTemplate actionTemplate(String serviceOption, String action) {
+        Templates current = templates;
+        Map<String, UrlTemplate> actions = current.actions.get(serviceOption);
+        if (actions == null) actions = current.actions.computeIfAbsent(serviceOption, key -> new ConcurrentHashMap<>());
+        UrlTemplate template = actions.get(action);
+        if (template != null) return template;
+
+        if (overrideServiceFullUrl != null) template = UrlTemplate.fixed(overrideServiceFullUrl);
+        else if (overrideActionServiceUrl != null) template = UrlTemplate.fixed(overrideActionServiceUrl);
+        else {
+            String commonUrl = (overrideCommonServiceUrl == null)
+                    ? nsTemplate().getPrefix() + slash + serviceOption
+                    : overrideCommonServiceUrl;
+            template = UrlTemplate.of(commonUrl + slash, colon + action);
+        }
+        return cache(actions, action, template);
+    }
+
+    /**
+     * Templates built from the current url parameters
+     */
+    private static final class Templates {
+        private volatile UrlTemplate base;
+        private volatile UrlTemplate versionYNs;
+        private volatile UrlTemplate ns;
+        private final Map<String, UrlTemplate> common = new ConcurrentHashMap<>();                  // by serviceOption
+        private final Map<String, Map<String, UrlTemplate>> actions = new ConcurrentHashMap<>();    // by serviceOption and action
     }
 
     // Get Urls "dynamically"
 
+    // Constant prefixes come from the cached templates, so only the append is copied on each call
+
     public String buildServiceBaseAddress(){return buildServiceBaseAddress("");}            // https://sigma.work-01.platform.bbva.com/ + append
     public String buildServiceBaseAddress(String append) {
-        if (overrideServiceFullUrl != null) {return overrideServiceFullUrl;}
-        return (overrideServiceBaseAddressUrl == null)
-        ? https + serviceUrlName + dot + zone + dot + from + slash + append
-        : overrideServiceBaseAddressUrl;
+        return baseTemplate().expand(append);
     }
     public String buildVersionYNsServiceURL(){return buildVersionYNsServiceURL("");}        // https://sigma.work-01.platform.bbva.com/v1/ns/ + append
     public String buildVersionYNsServiceURL(String append) {
-        if (overrideServiceFullUrl != null) {return overrideServiceFullUrl;}
-        return (overrideServiceVersionYNsURL == null)
-                ? buildServiceBaseAddress() + version + ns + slash + append
-                : overrideServiceVersionYNsURL;
+        return versionYNsTemplate().expand(append);
     }
     public String buildNsServiceURL(){return buildNsServiceURL("");}                        // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/ + append
     public String buildNsServiceURL(String append) {
-        if (overrideServiceFullUrl != null) {return overrideServiceFullUrl;}
-        return (overrideNsServiceUrl == null)
-            ? buildServiceBaseAddress() + version + ns + slash + namespace + append
-            : overrideNsServiceUrl;
+        return nsTemplate().expand(append);
     }
     public String buildCommonServiceURL(){return buildCommonServiceURL("");}                // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms + append
     public String buildCommonServiceURL(String append) {
-        if (overrideServiceFullUrl != null) {return overrideServiceFullUrl;}
-        return (overrideCommonServiceUrl == null)
-            ? buildNsServiceURL() + slash + serviceOption + append
-            : overrideCommonServiceUrl;
+        return commonTemplate(serviceOption).expand(append);
     }
     public String buildActionDefaultURL(){return buildActionDefaultURL("");}                // https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/id_alarm:setStatus + append
     public String buildActionDefaultURL(String append) {
-        if (overrideServiceFullUrl != null) {return overrideServiceFullUrl;}
-        return (overrideActionServiceUrl == null)
-        ? buildCommonServiceURL() + slash + optionName + colon + action + append
-        : overrideActionServiceUrl;
+        UrlTemplate template = actionTemplate(serviceOption, action);
+        return (template.isFixed() || append.isEmpty())
+                ? template.expand(optionName)
+                : template.expand(optionName) + append;
     }
 
 }
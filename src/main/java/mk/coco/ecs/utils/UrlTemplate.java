@@ -0,0 +1,81 @@
+package mk.coco.ecs.utils;
+
+import lombok.Getter;
+
+/**
+ * Immutable url of an endpoint: a prefix computed once, followed by the variable path segments given to
+ * {@link #expand(String...)} and an optional constant suffix (i.e. ":setStatus"). Safe to share between any number of
+ * threads.
+ *
+ * Fixed templates (built from an override url) ignore the segments, as override urls always did.
+ */
+public final class UrlTemplate {
+
+    @Getter private final String prefix;
+    @Getter private final String suffix;
+    @Getter private final boolean fixed;
+
+    private UrlTemplate(String prefix, String suffix, boolean fixed) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.fixed = fixed;
+    }
+
+    /**
+     * Returns a template appending segments to "prefix"
+     *
+     * @param prefix    Constant start of the url
+     * @return          A new UrlTemplate
+     */
+    public static UrlTemplate of(String prefix) {
+        return new UrlTemplate(prefix, "", false);
+    }
+
+    /**
+     * Returns a template placing segments between "prefix" and "suffix"
+     *
+     * @param prefix    Constant start of the url
+     * @param suffix    Constant end of the url
+     * @return          A new UrlTemplate
+     */
+    public static UrlTemplate of(String prefix, String suffix) {
+        return new UrlTemplate(prefix, suffix, false);
+    }
+
+    /**
+     * Returns a template that always expands to "url"
+     *
+     * @param url       Complete url
+     * @return          A new UrlTemplate
+     */
+    public static UrlTemplate fixed(String url) {
+        return new UrlTemplate(url, "", true);
+    }
+
+    /**
+     * Builds the url of a request
+     *
+     * @param segments  Variable segments, appended in order after the prefix
+     * @return          The complete url
+     */
+    public String expand(String... segments) {
+        if (fixed) return prefix;
+        if (segments.length == 0 && suffix.isEmpty()) return prefix;
+
+        // Sized up front, so the url is copied once into the builder and once into the String
+        int length = prefix.length() + suffix.length();
+        for (String segment : segments) {
+            length += String.valueOf(segment).length();
+        }
+        StringBuilder builder = new StringBuilder(length).append(prefix);
+        for (String segment : segments) {
+            builder.append(segment);
+        }
+        return builder.append(suffix).toString();
+    }
+
+    @Override
+    public String toString() {
+        return fixed ? prefix : prefix + "{...}" + suffix;
+    }
+}
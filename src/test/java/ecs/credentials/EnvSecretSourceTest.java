@@ -0,0 +1,28 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.EnvSecretSource;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EnvSecretSourceTest {
+
+    @Test
+    public void readsSecretFromSystemProperties() {
+        System.setProperty("envSecretSourceTest.ecs.url.zone", "work-01");
+        System.setProperty("envSecretSourceTest.sigma.url.version", "v0");
+
+        Map<String, String> values = new EnvSecretSource().read("envSecretSourceTest");
+        assertEquals("work-01", values.get("ecs.url.zone"));
+        assertEquals("v0", values.get("sigma.url.version"));
+        assertNull(values.get("ecs.url.namespace"));
+
+        System.clearProperty("envSecretSourceTest.ecs.url.zone");
+        System.clearProperty("envSecretSourceTest.sigma.url.version");
+    }
+
+}
@@ -0,0 +1,63 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.SecretSource;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * SecretSource keeping secrets in memory, for tests: {@link #put(String, Map)} stores a new version of a secret and
+ * hands it to its watches, as a change in the real source would
+ */
+public class InMemorySecretSource implements SecretSource {
+
+    private final Map<String, Map<String, String>> secrets = new ConcurrentHashMap<>();
+    private final Map<String, List<Consumer<Map<String, String>>>> watches = new ConcurrentHashMap<>();
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile long readDelayMillis;
+    private volatile boolean failingWatches;
+
+    public void put(String secretName, Map<String, String> values) {
+        Map<String, String> copy = Collections.unmodifiableMap(new HashMap<>(values));
+        secrets.put(secretName, copy);
+        for (Consumer<Map<String, String>> listener : watches.getOrDefault(secretName, Collections.emptyList())) {
+            listener.accept(copy);
+        }
+    }
+
+    public void remove(String secretName) {
+        secrets.remove(secretName);
+    }
+
+    public void setReadDelayMillis(long readDelayMillis) {this.readDelayMillis = readDelayMillis;}
+    public void setFailingWatches(boolean failingWatches) {this.failingWatches = failingWatches;}
+
+    public int getReads() {return reads.get();}     // Calls to read
+
+    public int getWatchCount(String secretName) {
+        return watches.getOrDefault(secretName, Collections.emptyList()).size();
+    }
+
+    @Override
+    public Map<String, String> read(String secretName) throws Exception {
+        reads.incrementAndGet();
+        if (readDelayMillis > 0) Thread.sleep(readDelayMillis);
+        Map<String, String> values = secrets.get(secretName);
+        if (values == null) throw new IllegalStateException("Secret " + secretName + " not found");
+        return values;
+    }
+
+    @Override
+    public Closeable watch(String secretName, Consumer<Map<String, String>> listener) {
+        if (failingWatches) throw new IllegalStateException("Secret " + secretName + " can't be watched");
+        watches.computeIfAbsent(secretName, name -> new CopyOnWriteArrayList<>()).add(listener);
+        return () -> watches.get(secretName).remove(listener);
+    }
+}
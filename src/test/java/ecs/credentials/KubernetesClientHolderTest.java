@@ -0,0 +1,35 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.KubernetesClientHolder;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class KubernetesClientHolderTest {
+
+    @After
+    public void tearDown() {
+        KubernetesClientHolder.close();
+    }
+
+    @Test
+    public void sharesOneClient() {
+        KubernetesClient client = KubernetesClientHolder.getClient();
+        assertSame(client, KubernetesClientHolder.getClient());
+    }
+
+    @Test
+    public void createsClientAgainAfterClose() {
+        KubernetesClient closed = KubernetesClientHolder.getClient();
+        KubernetesClientHolder.close();
+        KubernetesClientHolder.close();
+
+        KubernetesClient client = KubernetesClientHolder.getClient();
+        assertNotSame(closed, client);
+        assertSame(client, KubernetesClientHolder.getClient());
+    }
+}
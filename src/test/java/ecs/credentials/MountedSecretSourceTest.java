@@ -0,0 +1,40 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.MountedSecretSource;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class MountedSecretSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsEveryKeyOfAMountedSecret() throws Exception {
+        File secret = folder.newFolder("sigma");
+        Files.write(new File(secret, "ecs.url.zone").toPath(), "work-01".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(secret, "ecs.crt").toPath(), "line1\nline2\n".getBytes(StandardCharsets.UTF_8));
+        folder.newFolder("sigma", "..data");
+
+        Map<String, String> values = new MountedSecretSource(folder.getRoot().getPath()).read("sigma");
+        assertEquals(2, values.size());
+        assertEquals("work-01", values.get("ecs.url.zone"));
+        assertEquals("line1\nline2\n", values.get("ecs.crt"));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void shouldThrowIfSecretIsNotMounted() throws Exception {
+        new MountedSecretSource(folder.getRoot().getPath()).read("notMounted");
+    }
+
+}
@@ -0,0 +1,111 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.credentials.SecretSource;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MySecretsTest {
+
+    private final String secretName = "mySecretsTest";
+    private SecretSource previousSource;
+    private long previousTtlMillis;
+    private InMemorySecretSource source;
+
+    @Before
+    public void setUp() {
+        previousSource = MySecrets.getSource();
+        previousTtlMillis = MySecrets.getTtlMillis();
+        source = new InMemorySecretSource();
+        source.put(secretName, Collections.singletonMap("ecs.url.zone", "work-01"));
+        MySecrets.setSource(source);
+    }
+
+    @After
+    public void tearDown() {
+        MySecrets.setTtl(previousTtlMillis, TimeUnit.MILLISECONDS);
+        MySecrets.setSource(previousSource);
+    }
+
+    @Test
+    public void readsSecretOncePerTtl() throws Exception {
+        MySecrets.setTtl(50, TimeUnit.MILLISECONDS);
+        MySecrets secrets = new MySecrets();
+        assertEquals("work-01", secrets.readValueFromSecretWithKey(secretName, "ecs.url.zone"));
+        source.put(secretName, Collections.singletonMap("ecs.url.zone", "work-02"));
+        assertEquals("work-01", secrets.readValueFromSecretWithKey(secretName, "ecs.url.zone"));
+        assertEquals(1, source.getReads());
+
+        Thread.sleep(100);
+        assertEquals("work-02", secrets.readValueFromSecretWithKey(secretName, "ecs.url.zone"));
+        assertEquals(2, source.getReads());
+    }
+
+    @Test
+    public void refreshReadsSecretAgain() {
+        MySecrets secrets = new MySecrets();
+        secrets.readSecret(secretName);
+        source.put(secretName, Collections.singletonMap("ecs.url.zone", "work-02"));
+
+        assertEquals("work-02", secrets.refresh(secretName).get("ecs.url.zone"));
+        assertEquals("work-02", secrets.readValueFromSecretWithKey(secretName, "ecs.url.zone"));
+        assertEquals(2, source.getReads());
+    }
+
+    @Test
+    public void readsSecretOnceForConcurrentMisses() throws Exception {
+        source.setReadDelayMillis(200);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Map<String, String>> read = new CopyOnWriteArrayList<>();
+        Thread[] threads = new Thread[8];
+        for (int ii = 0; ii < threads.length; ii++) {
+            threads[ii] = new Thread(() -> {
+                try {
+                    start.await();
+                    read.add(new MySecrets().readSecret(secretName));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[ii].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, source.getReads());
+        assertEquals(threads.length, read.size());
+        for (Map<String, String> values : read) {
+            assertEquals("work-01", values.get("ecs.url.zone"));
+        }
+    }
+
+    @Test
+    public void returnsNoValuesOfSecretsNotRead() {
+        MySecrets secrets = new MySecrets();
+        assertTrue(secrets.readSecret("missing").isEmpty());
+        assertEquals("", secrets.readValueFromSecretWithKey("missing", "ecs.url.zone"));
+    }
+
+    @Test
+    public void keepsValuesWhenRefreshFails() {
+        MySecrets secrets = new MySecrets();
+        secrets.readSecret(secretName);
+        source.remove(secretName);
+
+        assertEquals("work-01", secrets.refresh(secretName).get("ecs.url.zone"));
+    }
+}
@@ -0,0 +1,77 @@
+package ecs.credentials;
+
+import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.credentials.SecretSource;
+import mk.coco.ecs.credentials.SecretWatcher;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SecretWatcherTest {
+
+    private final String secretName = "secretWatcherTest";
+    private SecretSource previousSource;
+    private InMemorySecretSource source;
+
+    @Before
+    public void setUp() {
+        previousSource = MySecrets.getSource();
+        source = new InMemorySecretSource();
+        source.put(secretName, Collections.singletonMap("ecs.url.zone", "work-01"));
+        MySecrets.setSource(source);
+    }
+
+    @After
+    public void tearDown() {
+        SecretWatcher.stopAll();
+        MySecrets.setSource(previousSource);
+    }
+
+    @Test
+    public void notifiesEveryChange() throws Exception {
+        BlockingQueue<Map<String, String>> changes = new LinkedBlockingQueue<>();
+        Closeable subscription = SecretWatcher.subscribe(secretName, changes::add);
+        source.put(secretName, Collections.singletonMap("ecs.url.zone", "work-02"));
+
+        assertEquals("work-02", changes.poll(10, TimeUnit.SECONDS).get("ecs.url.zone"));
+        assertEquals("work-02", new MySecrets().readValueFromSecretWithKey(secretName, "ecs.url.zone"));
+        subscription.close();
+        assertEquals(0, source.getWatchCount(secretName));
+    }
+
+    @Test
+    public void watchesOncePerSecret() throws Exception {
+        Closeable first = SecretWatcher.subscribe(secretName, values -> { });
+        Closeable second = SecretWatcher.subscribe(secretName, values -> { });
+        assertEquals(1, source.getWatchCount(secretName));
+
+        first.close();
+        assertEquals(1, source.getWatchCount(secretName));
+        second.close();
+        assertEquals(0, source.getWatchCount(secretName));
+
+        SecretWatcher.subscribe(secretName, values -> { });
+        assertEquals(1, source.getWatchCount(secretName));
+    }
+
+    @Test
+    public void retriesWatchThatFailed() {
+        source.setFailingWatches(true);
+        SecretWatcher.subscribe(secretName, values -> { });
+        assertEquals(0, source.getWatchCount(secretName));
+
+        source.setFailingWatches(false);
+        SecretWatcher.subscribe(secretName, values -> { });
+        assertEquals(1, source.getWatchCount(secretName));
+    }
+}
@@ -0,0 +1,127 @@
+package ecs.logback;
+
+import mk.coco.ecs.logback.OmegaLogbackAppender;
+import mk.coco.ecs.services.omega.OmegaService;
+import mk.coco.ecs.services.omega.ThrowableEncoder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OmegaLogbackAppenderTest {
+
+    private final LoggerContext context = new LoggerContext();
+    private final Logger logger = context.getLogger("test");
+    private final ThrowableEncoder encoder = new ThrowableEncoder();
+    private List<String> bodies;
+    private OmegaLogbackAppender appender;
+
+    @Before
+    public void setUp() throws Exception {
+        OmegaService omega = mock(OmegaService.class);
+        bodies = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            bodies.add(invocation.getArgument(1));
+            return "{}";
+        }).when(omega).appendLogsWithBody(anyString(), anyString());
+        when(omega.getThrowableEncoder()).thenReturn(encoder);
+
+        appender = new OmegaLogbackAppender() {
+            @Override
+            protected OmegaService createOmegaService() {
+                return omega;
+            }
+        };
+        appender.setContext(context);
+        appender.setMrId("mr");
+        appender.setJobName("job");
+        appender.setLingerMillis(3600000);
+        appender.start();
+        assertTrue(appender.isStarted());
+    }
+
+    @After
+    public void tearDown() {
+        appender.stop();
+    }
+
+    private LoggingEvent event(Level level, String message, Map<String, String> mdc) {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), logger, level, message, null, null);
+        event.setMDCPropertyMap(mdc);
+        return event;
+    }
+
+    @Test
+    public void mapsLevels() {
+        Map<String, String> mdc = new HashMap<>();
+        appender.doAppend(event(Level.ERROR, "error", mdc));
+        appender.doAppend(event(Level.WARN, "warn", mdc));
+        appender.doAppend(event(Level.INFO, "info", mdc));
+        appender.doAppend(event(Level.DEBUG, "debug", mdc));
+        appender.doAppend(event(Level.TRACE, "trace", mdc));
+        appender.getBatchingAppender().flush();
+
+        assertEquals(1, bodies.size());
+        String body = bodies.get(0);
+        assertTrue(body.contains("\"level\": \"ERROR\", \"message\" : \"error\""));
+        assertTrue(body.contains("\"level\": \"WARN\", \"message\" : \"warn\""));
+        assertTrue(body.contains("\"level\": \"INFO\", \"message\" : \"info\""));
+        assertTrue(body.contains("\"level\": \"DEBUG\", \"message\" : \"debug\""));
+        assertTrue(body.contains("\"level\": \"TRACE\", \"message\" : \"trace\""));
+    }
+
+    @Test
+    public void sendsMdcAsProperties() {
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("traceId", "1234");
+        mdc.put("empty", null);
+        appender.doAppend(event(Level.INFO, "message", mdc));
+        appender.getBatchingAppender().flush();
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).contains("\"properties\": {\"jobName\": \"job\", \"traceId\": \"1234\"}"));
+        assertTrue(!bodies.get(0).contains("null"));
+    }
+
+    @Test
+    public void writesThrowablesWithTheEncoderOfTheService() {
+        IllegalStateException error = new IllegalStateException("boom \"quoted\"", new RuntimeException("cause"));
+        appender.doAppend(new LoggingEvent(Logger.class.getName(), logger, Level.ERROR, "failed", error, null));
+        appender.getBatchingAppender().flush();
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).contains("\"message\" : \"failed" + encoder.encode(error) + "\""));
+        assertTrue(bodies.get(0).contains("Caused by: java.lang.RuntimeException: cause"));
+    }
+
+    @Test
+    public void skipsEventsOfLibraryThreads() throws Exception {
+        Thread thread = new Thread(() -> appender.doAppend(event(Level.INFO, "own log", new HashMap<>())),
+                "mk-ecs-test");
+        thread.start();
+        thread.join();
+        appender.doAppend(event(Level.INFO, "application log", new HashMap<>()));
+        appender.getBatchingAppender().flush();
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).contains("application log"));
+        assertTrue(!bodies.get(0).contains("own log"));
+        assertEquals(1, appender.getBatchingAppender().getEntriesSent());
+    }
+}
@@ -0,0 +1,104 @@
+package ecs.restcontent;
+
+import mk.coco.ecs.credentials.PemEtherCredentials;
+import mk.coco.ecs.restcontent.HttpClientRegistry;
+import mk.coco.ecs.restcontent.RestContent;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpClientRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String credentialsCantBeNullMsg = "PemEtherCredentials can't be null";
+    String expectedExceptionWasNotThrown = "Expected exception was not thrown";
+
+    @Test(expected = Exception.class)
+    public void shouldThrowCredentialsCantBeNullException() throws Exception {
+        try {
+            HttpClientRegistry.getClient(null);
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains(credentialsCantBeNullMsg));
+            throw e;
+        }
+        fail(expectedExceptionWasNotThrown);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidPoolLimits() {
+        HttpClientRegistry.setPoolLimits(0, 10);
+    }
+
+    @Test
+    public void shouldUpdatePoolLimits() {
+        int maxTotal = HttpClientRegistry.getMaxTotalConnections();
+        int maxPerRoute = HttpClientRegistry.getMaxConnectionsPerRoute();
+
+        HttpClientRegistry.setPoolLimits(10, 5);
+        assertEquals(10, HttpClientRegistry.getMaxTotalConnections());
+        assertEquals(5, HttpClientRegistry.getMaxConnectionsPerRoute());
+
+        HttpClientRegistry.setPoolLimits(maxTotal, maxPerRoute);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidTimeouts() {
+        HttpClientRegistry.setTimeouts(1000, 0, 1000);
+    }
+
+    @Test
+    public void shouldUpdateTimeouts() {
+        int connect = HttpClientRegistry.getConnectTimeoutMillis();
+        int socket = HttpClientRegistry.getSocketTimeoutMillis();
+        int connectionRequest = HttpClientRegistry.getConnectionRequestTimeoutMillis();
+
+        HttpClientRegistry.setTimeouts(1000, 2000, 3000);
+        assertEquals(1000, HttpClientRegistry.getConnectTimeoutMillis());
+        assertEquals(2000, HttpClientRegistry.getSocketTimeoutMillis());
+        assertEquals(3000, HttpClientRegistry.getConnectionRequestTimeoutMillis());
+
+        HttpClientRegistry.setTimeouts(connect, socket, connectionRequest);
+    }
+
+    @Test
+    public void shouldAddUpStatsOfNoClients() {
+        HttpClientRegistry.shutdown();
+        assertEquals(0, HttpClientRegistry.getClientCount());
+        assertEquals(0, HttpClientRegistry.getTotalStats().getLeased());
+        assertEquals(0, HttpClientRegistry.getTotalStats().getMax());
+    }
+
+    @Test
+    public void reusesConnectionsOfClientCertificates() throws Exception {
+        HttpClientRegistry.shutdown();
+        try (LocalTlsServer server = new LocalTlsServer(folder.getRoot().toPath())) {
+            PemEtherCredentials cred = LocalTlsServer.generateCredentials(folder.getRoot().toPath(), "client");
+            for (int ii = 0; ii < 3; ii++) {
+                assertEquals("{}", RestContent.request(server.getUrl() + "/logs", "", cred, RestContent.RequestType.GET));
+            }
+
+            Set<Integer> clientPorts = new HashSet<>();
+            server.getRequests().forEach(request -> clientPorts.add(request.clientPort));
+            assertEquals(3, server.getRequests().size());
+            assertEquals("CN=client", server.getRequests().get(0).clientName);
+            assertEquals(1, clientPorts.size());
+            PoolStats stats = HttpClientRegistry.getTotalStats();
+            assertEquals(0, stats.getLeased());
+            assertEquals(1, stats.getAvailable());
+        } finally {
+            HttpClientRegistry.shutdown();
+        }
+    }
+
+}
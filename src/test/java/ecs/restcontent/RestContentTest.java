@@ -1,18 +1,99 @@
 package ecs.restcontent;
 
+import mk.coco.ecs.credentials.PemEtherCredentials;
 import mk.coco.ecs.restcontent.RestContent;
 
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class RestContentTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    String credentialsCantBeNullMsg = "PemEtherCredentials can't be null";
+    String expectedExceptionWasNotThrown = "Expected exception was not thrown";
+
     @Test
     public void shouldHaveGetAndSet() {
         assertEquals("[DELETE, GET, PATCH, POST, PUT]", Arrays.toString(RestContent.RequestType.values()));
     }
 
+    @Test
+    public void shouldCompleteExceptionallyWithoutCredentials() throws Exception {
+        CompletableFuture<String> future = RestContent.requestAsync("https://any-url", "", null, RestContent.RequestType.GET);
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains(credentialsCantBeNullMsg));
+            return;
+        }
+        fail(expectedExceptionWasNotThrown);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidInFlightWindow() {
+        RestContent.setMaxRequestsInFlight(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeQueueLimit() {
+        RestContent.setMaxQueuedRequests(-1);
+    }
+
+    @Test
+    public void shouldCompleteFutureWithResponse() throws Exception {
+        try (LocalTlsServer server = new LocalTlsServer(folder.getRoot().toPath())) {
+            PemEtherCredentials cred = LocalTlsServer.generateCredentials(folder.getRoot().toPath(), "client");
+
+            CompletableFuture<String> future = RestContent.requestAsync(server.getUrl() + "/logs", "", cred, RestContent.RequestType.GET);
+
+            assertEquals("{}", future.get(10, TimeUnit.SECONDS));
+            assertEquals(1, server.getRequests().size());
+            assertEquals(0, RestContent.getPendingRequests());
+        }
+    }
+
+    @Test
+    public void shouldRejectRequestsBeyondTheQueue() throws Exception {
+        int maxInFlight = RestContent.getMaxRequestsInFlight();
+        int maxQueued = RestContent.getMaxQueuedRequests();
+        try (LocalTlsServer server = new LocalTlsServer(folder.getRoot().toPath())) {
+            PemEtherCredentials cred = LocalTlsServer.generateCredentials(folder.getRoot().toPath(), "client");
+            server.setResponseDelayMillis(1000);
+            RestContent.setMaxRequestsInFlight(1);
+            RestContent.setMaxQueuedRequests(1);
+
+            CompletableFuture<String> inFlight = RestContent.requestAsync(server.getUrl(), "", cred, RestContent.RequestType.GET);
+            CompletableFuture<String> queued = RestContent.requestAsync(server.getUrl(), "", cred, RestContent.RequestType.GET);
+            CompletableFuture<String> rejected = RestContent.requestAsync(server.getUrl(), "", cred, RestContent.RequestType.GET);
+
+            assertTrue(rejected.isCompletedExceptionally());
+            try {
+                rejected.get();
+                fail(expectedExceptionWasNotThrown);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals("{}", inFlight.get(10, TimeUnit.SECONDS));
+            assertEquals("{}", queued.get(10, TimeUnit.SECONDS));
+            assertEquals(2, server.getRequests().size());
+        } finally {
+            RestContent.setMaxRequestsInFlight(maxInFlight);
+            RestContent.setMaxQueuedRequests(maxQueued);
+        }
+    }
+
 }
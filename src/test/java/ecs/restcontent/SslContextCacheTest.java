@@ -0,0 +1,33 @@
+package ecs.restcontent;
+
+import mk.coco.ecs.restcontent.SslContextCache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SslContextCacheTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidMaxEntries() {
+        SslContextCache.setMaxEntries(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeSessionCache() {
+        SslContextCache.setSessionCache(-1, 10);
+    }
+
+    @Test
+    public void shouldUpdateSessionCache() {
+        int cacheSize = SslContextCache.getSessionCacheSize();
+        int timeout = SslContextCache.getSessionTimeoutSeconds();
+
+        SslContextCache.setSessionCache(10, 20);
+        assertEquals(10, SslContextCache.getSessionCacheSize());
+        assertEquals(20, SslContextCache.getSessionTimeoutSeconds());
+
+        SslContextCache.setSessionCache(cacheSize, timeout);
+    }
+
+}
@@ -0,0 +1,66 @@
+package ecs.services;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records the requests sent to a mocked service, for tests of the classes sending them in the background:
+ *
+ *      doAnswer(requests.recording(0, 1)).when(mu).addMeasurementsWithBody(anyString(), anyString());
+ *
+ * records the first two arguments of each call, separated by a space.
+ */
+public class RecordedRequests {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+    /**
+     * Returns the requests recorded so far, in the order they were sent
+     */
+    public List<String> getBodies() {
+        return bodies;
+    }
+
+    /**
+     * Returns an answer recording the given arguments of each call (as a request) and returning ""
+     *
+     * @param arguments     Indexes of the String arguments recorded
+     */
+    public Answer<String> recording(int... arguments) {
+        return invocation -> {
+            StringBuilder body = new StringBuilder();
+            for (int argument : arguments) {
+                if (body.length() > 0) body.append(' ');
+                body.append((String) invocation.getArgument(argument));
+            }
+            bodies.add(body.toString());
+            return "";
+        };
+    }
+
+    /**
+     * Waits until at least "count" requests are recorded
+     */
+    public void awaitBodies(int count) throws InterruptedException {
+        await(() -> bodies.size() >= count);
+    }
+
+    /**
+     * Waits until "condition" holds, failing if it does not in 10 seconds
+     */
+    public static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,153 @@
+package ecs.services.common;
+
+import ecs.credentials.InMemorySecretSource;
+import ecs.restcontent.LocalTlsServer;
+import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.credentials.PemEtherCredentials;
+import mk.coco.ecs.credentials.SecretSource;
+import mk.coco.ecs.credentials.SecretWatcher;
+import mk.coco.ecs.restcontent.HttpClientRegistry;
+import mk.coco.ecs.restcontent.RestContent;
+import mk.coco.ecs.services.common.SemaasService;
+import mk.coco.ecs.services.common.SupportedServices;
+import mk.coco.ecs.utils.URLs;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SemaasServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final String secretName = "semaasServiceTest";
+    private SecretSource previousSource;
+    private InMemorySecretSource source;
+
+    /**
+     * Service reading its urls and a value of its own from the secret, without credentials
+     */
+    private static final class ReloadableService extends SemaasService {
+        private volatile String mrs;
+
+        private ReloadableService(String secretName) {
+            this.serviceType = SupportedServices.OMEGA;
+            this.secretName = secretName;
+            this.urls = new URLs(serviceType, secretName);
+            readAllDefaultValues(new MySecrets(), secretName, "omega");
+        }
+
+        @Override
+        protected void readAllDefaultValues(MySecrets sec, String secretName, String serv) {
+            mrs = sec.readValueFromSecretWithKey(secretName, serv + ".url.mrs");
+        }
+    }
+
+    @Before
+    public void setUp() {
+        previousSource = MySecrets.getSource();
+        source = new InMemorySecretSource();
+        source.put(secretName, secret("work-01", "mrs"));
+        MySecrets.setSource(source);
+    }
+
+    @After
+    public void tearDown() {
+        SecretWatcher.stopAll();
+        MySecrets.setSource(previousSource);
+    }
+
+    private static Map<String, String> secret(String zone, String mrs) {
+        Map<String, String> values = new HashMap<>();
+        values.put("ecs.url.ns", "/ns");
+        values.put("ecs.url.typeofaccess", "platform.bbva.com");
+        values.put("ecs.url.zone", zone);
+        values.put("ecs.url.namespace", "user.xe81235");
+        values.put("omega.url.serviceUrlName", "omega");
+        values.put("omega.url.version", "v0");
+        values.put("omega.url.mrs", mrs);
+        return values;
+    }
+
+    @Test
+    public void reloadsUrlsWhenSecretChanges() throws Exception {
+        ReloadableService service = new ReloadableService(secretName);
+        service.enableHotReload();
+        assertEquals("work-01", service.getUrls().getZone());
+
+        source.put(secretName, secret("work-02", "mrs-v2"));
+        await(() -> "work-02".equals(service.getUrls().getZone()));
+        await(() -> "mrs-v2".equals(service.mrs));
+        assertEquals("https://omega.work-02.platform.bbva.com/v0/ns/user.xe81235/mrs-v2",
+                service.getUrls().commonTemplate("mrs-v2").expand());
+        // Credentials in the secret are not valid, so the current ones are kept
+        assertNull(service.getCred());
+    }
+
+    @Test
+    public void swapsCredentialsWhenSecretChanges() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        String[] oldPem = LocalTlsServer.generatePem(dir, "client-1");
+        String[] newPem = LocalTlsServer.generatePem(dir, "client-2");
+        PemEtherCredentials oldCred = PemEtherCredentials.fromString(oldPem[0], oldPem[1]);
+        HttpClientRegistry.shutdown();
+        try (LocalTlsServer server = new LocalTlsServer(dir)) {
+            ReloadableService service = new ReloadableService(secretName);
+            service.setCred(oldCred);
+            service.enableHotReload();
+            RestContent.request(server.getUrl() + "/mrs", "", service.getCred(), RestContent.RequestType.GET);
+            CloseableHttpClient oldClient = HttpClientRegistry.getClient(oldCred);
+
+            Map<String, String> values = secret("work-01", "mrs");
+            values.put("ecs.crt", newPem[0]);
+            values.put("ecs.pk", newPem[1]);
+            source.put(secretName, values);
+            await(() -> !oldCred.equals(service.getCred()));
+            RestContent.request(server.getUrl() + "/mrs", "", service.getCred(), RestContent.RequestType.GET);
+
+            // New requests are made with the new certificate, and the client of the old one is no longer shared
+            assertEquals("CN=client-1", server.getRequests().get(0).clientName);
+            assertEquals("CN=client-2", server.getRequests().get(1).clientName);
+            assertEquals(1, HttpClientRegistry.getClientCount());
+            assertNotSame(oldClient, HttpClientRegistry.getClient(oldCred));
+        } finally {
+            HttpClientRegistry.shutdown();
+        }
+    }
+
+    @Test
+    public void keepsUrlsSetInCode() throws Exception {
+        ReloadableService service = new ReloadableService(secretName);
+        service.enableHotReload();
+        service.getUrls().setZone("work-99");
+
+        source.put(secretName, secret("work-02", "mrs-v2"));
+        await(() -> "mrs-v2".equals(service.mrs));
+        assertEquals("work-99", service.getUrls().getZone());
+    }
+
+    @Test
+    public void stopsReloadingOnceDisabled() throws Exception {
+        ReloadableService service = new ReloadableService(secretName);
+        service.enableHotReload();
+        service.disableHotReload();
+        assertEquals(0, source.getWatchCount(secretName));
+
+        source.put(secretName, secret("work-02", "mrs-v2"));
+        assertEquals("work-01", service.getUrls().getZone());
+    }
+}
@@ -0,0 +1,85 @@
+package ecs.services.mu;
+
+import mk.coco.ecs.services.monitoredresource.MonitoredResourceService;
+import mk.coco.ecs.services.mu.MuJvmGauges;
+import mk.coco.ecs.services.mu.MuMeterRegistry;
+import mk.coco.ecs.services.mu.MuService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class MuJvmGaugesTest {
+
+    @Test
+    public void publishesGaugesOfTheJvmInOneMetricSet() throws Exception {
+        MuService mu = mock(MuService.class);
+        List<String> metricSets = new CopyOnWriteArrayList<>();
+        List<String> bodies = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            metricSets.add(invocation.getArgument(0));
+            bodies.add(invocation.getArgument(1));
+            return "";
+        }).when(mu).addMeasurementsWithBody(anyString(), anyString());
+        MuMeterRegistry registry = new MuMeterRegistry(mu, "jvm", 1, TimeUnit.HOURS);
+
+        MuJvmGauges.register(registry, "app");
+        registry.publish();
+
+        assertEquals(1, metricSets.size());
+        assertEquals("jvm", metricSets.get(0));
+        assertTrue(bodies.get(0).contains("\"app.memory.heap.used\": "));
+        assertTrue(bodies.get(0).contains("\"app.gc.time\": "));
+        assertTrue(bodies.get(0).contains("\"app.threads.live\": "));
+        assertTrue(bodies.get(0).contains("\"app.http.leased\": "));
+        registry.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void startsPublishingEveryGaugeInOneMetricSetOfTheMonitoredResource() throws Exception {
+        MuService mu = mock(MuService.class);
+        MonitoredResourceService mrs = mock(MonitoredResourceService.class);
+        doReturn("{\"data\": []}").when(mu).listMetrics();
+        doReturn("{\"data\": []}").when(mu).listMetricSetType();
+        doReturn("{\"data\": []}").when(mu).listMetricSets();
+        doReturn("//mr/job").when(mrs).getMonitoredResourcePath("job");
+        doReturn("//mu/types/job.jvm").when(mu).getMetricsSetTypesPath("job.jvm");
+        List<String> metricSets = new CopyOnWriteArrayList<>();
+        List<Map<String, String>> specs = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            metricSets.add(invocation.getArgument(0));
+            return "";
+        }).when(mu).addMeasurementsWithBody(anyString(), anyString());
+        doAnswer(invocation -> {
+            specs.add(invocation.getArgument(1));
+            return "";
+        }).when(mu).createMetricSetType(anyString(), anyMap());
+
+        MuMeterRegistry registry = MuJvmGauges.start(mu, mrs, "process", "job", 1, TimeUnit.HOURS);
+        registry.publish();
+        registry.close();
+
+        assertEquals("job.jvm", registry.getMetricSet());
+        assertTrue(metricSets.size() > 0);
+        for (String metricSet : metricSets) {
+            assertEquals("job.jvm", metricSet);
+        }
+        assertEquals(1, specs.size());
+        assertTrue(specs.get(0).containsKey("jvm.memory.heap.used"));
+        assertTrue(specs.get(0).containsKey("jvm.http.max"));
+        verify(mu).createMetricSet("job.jvm", "//mu/types/job.jvm", "//mr/job");
+    }
+}
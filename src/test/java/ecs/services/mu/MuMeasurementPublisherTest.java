@@ -0,0 +1,105 @@
+package ecs.services.mu;
+
+import ecs.services.RecordedRequests;
+import mk.coco.ecs.services.mu.MuMeasurementPublisher;
+import mk.coco.ecs.services.mu.MuService;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class MuMeasurementPublisherTest {
+
+    private MuService mu;
+    private RecordedRequests requests;
+    private List<String> bodies;
+
+    @Before
+    public void setUp() throws Exception {
+        mu = mock(MuService.class);
+        requests = new RecordedRequests();
+        bodies = requests.getBodies();
+        doAnswer(requests.recording(0, 1)).when(mu).addMeasurementsWithBody(anyString(), anyString());
+    }
+
+    @Test
+    public void sendsSeveralPointsPerRequest() {
+        MuMeasurementPublisher publisher = new MuMeasurementPublisher(mu);
+        publisher.setInterval(1, TimeUnit.HOURS);
+        assertTrue(publisher.record("set", "cpu", 1, 0.5));
+        assertTrue(publisher.record("set", "memory", 1, 1024));
+        assertTrue(publisher.record("set", "cpu", 1, 0.75));
+        assertTrue(publisher.record("set", "cpu", 2, 1));
+        assertTrue(publisher.record("other", "cpu", 2, -1));
+        publisher.close();
+
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.contains("set {\"metrics\": ["
+                + "{\"timestamp\": 1000000 ,\"values\": {\"cpu\": 0.5,\"memory\": 1024 }},"
+                + "{\"timestamp\": 1000000 ,\"values\": {\"cpu\": 0.75 }},"
+                + "{\"timestamp\": 2000000 ,\"values\": {\"cpu\": 1 }}]}"));
+        assertTrue(bodies.contains("other {\"metrics\": [{\"timestamp\": 2000000 ,\"values\": {\"cpu\": -1 }}]}"));
+        assertEquals(5, publisher.getPointsSent());
+        assertEquals(2, publisher.getRequestsSent());
+    }
+
+    @Test
+    public void escapesMetricIds() {
+        MuMeasurementPublisher publisher = new MuMeasurementPublisher(mu);
+        publisher.setInterval(1, TimeUnit.HOURS);
+        assertTrue(publisher.record("set", "disk \"C:\\\"", 1, 1));
+        publisher.close();
+
+        assertEquals("set {\"metrics\": [{\"timestamp\": 1000000 ,\"values\": {\"disk \\\"C:\\\\\\\"\": 1 }}]}", bodies.get(0));
+    }
+
+    @Test
+    public void sendsAsSoonAsARequestIsFull() throws Exception {
+        MuMeasurementPublisher publisher = new MuMeasurementPublisher(mu);
+        publisher.setInterval(1, TimeUnit.HOURS);
+        publisher.setMaxPointsPerRequest(10);
+        for (int ii = 0; ii < 10; ii++) {
+            publisher.record("set", "metric", ii, ii);
+        }
+        requests.awaitBodies(1);
+
+        assertEquals(1, bodies.size());
+        publisher.close();
+    }
+
+    @Test
+    public void sendsAfterTheInterval() throws Exception {
+        MuMeasurementPublisher publisher = new MuMeasurementPublisher(mu);
+        publisher.setInterval(50, TimeUnit.MILLISECONDS);
+        publisher.record("set", "metric", 1, 1);
+        requests.awaitBodies(1);
+
+        assertEquals(1, bodies.size());
+        publisher.close();
+    }
+
+    @Test
+    public void dropsPointsThatDoNotFit() {
+        MuMeasurementPublisher publisher = new MuMeasurementPublisher(mu, 2);
+        publisher.setInterval(1, TimeUnit.HOURS);
+        publisher.setMaxPointsPerRequest(1000);
+        assertTrue(publisher.record("set", "metric", 1, 1));
+        assertTrue(publisher.record("set", "metric", 2, 2));
+        assertFalse(publisher.record("set", "metric", 3, 3));
+        assertFalse(publisher.record("set", "metric", 4, Double.NaN));
+        publisher.close();
+
+        assertEquals(2, publisher.getPointsSent());
+        assertEquals(2, publisher.getPointsDropped());
+        assertFalse(publisher.record("set", "metric", 5, 5));
+    }
+}
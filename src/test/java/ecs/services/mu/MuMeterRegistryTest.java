@@ -0,0 +1,169 @@
+package ecs.services.mu;
+
+import ecs.services.RecordedRequests;
+import mk.coco.ecs.services.mu.MuMeterRegistry;
+import mk.coco.ecs.services.mu.MuService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class MuMeterRegistryTest {
+
+    private MuService mu;
+    private RecordedRequests requests;
+    private List<String> bodies;
+    private List<String> created;
+    private List<String> createdSets;
+    private List<List<String>> createdSpecs;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        mu = mock(MuService.class);
+        requests = new RecordedRequests();
+        RecordedRequests creations = new RecordedRequests();
+        RecordedRequests setCreations = new RecordedRequests();
+        bodies = requests.getBodies();
+        created = creations.getBodies();
+        createdSets = setCreations.getBodies();
+        createdSpecs = new CopyOnWriteArrayList<>();
+        doAnswer(requests.recording(0, 1)).when(mu).addMeasurementsWithBody(anyString(), anyString());
+        doAnswer(creations.recording(0, 1, 2)).when(mu).createMetric(anyString(), anyString(), anyString(), anyString());
+        doAnswer(invocation -> {
+            createdSpecs.add(new ArrayList<>(((Map<String, String>) invocation.getArgument(1)).keySet()));
+            return "";
+        }).when(mu).createMetricSetType(anyString(), anyMap());
+        doAnswer(setCreations.recording(0, 2)).when(mu).createMetricSet(anyString(), anyString(), anyString());
+        doAnswer(invocation -> "/metrics/" + invocation.getArgument(0)).when(mu).getMetricsSpecPath(anyString());
+        doAnswer(invocation -> "/types/" + invocation.getArgument(0)).when(mu).getMetricsSetTypesPath(anyString());
+    }
+
+    private boolean published(String metric, String value) {
+        Pattern measurement = Pattern.compile("\"" + Pattern.quote(metric) + "\": " + Pattern.quote(value) + "[ ,]");
+        for (String body : bodies) {
+            if (measurement.matcher(body).find()) return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void publishesEveryMeterToOneMetricSetPerStep() {
+        MuMeterRegistry registry = new MuMeterRegistry(mu, "app", 1, TimeUnit.HOURS);
+        MuMeterRegistry.Counter counter = registry.counter("requests");
+        counter.increment();
+        counter.increment(4);
+        registry.timer("latency").record(3, TimeUnit.MILLISECONDS);
+        registry.timer("latency").record(5, TimeUnit.MILLISECONDS);
+        registry.summary("size", "BYTES").record(10);
+        registry.gauge("queue", "COUNT", () -> 7);
+        registry.publish();
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).startsWith("app "));
+        assertTrue(published("requests", "5"));
+        assertTrue(published("latency.count", "2"));
+        assertTrue(published("latency.total", "8"));
+        assertTrue(published("latency.max", "5"));
+        assertTrue(published("size.max", "10"));
+        assertTrue(published("queue", "7"));
+
+        bodies.clear();
+        registry.close();
+        assertEquals(1, bodies.size());
+        assertTrue(published("requests", "0"));
+        assertTrue(published("queue", "7"));
+    }
+
+    @Test
+    public void publishesToTheDefaultMetricSet() {
+        MuMeterRegistry registry = new MuMeterRegistry(mu, 1, TimeUnit.HOURS);
+        registry.counter("requests").increment();
+        registry.close();
+
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).startsWith(MuMeterRegistry.DEFAULT_METRIC_SET + " "));
+    }
+
+    @Test
+    public void returnsTheSameMeterForTheSameName() {
+        MuMeterRegistry registry = new MuMeterRegistry(mu, 1, TimeUnit.HOURS);
+        assertSame(registry.counter("requests"), registry.counter("requests"));
+        registry.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMetersOfAnotherType() {
+        MuMeterRegistry registry = new MuMeterRegistry(mu, 1, TimeUnit.HOURS);
+        registry.counter("requests");
+        registry.timer("requests");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyMetricSet() {
+        new MuMeterRegistry(mu, "", 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void createsMetricsOfNewMetersOnceInOneMetricSet() {
+        MuMeterRegistry registry = new MuMeterRegistry(mu, "app", 1, TimeUnit.HOURS);
+        registry.setMonitoredResourcePath("//mr.work-01/ns/namespace/mrs/job");
+        registry.counter("requests").increment();
+        registry.timer("latency");
+        registry.publish();
+        registry.publish();
+
+        assertEquals(4, created.size());
+        assertTrue(created.contains("requests integer COUNT"));
+        assertTrue(created.contains("latency.total double MILLISECONDS"));
+        assertEquals(1, createdSpecs.size());
+        assertEquals(Arrays.asList("requests", "latency.count", "latency.total", "latency.max"), createdSpecs.get(0));
+        assertEquals(Arrays.asList("app //mr.work-01/ns/namespace/mrs/job"), createdSets);
+        registry.close();
+    }
+
+    @Test
+    public void stepsDoNotWaitForCreations() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            creating.await();
+            return "";
+        }).when(mu).createMetric(anyString(), anyString(), anyString(), anyString());
+        MuMeterRegistry provisioned = new MuMeterRegistry(mu, "provisioned", 50, TimeUnit.MILLISECONDS);
+        provisioned.setMonitoredResourcePath("//mr.work-01/ns/namespace/mrs/job");
+        provisioned.counter("requests").increment();
+        MuMeterRegistry other = new MuMeterRegistry(mu, "other", 50, TimeUnit.MILLISECONDS);
+        other.counter("requests").increment();
+        try {
+            // The creation blocks the first step of "provisioned", yet the shared scheduler keeps stepping "other"
+            requests.awaitBodies(2);
+            for (String body : bodies) {
+                assertTrue(body.startsWith("other "));
+            }
+
+            creating.countDown();
+            RecordedRequests.await(() -> bodies.stream().anyMatch(body -> body.startsWith("provisioned ")));
+            assertTrue(published("requests", "1"));
+        } finally {
+            creating.countDown();
+            provisioned.close();
+            other.close();
+        }
+    }
+}
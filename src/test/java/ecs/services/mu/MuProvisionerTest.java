@@ -0,0 +1,131 @@
+package ecs.services.mu;
+
+import mk.coco.ecs.services.mu.MuProvisioner;
+import mk.coco.ecs.services.mu.MuProvisioner.Kind;
+import mk.coco.ecs.services.mu.MuService;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class MuProvisionerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MuService mu;
+    private AtomicInteger creations;
+
+    @Before
+    public void setUp() throws Exception {
+        mu = mock(MuService.class);
+        creations = new AtomicInteger();
+        doReturn("{\"data\": [{\"_id\": \"cpu\", \"dataType\": \"double\"}]}").when(mu).listMetrics();
+        doReturn("{\"data\": [{\"_id\": \"cpu\", \"metricsSpec\": {\"cpu\": \"//mu/cpu\"}}]}").when(mu).listMetricSetType();
+        doReturn("{\"data\": []}").when(mu).listMetricSets();
+        doAnswer(invocation -> {
+            creations.incrementAndGet();
+            return "";
+        }).when(mu).createMetric(anyString(), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void createsOnlyWhatDoesNotExist() throws Exception {
+        MuProvisioner provisioner = new MuProvisioner(mu);
+
+        assertFalse(provisioner.provisionMetric("cpu", "double", "PERCENTAGE", "CPU"));
+        assertTrue(provisioner.provisionMetric("memory", "integer", "BYTES", "Memory"));
+        assertFalse(provisioner.provisionMetric("memory", "integer", "BYTES", "Memory"));
+
+        assertEquals(1, creations.get());
+        assertEquals(3, provisioner.getListed());
+        assertEquals(2, provisioner.getKnown());
+    }
+
+    @Test
+    public void coalescesConcurrentCreationsOfTheSameId() throws Exception {
+        CountDownLatch creating = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            creations.incrementAndGet();
+            creating.countDown();
+            release.await();
+            return "";
+        }).when(mu).createMetric(anyString(), anyString(), anyString(), anyString());
+        MuProvisioner provisioner = new MuProvisioner(mu);
+        provisioner.exists(Kind.METRIC, "cpu");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int ii = 0; ii < 4; ii++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    provisioner.provisionMetric("memory", "integer", "BYTES", "Memory");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        creating.await();
+        // The creation can't end before it is released, so every other thread finds it in flight
+        await(() -> provisioner.getCoalesced() == 3);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, creations.get());
+        assertEquals(1, provisioner.getCreated());
+        assertEquals(0, provisioner.getKnown());
+    }
+
+    @Test
+    public void countsIdsCreatedElsewhereAsProvisioned() throws Exception {
+        doThrow(new IllegalStateException("409 Conflict")).when(mu).createMetricSet(anyString(), anyString(), anyString());
+        MuProvisioner provisioner = new MuProvisioner(mu);
+        provisioner.exists(Kind.METRIC_SET, "cpu");
+        doReturn("{\"data\": [{\"_id\": \"cpu\"}]}").when(mu).listMetricSets();
+
+        assertFalse(provisioner.provisionMetricSet("cpu", "//mu/cpu", "//mr/job"));
+        assertEquals(0, provisioner.getCreated());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void throwsWhenCreationFails() throws Exception {
+        doThrow(new IllegalStateException("403 Forbidden")).when(mu).createMetricSet(anyString(), anyString(), anyString());
+        new MuProvisioner(mu).provisionMetricSet("cpu", "//mu/cpu", "//mr/job");
+    }
+
+    @Test
+    public void readsTheCatalogFileInsteadOfListing() throws Exception {
+        Path catalog = folder.getRoot().toPath().resolve("mu.catalog");
+        MuProvisioner first = new MuProvisioner(mu);
+        first.setCatalogFile(catalog);
+        first.provisionMetric("memory", "integer", "BYTES", "Memory");
+
+        MuProvisioner second = new MuProvisioner(mu);
+        second.setCatalogFile(catalog);
+
+        assertTrue(second.exists(Kind.METRIC, "memory"));
+        assertTrue(second.exists(Kind.METRIC_SET_TYPE, "cpu"));
+        assertEquals(0, second.getListed());
+    }
+}
@@ -0,0 +1,163 @@
+package ecs.services.mu;
+
+import ecs.services.RecordedRequests;
+import mk.coco.ecs.services.mu.MuRollup;
+import mk.coco.ecs.services.mu.MuRollup.Aggregate;
+import mk.coco.ecs.services.mu.MuService;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class MuRollupTest {
+
+    private MuService mu;
+    private List<String> bodies;
+    private List<String> created;
+
+    @Before
+    public void setUp() throws Exception {
+        mu = mock(MuService.class);
+        RecordedRequests requests = new RecordedRequests();
+        RecordedRequests creations = new RecordedRequests();
+        bodies = requests.getBodies();
+        created = creations.getBodies();
+        doAnswer(requests.recording(0, 1)).when(mu).addMeasurementsWithBody(anyString(), anyString());
+        doAnswer(creations.recording(0, 1, 2)).when(mu).createMetric(anyString(), anyString(), anyString(), anyString());
+    }
+
+    private boolean published(String metric, long ts, String value) {
+        String group = "{\"timestamp\": " + ts * 1000000 + " ,\"values\": {";
+        for (String body : bodies) {
+            for (int start = body.indexOf(group); start >= 0; start = body.indexOf(group, start + 1)) {
+                String values = body.substring(start, body.indexOf("}}", start) + 1);
+                if (values.contains("\"" + metric + "\": " + value + " ")
+                        || values.contains("\"" + metric + "\": " + value + ",")) return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void publishesAggregatesOfEachWindow() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10, 60);
+        rollup.record("set", "cpu", 1000, 2);
+        rollup.record("set", "cpu", 5000, 6);
+        rollup.record("set", "cpu", 9000, 1);
+        rollup.record("set", "cpu", 12000, 3);
+        rollup.close();
+
+        assertTrue(published("cpu.10s.min", 0, "1"));
+        assertTrue(published("cpu.10s.max", 0, "6"));
+        assertTrue(published("cpu.10s.avg", 0, "3"));
+        assertTrue(published("cpu.10s.count", 0, "3"));
+        assertTrue(published("cpu.10s.last", 0, "1"));
+        assertTrue(published("cpu.10s.count", 10000, "1"));
+        assertTrue(published("cpu.1m.max", 0, "6"));
+        assertTrue(published("cpu.1m.count", 0, "4"));
+        assertEquals(3, rollup.getWindowsPublished());
+        assertEquals(4, rollup.getSamplesRecorded());
+    }
+
+    @Test
+    public void dropsSamplesOfWindowsAlreadyPublished() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10);
+        assertTrue(rollup.record("set", "cpu", 12000, 3));
+        assertFalse(rollup.record("set", "cpu", 1000, 2));
+        assertFalse(rollup.record("set", "cpu", 13000, Double.NaN));
+        assertEquals(1, rollup.getSamplesLate());
+        rollup.close();
+    }
+
+    @Test
+    public void rollsUpLateSamplesIntoTheWindowsStillOpen() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10, 60);
+        assertTrue(rollup.record("set", "cpu", 12000, 3));
+        // Late for the 10 s window starting at 10 s, not for the minute starting at 0
+        assertTrue(rollup.record("set", "cpu", 1000, 2));
+        rollup.close();
+
+        assertEquals(1, rollup.getSamplesLate());
+        assertEquals(2, rollup.getSamplesRecorded());
+        assertTrue(published("cpu.10s.count", 10000, "1"));
+        assertFalse(published("cpu.10s.count", 0, "1"));
+        assertTrue(published("cpu.1m.count", 0, "2"));
+        assertTrue(published("cpu.1m.min", 0, "2"));
+    }
+
+    @Test
+    public void dropsSamplesOfWindowsPublishedByTick() throws Exception {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.MILLISECONDS, 100);
+        rollup.setGrace(0, TimeUnit.MILLISECONDS);
+        assertTrue(rollup.record("set", "cpu", 1000, 2));
+        assertTrue(rollup.record("set", "cpu", 1050, 4));
+        await(() -> rollup.getWindowsPublished() > 0);
+        assertEquals(1, rollup.getWindowsPublished());
+
+        // Stragglers of the window published, and of an earlier one
+        assertFalse(rollup.record("set", "cpu", 1099, 8));
+        assertFalse(rollup.record("set", "cpu", 900, 8));
+        assertTrue(rollup.record("set", "cpu", 1100, 1));
+        rollup.close();
+
+        assertEquals(2, rollup.getSamplesLate());
+        assertEquals(2, rollup.getWindowsPublished());
+        assertTrue(published("cpu.100ms.count", 1000, "2"));
+        assertFalse(published("cpu.100ms.count", 1000, "1"));
+        assertFalse(published("cpu.100ms.count", 900, "1"));
+        assertTrue(published("cpu.100ms.count", 1100, "1"));
+    }
+
+    @Test
+    public void publishesOnlyTheAggregatesSet() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10);
+        rollup.setAggregates(EnumSet.of(Aggregate.MAX));
+        rollup.record("set", "cpu", 1000, 2);
+        rollup.close();
+
+        assertTrue(published("cpu.10s.max", 0, "2"));
+        assertFalse(published("cpu.10s.min", 0, "2"));
+    }
+
+    @Test
+    public void createsMetricsOfNewSeriesOnce() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10);
+        rollup.setProvisioning(true);
+        rollup.series("set", "latency", "MILLISECONDS").record(1000, 2);
+        rollup.series("set", "latency", "MILLISECONDS").record(2000, 2);
+        rollup.close();
+
+        assertEquals(5, created.size());
+        assertTrue(created.contains("latency.10s.avg double MILLISECONDS"));
+        assertTrue(created.contains("latency.10s.count integer COUNT"));
+    }
+
+    @Test
+    public void createsMetricsOfTheAggregatesSetOnly() {
+        MuRollup rollup = new MuRollup(mu, TimeUnit.SECONDS, 10);
+        rollup.setProvisioning(true);
+        rollup.setAggregates(EnumSet.of(Aggregate.MAX, Aggregate.COUNT));
+        rollup.record("set", "cpu", 1000, 2);
+        rollup.close();
+
+        assertEquals(2, created.size());
+        assertTrue(created.contains("cpu.10s.max double COUNT"));
+        assertTrue(created.contains("cpu.10s.count integer COUNT"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindows() {
+        new MuRollup(mu, TimeUnit.MILLISECONDS, 0);
+    }
+}
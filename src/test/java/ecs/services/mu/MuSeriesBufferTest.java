@@ -0,0 +1,95 @@
+package ecs.services.mu;
+
+import mk.coco.ecs.services.mu.MuSeriesBuffer;
+import mk.coco.ecs.services.mu.MuSeriesBuffer.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MuSeriesBufferTest {
+
+    private static List<String> flush(MuSeriesBuffer buffer, int maxPointsPerBody) {
+        List<String> bodies = new ArrayList<>();
+        buffer.flush(maxPointsPerBody, (metricSet, body, points) -> bodies.add(metricSet + " " + points + " " + body));
+        return bodies;
+    }
+
+    @Test
+    public void writesAddMeasurementsBodiesPerMetricSet() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(10, 4, OverflowPolicy.DROP_OLDEST);
+        assertTrue(buffer.record("set", "cpu", 1, 0.5));
+        assertTrue(buffer.record("set", "cpu", 2, 1));
+        assertTrue(buffer.record("other", "memory", 1, 1024));
+
+        List<String> bodies = flush(buffer, 1000);
+
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.contains("set 2 {\"metrics\": [{\"timestamp\": 1000000 ,\"values\": {\"cpu\": 0.5 }},"
+                + "{\"timestamp\": 2000000 ,\"values\": {\"cpu\": 1 }}]}"));
+        assertTrue(bodies.contains("other 1 {\"metrics\": [{\"timestamp\": 1000000 ,\"values\": {\"memory\": 1024 }}]}"));
+        assertEquals(3, buffer.getPointsFlushed());
+        assertTrue(flush(buffer, 1000).isEmpty());
+    }
+
+    @Test
+    public void escapesMetricIds() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(10, 4, OverflowPolicy.DROP_OLDEST);
+        assertTrue(buffer.record("set", "disk \"C:\\\"", 1, 1));
+
+        assertEquals("set 1 {\"metrics\": [{\"timestamp\": 1000000 ,\"values\": {\"disk \\\"C:\\\\\\\"\": 1 }}]}",
+                flush(buffer, 1000).get(0));
+    }
+
+    @Test
+    public void splitsBodiesBySeries() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(10, 4, OverflowPolicy.DROP_OLDEST);
+        for (int ii = 0; ii < 3; ii++) {
+            buffer.record("set", "metric" + ii, 1, ii);
+            buffer.record("set", "metric" + ii, 2, ii);
+        }
+
+        assertEquals(3, flush(buffer, 2).size());
+    }
+
+    @Test
+    public void overwritesOldestPoints() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(10, 3, OverflowPolicy.DROP_OLDEST);
+        for (int ii = 1; ii <= 5; ii++) {
+            buffer.record("set", "cpu", ii, ii);
+        }
+
+        String body = flush(buffer, 1000).get(0);
+        assertTrue(body.startsWith("set 3 {\"metrics\": [{\"timestamp\": 3000000 "));
+        assertEquals(2, buffer.getPointsOverwritten());
+    }
+
+    @Test
+    public void downsamplesFullSeries() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(10, 4, OverflowPolicy.DOWNSAMPLE);
+        for (int ii = 1; ii <= 5; ii++) {
+            buffer.record("set", "cpu", ii, ii);
+        }
+
+        assertEquals("set 3 {\"metrics\": [{\"timestamp\": 2000000 ,\"values\": {\"cpu\": 1.5 }},"
+                + "{\"timestamp\": 4000000 ,\"values\": {\"cpu\": 3.5 }},"
+                + "{\"timestamp\": 5000000 ,\"values\": {\"cpu\": 5 }}]}", flush(buffer, 1000).get(0));
+        assertEquals(2, buffer.getPointsDownsampled());
+    }
+
+    @Test
+    public void rejectsPointsWithoutRoom() {
+        MuSeriesBuffer buffer = new MuSeriesBuffer(1, 2, OverflowPolicy.DROP_OLDEST);
+        assertEquals(0, buffer.seriesId("set", "cpu"));
+        assertEquals(-1, buffer.seriesId("set", "memory"));
+        assertFalse(buffer.record("set", "memory", 1, 1));
+        assertFalse(buffer.record(0, 1, Double.NaN));
+        assertEquals(2, buffer.getPointsRejected());
+        assertEquals(32, buffer.getMemoryBytes());
+    }
+}
@@ -0,0 +1,210 @@
+package ecs.services.omega;
+
+import ecs.services.RecordedRequests;
+import mk.coco.ecs.restcontent.HttpStatusException;
+import mk.coco.ecs.services.omega.OmegaBatchingAppender;
+import mk.coco.ecs.services.omega.OmegaLogEntry;
+import mk.coco.ecs.services.omega.OmegaLogPolicy;
+import mk.coco.ecs.services.omega.OmegaService;
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+import mk.coco.ecs.services.omega.OmegaSpillBuffer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.stubbing.Answer;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class OmegaBatchingAppenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OmegaService omega;
+    private List<String> bodies;
+
+    @Before
+    public void setUp() throws Exception {
+        omega = mock(OmegaService.class);
+        RecordedRequests requests = new RecordedRequests();
+        bodies = requests.getBodies();
+        Answer<String> recording = requests.recording(0, 1);
+        doAnswer(invocation -> {
+            String mrId = invocation.getArgument(0);
+            // Omega does not know this monitored resource, it rejects its logs every time
+            if (mrId.equals("unknown")) throw new HttpStatusException(400, "Error getStatusCode 400");
+            if (mrId.equals("down")) throw new HttpStatusException(503, "Error getStatusCode 503");
+            return recording.answer(invocation);
+        }).when(omega).appendLogsWithBody(anyString(), anyString());
+    }
+
+    @Test
+    public void rendersEntriesAsBefore() {
+        OmegaLogEntry entry = new OmegaLogEntry("mr", "job", OmegaLogLevel.INFO, "a \"quoted\" message", 1);
+        assertEquals("{\"mrId\": \"mr\", \"properties\": {\"jobName\": \"job\"}, \"level\": \"INFO\", "
+                + "\"message\" : \"a \\\"quoted\\\" message\", \"creationDate\": 1000000 }", entry.toJson());
+
+        entry = new OmegaLogEntry("mr", null, Collections.singletonMap("traceId", "1234"), OmegaLogLevel.WARN, "message", 1);
+        assertEquals("{\"mrId\": \"mr\", \"properties\": {\"traceId\": \"1234\"}, \"level\": \"WARN\", "
+                + "\"message\" : \"message\", \"creationDate\": 1000000 }", entry.toJson());
+    }
+
+    @Test
+    public void sendsEveryEntryInBatchesOnClose() {
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.setMaxBatchEntries(2);
+        for (int ii = 0; ii < 5; ii++) {
+            assertTrue(appender.append("mr", null, OmegaLogLevel.INFO, "message " + ii, ii));
+        }
+        appender.close();
+
+        assertEquals(5, appender.getEntriesSent());
+        assertEquals(0, appender.getQueuedEntries());
+        assertTrue(bodies.size() >= 3);
+        assertFalse(appender.append("mr", null, OmegaLogLevel.INFO, "too late", 0));
+        assertEquals(1, appender.getEntriesDropped());
+    }
+
+    @Test
+    public void accountsForEntriesAppendedWhileClosing() throws Exception {
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setMaxBatchEntries(10);
+        int perThread = 2000;
+        Thread[] threads = new Thread[4];
+        for (int tt = 0; tt < threads.length; tt++) {
+            threads[tt] = new Thread(() -> {
+                for (int ii = 0; ii < perThread; ii++) {
+                    appender.append("mr", null, OmegaLogLevel.INFO, "message " + ii, ii);
+                }
+            });
+            threads[tt].start();
+        }
+        await(() -> appender.getEntriesSent() > 0);
+        appender.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every entry is either sent or dropped, none is left in the queue
+        assertEquals(0, appender.getQueuedEntries());
+        assertEquals(threads.length * perThread, appender.getEntriesSent() + appender.getEntriesDropped());
+    }
+
+    @Test
+    public void groupsEntriesByMonitoredResource() {
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.append("mr1", null, OmegaLogLevel.INFO, "first", 0);
+        appender.append("mr2", null, OmegaLogLevel.INFO, "second", 0);
+        appender.append("mr1", null, OmegaLogLevel.INFO, "third", 0);
+        appender.flush();
+
+        assertEquals(2, bodies.size());
+        assertTrue(bodies.get(0).startsWith("mr1 [{"));
+        assertTrue(bodies.get(0).contains("first") && bodies.get(0).contains("third"));
+        assertTrue(bodies.get(1).startsWith("mr2 [{"));
+        assertEquals(2, appender.getBatchesSent());
+        appender.close();
+    }
+
+    @Test
+    public void dropsEntriesWhenFull() {
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega, 2);
+        appender.setLinger(1, TimeUnit.HOURS);
+        assertTrue(appender.append("mr", null, OmegaLogLevel.INFO, "first", 0));
+        assertTrue(appender.append("mr", null, OmegaLogLevel.INFO, "second", 0));
+        assertFalse(appender.append("mr", null, OmegaLogLevel.INFO, "third", 0));
+        appender.close();
+
+        assertEquals(2, appender.getEntriesSent());
+        assertEquals(1, appender.getEntriesDropped());
+    }
+
+    @Test
+    public void sendsRepeatedEntriesOnceWithPolicy() {
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.setPolicy(new OmegaLogPolicy());
+        assertTrue(appender.append("mr", null, OmegaLogLevel.WARN, "again", 0));
+        for (int ii = 0; ii < 9; ii++) {
+            assertFalse(appender.append("mr", null, OmegaLogLevel.WARN, "again", ii));
+        }
+        appender.close();
+
+        assertEquals(9, appender.getEntriesFiltered());
+        assertEquals(2, appender.getEntriesSent());
+        assertTrue(bodies.get(0).contains("\"occurrences\": \"9\""));
+    }
+
+    @Test
+    public void doesNotSpillBatchesOmegaRejects() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath());
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.setSpillBuffer(spill);
+        appender.append("unknown", null, OmegaLogLevel.INFO, "rejected", 0);
+        appender.append("mr", null, OmegaLogLevel.INFO, "accepted", 0);
+        appender.flush();
+
+        assertEquals(1, appender.getEntriesFailed());
+        assertEquals(1, appender.getEntriesSent());
+        assertEquals(0, appender.getEntriesSpilled());
+        assertTrue(spill.isEmpty());
+        appender.close();
+        spill.close();
+    }
+
+    @Test
+    public void skipsSpilledEntriesOmegaRejects() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath());
+        String rejected = new OmegaLogEntry("unknown", null, OmegaLogLevel.INFO, "rejected", 0).toJson();
+        spill.write("unknown", rejected);
+        spill.write("mr", new OmegaLogEntry("mr", null, OmegaLogLevel.INFO, "spilled", 0).toJson());
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.setSpillBuffer(spill);
+
+        await(spill::isEmpty);
+        appender.append("mr", null, OmegaLogLevel.INFO, "after", 0);
+        appender.close();
+
+        assertEquals(1, appender.getEntriesFailed());
+        assertEquals(2, appender.getEntriesSent());
+        assertEquals(0, appender.getEntriesSpilled());
+        assertTrue(bodies.get(0).contains("spilled"));
+        assertTrue(bodies.get(1).contains("after"));
+        spill.close();
+    }
+
+    @Test
+    public void givesUpSpilledEntriesAfterMaxAttempts() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath());
+        spill.write("down", new OmegaLogEntry("down", null, OmegaLogLevel.INFO, "never sent", 0).toJson());
+        spill.write("mr", new OmegaLogEntry("mr", null, OmegaLogLevel.INFO, "spilled", 0).toJson());
+        OmegaBatchingAppender appender = new OmegaBatchingAppender(omega);
+        appender.setLinger(1, TimeUnit.HOURS);
+        appender.setMaxReplayAttempts(1);
+        appender.setSpillBuffer(spill);
+
+        await(spill::isEmpty);
+        appender.close();
+
+        assertEquals(1, appender.getEntriesFailed());
+        assertEquals(1, appender.getEntriesSent());
+        spill.close();
+    }
+
+}
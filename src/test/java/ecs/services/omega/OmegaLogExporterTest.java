@@ -0,0 +1,134 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
+import mk.coco.ecs.services.omega.OmegaLogExporter;
+import mk.coco.ecs.services.omega.OmegaService;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class OmegaLogExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OmegaService omega;
+    private AtomicBoolean failSecondPage;
+
+    @Before
+    public void setUp() throws Exception {
+        omega = mock(OmegaService.class);
+        failSecondPage = new AtomicBoolean();
+        // "a" has two pages (logs at 1, 3 and 5 ms), "b" has one (logs at 2 and 4 ms)
+        doAnswer(invocation -> {
+            String mrId = invocation.getArgument(0);
+            String params = invocation.getArgument(1);
+            String body;
+            if ("a".equals(mrId) && !params.contains("paginationKey=")) {
+                body = "{\"data\": [" + log("a1", 1) + ", " + log("a3", 3) + "], \"paginationKey\": \"next\"}";
+            } else if ("a".equals(mrId)) {
+                if (failSecondPage.get()) throw new IOException("Omega is down");
+                body = "{\"data\": [" + log("a5", 5) + ", " + log("out", 50) + "]}";
+            } else {
+                body = "{\"data\": [" + log("b2", 2) + ", " + log("b4", 4) + "]}";
+            }
+            ResponseBodyHandler<?> handler = invocation.getArgument(2);
+            return handler.handle(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }).when(omega).readLogs(anyString(), anyString(), any(ResponseBodyHandler.class));
+    }
+
+    private static String log(String message, long creationDateInMillis) {
+        return "{\"message\":\"" + message + "\",\"creationDate\":" + creationDateInMillis * 1000000 + "}";
+    }
+
+    private static List<String> messages(Path file) throws IOException {
+        List<String> messages = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                messages.add(line.substring(line.indexOf(":\"") + 2, line.indexOf("\",")));
+            }
+        }
+        return messages;
+    }
+
+    @Test
+    public void exportsOneFilePerMonitoredResource() throws Exception {
+        List<String> progress = Collections.synchronizedList(new ArrayList<>());
+        OmegaLogExporter exporter = new OmegaLogExporter(omega, folder.getRoot().toPath());
+        exporter.setProgressListener((mrId, pages, entries, finished) -> progress.add(mrId + pages + entries + finished));
+
+        List<Path> files = exporter.export(Arrays.asList("a", "b"), 0, 10);
+
+        assertEquals(2, files.size());
+        assertEquals(Arrays.asList("a1", "a3", "a5"), messages(files.get(0)));
+        assertEquals(Arrays.asList("b2", "b4"), messages(files.get(1)));
+        assertEquals(3, progress.size());
+        assertEquals(true, progress.contains("a23true"));
+    }
+
+    @Test
+    public void keepsFilesInTheDirectory() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("export");
+        OmegaLogExporter exporter = new OmegaLogExporter(omega, directory);
+
+        List<Path> files = exporter.export(Collections.singletonList("../b"), 0, 10);
+
+        assertEquals(Collections.singletonList(directory.resolve("..%2Fb.ndjson.gz")), files);
+        assertEquals(Arrays.asList("b2", "b4"), messages(files.get(0)));
+        assertEquals(true, Files.exists(directory.resolve("..%2Fb.ndjson.gz.checkpoint")));
+    }
+
+    @Test
+    public void mergesByCreationDate() throws Exception {
+        OmegaLogExporter exporter = new OmegaLogExporter(omega, folder.getRoot().toPath());
+        exporter.setMerged(true);
+
+        List<Path> files = exporter.export(Arrays.asList("a", "b"), 0, 10);
+
+        assertEquals(Collections.singletonList(folder.getRoot().toPath().resolve(OmegaLogExporter.MERGED_FILE)), files);
+        assertEquals(Arrays.asList("a1", "b2", "a3", "b4", "a5"), messages(files.get(0)));
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        OmegaLogExporter exporter = new OmegaLogExporter(omega, folder.getRoot().toPath());
+        failSecondPage.set(true);
+        try {
+            exporter.export(Arrays.asList("a", "b"), 0, 10);
+            fail("Export should fail");
+        } catch (Exception e) {
+            assertEquals(1, e.getSuppressed().length);
+        }
+
+        failSecondPage.set(false);
+        List<Path> files = exporter.export(Arrays.asList("a", "b"), 0, 10);
+
+        assertEquals(Arrays.asList("a1", "a3", "a5"), messages(files.get(0)));
+        assertEquals(Arrays.asList("b2", "b4"), messages(files.get(1)));
+    }
+}
@@ -0,0 +1,193 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
+import mk.coco.ecs.services.omega.OmegaLogFollower;
+import mk.coco.ecs.services.omega.OmegaService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+
+public class OmegaLogFollowerTest {
+
+    private OmegaService omega;
+    // Logs in Omega, newest first
+    private List<String> logs;
+    // Whether Omega returns pages oldest first
+    private volatile boolean oldestFirst;
+    private List<String> requestedParams;
+
+    @Before
+    public void setUp() throws Exception {
+        omega = mock(OmegaService.class);
+        logs = new CopyOnWriteArrayList<>();
+        requestedParams = new CopyOnWriteArrayList<>();
+        doCallRealMethod().when(omega).follow(anyString(), any(), anyLong(), any());
+        doAnswer(invocation -> {
+            String params = invocation.getArgument(1);
+            requestedParams.add(params);
+            List<String> ordered = new ArrayList<>(logs);
+            String since = param(params, "q");
+            Matcher sinceMatcher = Pattern.compile("creationDate\\+%3E%3D\\+(\\d+)").matcher((since == null) ? "" : since);
+            if (sinceMatcher.find()) ordered.removeIf(log -> creationDate(log) < Long.parseLong(sinceMatcher.group(1)));
+            if (oldestFirst) Collections.reverse(ordered);
+            String paginationKey = param(params, "paginationKey");
+            int from = (paginationKey == null) ? 0 : Integer.parseInt(paginationKey);
+            int to = Math.min(ordered.size(), from + Integer.parseInt(param(params, "pageSize")));
+            String body = "{\"data\": [" + String.join(", ", ordered.subList(from, to)) + "]"
+                    + ((to < ordered.size()) ? ", \"paginationKey\": \"" + to + "\"}" : "}");
+            ResponseBodyHandler<?> handler = invocation.getArgument(2);
+            return handler.handle(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        }).when(omega).readLogs(anyString(), anyString(), any(ResponseBodyHandler.class));
+    }
+
+    private static String param(String params, String name) {
+        Matcher matcher = Pattern.compile("[?&]" + name + "=([^&]*)").matcher(params);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static long creationDate(String log) {
+        Matcher matcher = Pattern.compile("\"creationDate\":(\\d+)").matcher(log);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : Long.MIN_VALUE;
+    }
+
+    // Waits for polls that start after this call, so anything they could deliver is delivered
+    private static void awaitPolls(OmegaLogFollower follower, int polls) throws InterruptedException {
+        long until = follower.getPolls() + polls + 1;
+        await(() -> follower.getPolls() >= until);
+    }
+
+    private void log(String message, long creationDateInMillis) {
+        logs.add(0, "{\"message\":\"" + message + "\",\"creationDate\":" + creationDateInMillis * 1000000 + "}");
+    }
+
+    @Test
+    public void deliversEachNewLogOnceInOrder() throws Exception {
+        log("old", 1);
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        OmegaLogFollower follower = omega.follow("mr", "level:ERROR", 2, delivered::add);
+        follower.setPollIntervals(10, 50, TimeUnit.MILLISECONDS);
+
+        log("first", 2);
+        await(() -> delivered.size() == 1);
+        log("second", 2);
+        log("third", 3);
+        await(() -> delivered.size() == 3);
+        awaitPolls(follower, 2);
+        follower.close();
+
+        assertEquals(Arrays.asList(
+                "{\"message\":\"first\",\"creationDate\":2000000}",
+                "{\"message\":\"second\",\"creationDate\":2000000}",
+                "{\"message\":\"third\",\"creationDate\":3000000}"), delivered);
+        assertEquals(3, follower.getEntriesDelivered());
+        assertEquals(3000000, follower.getLastCreationDate());
+        assertTrue(requestedParams.get(requestedParams.size() - 1).endsWith("&q=%28level%3AERROR%29+and+creationDate+%3E%3D+3000000"));
+    }
+
+    @Test
+    public void backsOffWhileIdle() throws Exception {
+        OmegaLogFollower follower = omega.follow("mr", null, 0, log -> { });
+        follower.setPollIntervals(10, 40, TimeUnit.MILLISECONDS);
+        await(() -> follower.getIntervalMillis() == 40);
+        awaitPolls(follower, 1);
+        follower.close();
+
+        assertEquals(40, follower.getIntervalMillis());
+    }
+
+    @Test
+    public void followsEveryPageWhenOrderIsUnknown() throws Exception {
+        oldestFirst = true;
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        OmegaLogFollower follower = omega.follow("mr", null, 2, delivered::add);
+        follower.setPageSize(2);
+        follower.setSinceQueryFormat(null);
+        follower.setPollIntervals(10, 20, TimeUnit.MILLISECONDS);
+        awaitPolls(follower, 0);
+
+        // The first page only has old logs
+        log("old 1", 1);
+        log("old 2", 1);
+        log("old 3", 1);
+        log("new", 5);
+        awaitPolls(follower, 1);
+        follower.close();
+
+        assertEquals(Collections.singletonList("{\"message\":\"new\",\"creationDate\":5000000}"), delivered);
+    }
+
+    @Test
+    public void stopsAtFirstPageWithoutNewLogsWhenNewestFirst() throws Exception {
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        OmegaLogFollower follower = omega.follow("mr", null, 2, delivered::add);
+        follower.setNewestFirst(true);
+        follower.setPageSize(1);
+        follower.setSinceQueryFormat(null);
+        follower.setPollIntervals(10, 20, TimeUnit.MILLISECONDS);
+        awaitPolls(follower, 0);
+
+        log("old 1", 1);
+        log("old 2", 1);
+        log("new", 5);
+        awaitPolls(follower, 2);
+        follower.close();
+
+        assertEquals(Collections.singletonList("{\"message\":\"new\",\"creationDate\":5000000}"), delivered);
+        assertFalse(requestedParams.stream().anyMatch(params -> params.contains("paginationKey=2")));
+    }
+
+    @Test
+    public void deliversUpToMaxEntriesPerPoll() throws Exception {
+        oldestFirst = true;
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        // Poll that delivered each log
+        List<Long> deliveredBy = new CopyOnWriteArrayList<>();
+        AtomicReference<OmegaLogFollower> reference = new AtomicReference<>();
+        OmegaLogFollower follower = omega.follow("mr", null, 0, log -> {
+            delivered.add(log);
+            deliveredBy.add(reference.get().getPolls());
+        });
+        reference.set(follower);
+        follower.setMaxEntriesPerPoll(2);
+        follower.setPageSize(1);
+        follower.setPollIntervals(10, 20, TimeUnit.MILLISECONDS);
+        awaitPolls(follower, 0);
+
+        for (int ii = 1; ii <= 5; ii++) {
+            log("log " + ii, ii);
+        }
+        await(() -> delivered.size() == 5);
+        awaitPolls(follower, 1);
+        follower.close();
+
+        assertEquals(5, follower.getEntriesDelivered());
+        assertEquals("{\"message\":\"log 5\",\"creationDate\":5000000}", delivered.get(4));
+        for (Long poll : deliveredBy) {
+            assertTrue(Collections.frequency(deliveredBy, poll) <= 2);
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.restcontent.AbortableInputStream;
+import mk.coco.ecs.restcontent.ResponseBodyHandler;
+import mk.coco.ecs.services.omega.OmegaLogIterator;
+import mk.coco.ecs.services.omega.OmegaService;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class OmegaLogIteratorTest {
+
+    private static final int PAGES = 3;
+    private static final int ENTRIES_PER_PAGE = 4;
+
+    private OmegaService omega;
+    private List<String> requestedParams;
+    private HttpUriRequest request;
+
+    @Before
+    public void setUp() throws Exception {
+        omega = mock(OmegaService.class);
+        requestedParams = new CopyOnWriteArrayList<>();
+        request = mock(HttpUriRequest.class);
+        doCallRealMethod().when(omega).iterateLogs(anyString(), any(), anyInt());
+        doCallRealMethod().when(omega).streamLogs(anyString(), any(), anyInt());
+        doAnswer(invocation -> {
+            String params = invocation.getArgument(1);
+            requestedParams.add(params);
+            ResponseBodyHandler<?> handler = invocation.getArgument(2);
+            int page = params.contains("paginationKey=") ? Integer.parseInt(params.substring(params.indexOf("paginationKey=") + 14)) : 0;
+            return handler.handle(new AbortableInputStream(new ByteArrayInputStream(page(page).getBytes(StandardCharsets.UTF_8)), request));
+        }).when(omega).readLogs(anyString(), anyString(), any(ResponseBodyHandler.class));
+    }
+
+    private static String page(int page) {
+        StringBuilder body = new StringBuilder("{\"data\": [");
+        for (int ii = 0; ii < ENTRIES_PER_PAGE; ii++) {
+            if (ii > 0) body.append(", ");
+            body.append("{\"message\": \"").append(page).append('-').append(ii).append("\", \"properties\": {\"a\": [1]}}");
+        }
+        String next = (page + 1 < PAGES) ? "\"" + (page + 1) + "\"" : "null";
+        return body.append("], \"pagination\": {\"nextPaginationKey\": ").append(next).append("}}").toString();
+    }
+
+    @Test
+    public void followsEveryPage() {
+        try (Stream<String> logs = omega.streamLogs("mr", "level:ERROR", ENTRIES_PER_PAGE)) {
+            List<String> messages = logs.collect(Collectors.toList());
+            assertEquals(PAGES * ENTRIES_PER_PAGE, messages.size());
+            assertEquals("{\"message\":\"0-0\",\"properties\":{\"a\":[1]}}", messages.get(0));
+            assertEquals("{\"message\":\"2-3\",\"properties\":{\"a\":[1]}}", messages.get(messages.size() - 1));
+        }
+        assertEquals(PAGES, requestedParams.size());
+        assertEquals("?pageSize=4&q=level%3AERROR", requestedParams.get(0));
+        assertEquals("?pageSize=4&q=level%3AERROR&paginationKey=1", requestedParams.get(1));
+        verify(request, never()).abort();
+    }
+
+    @Test
+    public void stopsReadingWhenClosed() throws Exception {
+        OmegaLogIterator logs = omega.iterateLogs("mr", null, 1);
+        assertTrue(logs.hasNext());
+        logs.next();
+        logs.close();
+        assertFalse(logs.hasNext());
+
+        // The reader checks whether the iterator was closed once the page is read
+        await(() -> logs.getPagesRead() == 1);
+        assertEquals(1, requestedParams.size());
+    }
+
+    @Test
+    public void abortsPageWhenClosed() {
+        OmegaLogIterator logs = omega.iterateLogs("mr", null, 1);
+        assertTrue(logs.hasNext());
+        logs.next();
+        logs.close();
+
+        // Both the closing thread and the reader may abort it
+        verify(request, timeout(TimeUnit.SECONDS.toMillis(10)).atLeastOnce()).abort();
+    }
+
+}
@@ -0,0 +1,106 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.services.omega.OmegaLogEntry;
+import mk.coco.ecs.services.omega.OmegaLogPolicy;
+import mk.coco.ecs.services.omega.OmegaService.OmegaLogLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static ecs.services.RecordedRequests.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OmegaLogPolicyTest {
+
+    private OmegaLogPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new OmegaLogPolicy();
+    }
+
+    private static OmegaLogEntry entry(OmegaLogLevel level, String message, long creationDate) {
+        return new OmegaLogEntry("mr", "job", level, message, creationDate);
+    }
+
+    @Test
+    public void holdsBackIdenticalLogsAndSummarizesThem() throws Exception {
+        policy.setDedupWindow(500, TimeUnit.MILLISECONDS);
+        assertTrue(policy.admit(entry(OmegaLogLevel.WARN, "same", 1)));
+        assertFalse(policy.admit(entry(OmegaLogLevel.WARN, "same", 2)));
+        assertFalse(policy.admit(entry(OmegaLogLevel.WARN, "same", 3)));
+        assertTrue(policy.admit(entry(OmegaLogLevel.WARN, "other", 4)));
+        assertTrue(policy.admit(entry(OmegaLogLevel.INFO, "same", 5)));
+
+        List<OmegaLogEntry> summaries = new ArrayList<>();
+        policy.drainSummaries(false, summaries::add);
+        assertTrue(summaries.isEmpty());
+
+        // Windows of logs that were not repeated end without a summary
+        await(() -> {
+            policy.drainSummaries(false, summaries::add);
+            return policy.getDedupKeys() == 0;
+        });
+        assertEquals(1, summaries.size());
+        assertEquals("same", summaries.get(0).getMessage());
+        assertEquals("job", summaries.get(0).getJobName());
+        assertEquals("2", summaries.get(0).getProperties().get(OmegaLogPolicy.OCCURRENCES_PROPERTY));
+        assertEquals(3, summaries.get(0).getCreationDateInMillis());
+        assertEquals(0, policy.getDedupKeys());
+        assertEquals(2, policy.getEntriesSuppressed());
+        assertTrue(policy.admit(entry(OmegaLogLevel.WARN, "same", 6)));
+    }
+
+    @Test
+    public void summarizesWindowsReplacedBeforeBeingDrained() throws Exception {
+        policy.setDedupWindow(200, TimeUnit.MILLISECONDS);
+        assertTrue(policy.admit(entry(OmegaLogLevel.WARN, "same", 1)));
+        assertFalse(policy.admit(entry(OmegaLogLevel.WARN, "same", 2)));
+        // Draining would forget the window, so only time can end it
+        long windowEnd = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() <= windowEnd) {
+            Thread.sleep(windowEnd + 1 - System.currentTimeMillis());
+        }
+        assertTrue(policy.admit(entry(OmegaLogLevel.WARN, "same", 3)));
+
+        List<OmegaLogEntry> summaries = new ArrayList<>();
+        policy.drainSummaries(true, summaries::add);
+        assertEquals(1, summaries.size());
+        assertEquals(2, summaries.get(0).getCreationDateInMillis());
+    }
+
+    @Test
+    public void limitsRatePerLevel() {
+        policy.setDedupWindow(0, TimeUnit.MILLISECONDS);
+        policy.setRateLimit(OmegaLogLevel.INFO, 1, 3);
+        int admitted = 0;
+        for (int ii = 0; ii < 10; ii++) {
+            if (policy.admit(entry(OmegaLogLevel.INFO, "message " + ii, ii))) admitted++;
+        }
+
+        assertEquals(3, admitted);
+        assertEquals(7, policy.getEntriesRateLimited());
+        assertTrue(policy.admit(entry(OmegaLogLevel.DEBUG, "not limited", 0)));
+    }
+
+    @Test
+    public void alwaysSendsErrors() {
+        policy.setRateLimit(OmegaLogLevel.WARN, 1, 1);
+        for (int ii = 0; ii < 10; ii++) {
+            assertTrue(policy.admit(entry(OmegaLogLevel.ERROR, "failure", ii)));
+            assertTrue(policy.admit(entry(OmegaLogLevel.FATAL, "failure", ii)));
+        }
+        assertEquals(20, policy.getEntriesAdmitted());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void errorsCanNotBeLimited() {
+        policy.setRateLimit(OmegaLogLevel.ERROR, 1, 1);
+    }
+}
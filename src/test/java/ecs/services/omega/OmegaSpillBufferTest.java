@@ -0,0 +1,72 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.services.omega.OmegaSpillBuffer;
+import mk.coco.ecs.services.omega.OmegaSpillBuffer.SpilledEntry;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OmegaSpillBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsEntriesInTheOrderTheyWereWritten() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath(), 4096, 64 * 1024);
+        for (int ii = 0; ii < 300; ii++) {
+            assertTrue(spill.write("mr" + (ii % 2), "{\"message\": \"" + ii + "\"}"));
+        }
+
+        for (int ii = 0; ii < 300; ii += 100) {
+            List<SpilledEntry> entries = spill.peek(100, Integer.MAX_VALUE);
+            assertEquals(100, entries.size());
+            assertEquals("mr" + (ii % 2), entries.get(0).getMrId());
+            assertEquals("{\"message\": \"" + ii + "\"}", entries.get(0).getJson());
+            spill.commit(entries.get(99));
+        }
+        assertTrue(spill.isEmpty());
+        spill.close();
+    }
+
+    @Test
+    public void keepsEntriesNotReadAfterClosing() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath(), 4096, 64 * 1024);
+        for (int ii = 0; ii < 10; ii++) {
+            spill.write("mr", "{\"message\": \"" + ii + "\"}");
+        }
+        spill.commit(spill.peek(4, Integer.MAX_VALUE).get(3));
+        spill.close();
+
+        spill = new OmegaSpillBuffer(folder.getRoot().getPath(), 4096, 64 * 1024);
+        assertEquals(6, spill.getBufferedEntries());
+        spill.write("mr", "{\"message\": \"10\"}");
+        List<SpilledEntry> entries = spill.peek(100, Integer.MAX_VALUE);
+        assertEquals(7, entries.size());
+        assertEquals("{\"message\": \"4\"}", entries.get(0).getJson());
+        assertEquals("{\"message\": \"10\"}", entries.get(6).getJson());
+        spill.close();
+    }
+
+    @Test
+    public void evictsOldestEntriesWhenFull() throws Exception {
+        OmegaSpillBuffer spill = new OmegaSpillBuffer(folder.getRoot().getPath(), 4096, 16 * 1024);
+        for (int ii = 0; ii < 3000; ii++) {
+            spill.write("mr", "{\"message\": \"" + ii + "\"}");
+        }
+
+        assertTrue(spill.getEntriesEvicted() > 0);
+        assertEquals(3000, spill.getEntriesEvicted() + spill.getBufferedEntries());
+        assertTrue(folder.getRoot().list().length <= 4);
+        String last = spill.peek(Integer.MAX_VALUE, Integer.MAX_VALUE).get((int) spill.getBufferedEntries() - 1).getJson();
+        assertEquals("{\"message\": \"2999\"}", last);
+        spill.close();
+    }
+
+}
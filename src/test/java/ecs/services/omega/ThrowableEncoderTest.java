@@ -0,0 +1,99 @@
+package ecs.services.omega;
+
+import mk.coco.ecs.services.omega.ThrowableEncoder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThrowableEncoderTest {
+
+    private ThrowableEncoder encoder;
+
+    @Before
+    public void setUp() {
+        encoder = new ThrowableEncoder();
+    }
+
+    private static Exception nested(int depth) {
+        if (depth == 0) return new IllegalStateException("root \"cause\"");
+        try {
+            throw nested(depth - 1);
+        } catch (Exception e) {
+            Exception wrapper = new RuntimeException("level " + depth, e);
+            wrapper.addSuppressed(new IOException("suppressed " + depth));
+            return wrapper;
+        }
+    }
+
+    private static String unescape(String json) {
+        return json.replace("\\n", "\n").replace("\\t", "\t").replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    @Test
+    public void writesLikePrintStackTrace() {
+        Exception e = nested(3);
+        StringWriter expected = new StringWriter();
+        e.printStackTrace(new PrintWriter(expected));
+
+        String trace = encoder.encode(e);
+
+        assertFalse(trace.contains("\n"));
+        assertTrue(trace.contains("root \\\"cause\\\""));
+        assertEquals("\n" + expected.toString().replace(System.lineSeparator(), "\n").trim(), unescape(trace));
+    }
+
+    @Test
+    public void writesAfterTheJson() {
+        StringBuilder json = new StringBuilder("{\"message\": \"header");
+
+        encoder.encode(json, new IllegalStateException("failure"));
+
+        assertTrue(json.toString().startsWith("{\"message\": \"header\\njava.lang.IllegalStateException: failure\\n\\tat "));
+    }
+
+    @Test
+    public void capsDepth() {
+        encoder.setMaxDepth(1);
+
+        String trace = unescape(encoder.encode(nested(3)));
+
+        assertTrue(trace.contains("Caused by: java.lang.RuntimeException: level 2"));
+        assertFalse(trace.contains("level 1"));
+        assertTrue(trace.endsWith("\t... nested throwables omitted"));
+    }
+
+    @Test
+    public void capsLength() {
+        encoder.setMaxLength(100);
+
+        String trace = encoder.encode(nested(10));
+
+        assertTrue(trace.endsWith("\\n\\t... trace truncated"));
+        // The last character written may be an escape sequence
+        assertTrue(trace.length() <= 105 + "\\n\\t... trace truncated".length());
+    }
+
+    @Test
+    public void sendsRepeatedTracesAsReference() {
+        encoder.setFingerprinting(true);
+        Exception e = nested(2);
+
+        String first = unescape(encoder.encode(e));
+        String second = unescape(encoder.encode(e));
+        String third = unescape(encoder.encode(new Exception("other")));
+
+        String fingerprint = first.substring("\n[trace ".length(), first.indexOf(']'));
+        assertTrue(first.contains("Caused by: "));
+        assertEquals("\njava.lang.RuntimeException: level 2\n\t[same trace as " + fingerprint + ", repeated 1 times]", second);
+        assertTrue(third.startsWith("\n[trace "));
+        assertFalse(third.contains(fingerprint));
+    }
+}
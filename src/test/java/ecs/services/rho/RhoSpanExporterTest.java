@@ -0,0 +1,125 @@
+package ecs.services.rho;
+
+import ecs.services.RecordedRequests;
+import mk.coco.ecs.services.rho.RhoService;
+import mk.coco.ecs.services.rho.RhoSpanExporter;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class RhoSpanExporterTest {
+
+    private RhoService rho;
+    private RecordedRequests requests;
+    private List<String> bodies;
+
+    @Before
+    public void setUp() throws Exception {
+        rho = mock(RhoService.class);
+        requests = new RecordedRequests();
+        bodies = requests.getBodies();
+        doAnswer(requests.recording(0)).when(rho).createSpans(anyString());
+    }
+
+    @Test
+    public void sendsSeveralSpansPerRequest() {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho);
+        exporter.setLinger(1, TimeUnit.HOURS);
+        assertTrue(exporter.record("get", "mr", "span-1", "trace", 1, 2));
+        assertTrue(exporter.record("put", "mr", "span-2", "trace", 3, 4));
+        exporter.flush();
+
+        assertEquals(1, bodies.size());
+        assertEquals("[{ \"name\": \"get\", \"mrId\": \"mr\", \"spanId\": \"span-1\", \"startDate\": 1, \"finishDate\": 2, "
+                + "\"traceId\": \"trace\"},{ \"name\": \"put\", \"mrId\": \"mr\", \"spanId\": \"span-2\", \"startDate\": 3, "
+                + "\"finishDate\": 4, \"traceId\": \"trace\"}]", bodies.get(0));
+        assertEquals(2, exporter.getSpansExported());
+        exporter.close();
+    }
+
+    @Test
+    public void splitsSpansInBatches() {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho);
+        exporter.setLinger(1, TimeUnit.HOURS);
+        exporter.setBatchSize(2);
+        for (int ii = 0; ii < 5; ii++) {
+            exporter.record("get", "mr", "span-" + ii, "trace", ii, ii + 1);
+        }
+        exporter.close();
+
+        assertEquals(3, bodies.size());
+        assertEquals(5, exporter.getSpansExported());
+    }
+
+    @Test
+    public void dropsSpansWhileTheRingIsFull() {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho, 3);
+        exporter.setLinger(1, TimeUnit.HOURS);
+        assertEquals(4, exporter.getCapacity());
+        for (int ii = 0; ii < 4; ii++) {
+            assertTrue(exporter.record("get", "mr", "span-" + ii, "trace", ii, ii + 1));
+        }
+        assertFalse(exporter.record("get", "mr", "span-4", "trace", 4, 5));
+        exporter.flush();
+        assertTrue(exporter.record("get", "mr", "span-5", "trace", 5, 6));
+
+        assertEquals(1, exporter.getSpansDropped());
+        exporter.close();
+        assertEquals(5, exporter.getSpansExported());
+    }
+
+    @Test
+    public void sendsSpansAfterLinger() throws Exception {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho);
+        exporter.setLinger(50, TimeUnit.MILLISECONDS);
+        exporter.record("get", "mr", "span-1", "trace", 1, 2);
+        requests.awaitBodies(1);
+
+        assertEquals(1, bodies.size());
+        exporter.close();
+    }
+
+    @Test
+    public void accountsForSpansRecordedWhileClosing() throws Exception {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho);
+        exporter.setBatchSize(10);
+        int perThread = 2000;
+        Thread[] threads = new Thread[4];
+        for (int tt = 0; tt < threads.length; tt++) {
+            threads[tt] = new Thread(() -> {
+                for (int ii = 0; ii < perThread; ii++) {
+                    exporter.record("get", "mr", "span-" + ii, "trace", ii, ii + 1);
+                }
+            });
+            threads[tt].start();
+        }
+        RecordedRequests.await(() -> exporter.getSpansExported() > 0);
+        exporter.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every span is either sent or dropped, none is left in the ring
+        assertEquals(exporter.getSpansRecorded(), exporter.getSpansExported());
+        assertEquals(threads.length * perThread, exporter.getSpansRecorded() + exporter.getSpansDropped());
+    }
+
+    @Test
+    public void dropsSpansOnceClosed() {
+        RhoSpanExporter exporter = new RhoSpanExporter(rho);
+        exporter.close();
+
+        assertFalse(exporter.record("get", "mr", "span-1", "trace", 1, 2));
+        assertEquals(1, exporter.getSpansDropped());
+    }
+}
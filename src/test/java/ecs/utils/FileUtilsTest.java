@@ -69,6 +69,19 @@ public class FileUtilsTest {
         assertEquals(str, content);
     }
 
+    @Test
+    public void decodesChunksKeepingEveryChar() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        for (int ii = 0; ii < 2000; ii++) {
+            expected.append("line \u00f1 \u20ac ").append(ii).append("\r\n");
+        }
+        InputStream is = new ByteArrayInputStream(expected.toString().getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder content = new StringBuilder();
+        FileUtils.decodeChunks(is, StandardCharsets.UTF_8, content::append);
+        assertEquals(expected.toString(), content.toString());
+    }
+
     @Test
     public void readsPathSuccessfully() throws Exception {
         String content = FileUtils.getFilePathFromResource(existingPath);
@@ -0,0 +1,82 @@
+package ecs.utils;
+
+import mk.coco.ecs.credentials.EnvSecretSource;
+import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.credentials.SecretSource;
+import mk.coco.ecs.services.common.SupportedServices;
+import mk.coco.ecs.utils.URLs;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntFunction;
+
+/**
+ * Bytes allocated per url built, before (concatenating every part of the url on each call, as the build* chains
+ * did) and after caching the constant prefixes. The urls are the ones of {@link mk.coco.ecs.services.omega.OmegaService}
+ * appending logs, built from the same secret values and with the same calls. Not a test, run its main method with
+ * the test classpath.
+ */
+public class URLsAllocationBenchmark {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final String SECRET_NAME = "urlsBenchmark";
+
+    private URLsAllocationBenchmark() {
+        // Avoid class instantiation
+    }
+
+    public static void main(String[] args) {
+        System.setProperty(SECRET_NAME + ".ecs.url.ns", "/ns");
+        System.setProperty(SECRET_NAME + ".ecs.url.typeofaccess", "platform.bbva.com");
+        System.setProperty(SECRET_NAME + ".ecs.url.zone", "work-01");
+        System.setProperty(SECRET_NAME + ".ecs.url.namespace", "user.xe81235");
+        System.setProperty(SECRET_NAME + ".omega.url.serviceUrlName", "omega");
+        System.setProperty(SECRET_NAME + ".omega.url.version", "v0");
+        System.setProperty(SECRET_NAME + ".omega.url.mrs", "mrs");
+        System.setProperty(SECRET_NAME + ".omega.url.logs", "logs");
+        SecretSource previousSource = MySecrets.getSource();
+        MySecrets.setSource(new EnvSecretSource());
+        try {
+            run();
+        } finally {
+            MySecrets.setSource(previousSource);
+        }
+    }
+
+    private static void run() {
+        URLs urls = new URLs(SupportedServices.OMEGA, SECRET_NAME);
+        // As read by OmegaService.readAllDefaultValues
+        MySecrets sec = new MySecrets();
+        String mrs = sec.readValueFromSecretWithKey(SECRET_NAME, "omega" + urls.getDotUrlDot() + "mrs");
+        String logs = sec.readValueFromSecretWithKey(SECRET_NAME, "omega" + urls.getDotUrlDot() + "logs");
+        String[] ids = {"mr-1", "mr-2", "mr-3", "mr-4"};
+
+        report("concatenated", ii -> urls.getHttps() + urls.getServiceUrlName() + urls.getDot() + urls.getZone()
+                + urls.getDot() + urls.getFrom() + urls.getSlash() + urls.getVersion() + urls.getNs() + urls.getSlash()
+                + urls.getNamespace() + urls.getSlash() + mrs + urls.getSlash() + ids[ii & 3] + urls.getSlash() + logs);
+        urls.setServiceOption(mrs);
+        report("buildCommonServiceURL", ii -> urls.buildCommonServiceURL(urls.getSlash() + ids[ii & 3] + urls.getSlash() + logs));
+        report("template, joined path", ii -> urls.commonTemplate(mrs).expand(urls.getSlash() + ids[ii & 3] + urls.getSlash() + logs));
+        report("template, segments", ii -> urls.commonTemplate(mrs).expand(urls.getSlash(), ids[ii & 3], urls.getSlash(), logs));
+    }
+
+    private static void report(String name, IntFunction<String> builder) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long length = 0;
+
+        for (int ii = 0; ii < WARMUP; ii++) {
+            length += builder.apply(ii).length();
+        }
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int ii = 0; ii < ITERATIONS; ii++) {
+            length += builder.apply(ii).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-24s %8d bytes/url %8d ns/url (%d chars)%n",
+                name, allocated / ITERATIONS, elapsed / ITERATIONS, length);
+    }
+}
@@ -0,0 +1,66 @@
+package ecs.utils;
+
+import mk.coco.ecs.credentials.EnvSecretSource;
+import mk.coco.ecs.credentials.MySecrets;
+import mk.coco.ecs.credentials.SecretSource;
+import mk.coco.ecs.services.common.SupportedServices;
+import mk.coco.ecs.utils.URLs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class URLsTest {
+
+    String secretName = "urlsTest";
+    private SecretSource previousSource;
+
+    @Before
+    public void setUp() {
+        System.setProperty(secretName + ".ecs.url.ns", "/ns");
+        System.setProperty(secretName + ".ecs.url.typeofaccess", "platform.bbva.com");
+        System.setProperty(secretName + ".ecs.url.zone", "work-01");
+        System.setProperty(secretName + ".ecs.url.namespace", "user.xe81235");
+        System.setProperty(secretName + ".sigma.url.serviceUrlName", "sigma");
+        System.setProperty(secretName + ".sigma.url.version", "v0");
+        previousSource = MySecrets.getSource();
+        MySecrets.setSource(new EnvSecretSource());
+    }
+
+    @After
+    public void tearDown() {
+        System.getProperties().stringPropertyNames().stream()
+                .filter(property -> property.startsWith(secretName + "."))
+                .forEach(System::clearProperty);
+        MySecrets.setSource(previousSource);
+    }
+
+    @Test
+    public void templatesBuildSameUrlsAsBuilders() {
+        URLs urls = new URLs(SupportedServices.SIGMA, secretName);
+        assertEquals("https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms/id:setStatus",
+                urls.actionTemplate("alarms", "setStatus").expand("id"));
+
+        urls.setServiceOption("alarms");
+        urls.setOptionName("id");
+        urls.setAction("setStatus");
+        assertEquals(urls.buildActionDefaultURL(), urls.actionTemplate("alarms", "setStatus").expand("id"));
+        assertEquals(urls.buildCommonServiceURL("/id"), urls.commonTemplate("alarms").expand("/id"));
+        assertEquals(urls.buildNsServiceURL("/spans"), urls.nsTemplate().expand("/spans"));
+    }
+
+    @Test
+    public void templatesFollowParameterChanges() {
+        URLs urls = new URLs(SupportedServices.SIGMA, secretName);
+        urls.commonTemplate("alarms");
+
+        urls.setNamespace("user.x000000");
+        assertEquals("https://sigma.work-01.platform.bbva.com/v0/ns/user.x000000/alarms", urls.commonTemplate("alarms").expand());
+
+        urls.setOverrideServiceFullUrl("https://any-url");
+        assertEquals("https://any-url", urls.commonTemplate("alarms").expand("/id"));
+    }
+
+}
@@ -0,0 +1,32 @@
+package ecs.utils;
+
+import mk.coco.ecs.utils.UrlTemplate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class UrlTemplateTest {
+
+    String prefix = "https://sigma.work-01.platform.bbva.com/v0/ns/user.xe81235/alarms";
+
+    @Test
+    public void expandsSegmentsAfterPrefix() {
+        UrlTemplate template = UrlTemplate.of(prefix);
+        assertEquals(prefix, template.expand());
+        assertEquals(prefix + "/id_alarm", template.expand("/", "id_alarm"));
+    }
+
+    @Test
+    public void expandsSegmentsBetweenPrefixAndSuffix() {
+        UrlTemplate template = UrlTemplate.of(prefix + "/", ":setStatus");
+        assertEquals(prefix + "/id_alarm:setStatus", template.expand("id_alarm"));
+    }
+
+    @Test
+    public void fixedTemplatesIgnoreSegments() {
+        UrlTemplate template = UrlTemplate.fixed("https://any-url");
+        assertEquals("https://any-url", template.expand("/", "id_alarm"));
+    }
+
+}